@@ -1,9 +1,8 @@
 package concurrency;
 
 import javax.swing.*;
-import java.awt.*;
-import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.util.Locale;
 
 public class BasicMandelbrot
 {
@@ -24,69 +23,65 @@ public class BasicMandelbrot
     public static final int IMAGE_SIZE   = 1600;
     public static final double SCALE = MANDELBROT_SIZE/IMAGE_SIZE;
     
+    public final MandelbrotRaster raster;
     public JFrame frame;
     public BufferedImage image;
-    public Graphics2D graphics;
     
-    // return number of iterations to check if c = x + iy is in Mandelbrot set
-    public static int mandelbrot(double x0, double y0, int maxIterations) {
-        double zx = x0;
-        double zy = y0;
-        for (int t = 0; t < maxIterations; t++) {
-            if (zx * zx + zy * zy > 4.0) {
-                return t;
-            }
-            double tmp = zx * zx - zy * zy + x0;
-            zy = 2.0 * zx * zy + y0;
-            zx = tmp;
-        }
-        return maxIterations;
+    // iteration counts are kept, so the colours can be changed afterwards without iterating again
+    public final IterationBuffer counts;
+    private Colouring colouring;
+    
+    public BasicMandelbrot() {
+        this(new Viewport(X_START, Y_START, SCALE, IMAGE_SIZE, IMAGE_SIZE, ITERATION_MAX));
     }
     
+    public BasicMandelbrot(Viewport view) {
+        this(view, Colouring.gray(view.iterationMax));
+    }
     
-    public BasicMandelbrot() {
-        // Set up the graphics to display the image
-        frame = new JFrame("Mandelbrot");
-        image  = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
-        graphics  = image.createGraphics();
-        graphics.setColor(Color.WHITE);
-        graphics.fillRect(0, 0, IMAGE_SIZE, IMAGE_SIZE);
-        ImageIcon icon = new ImageIcon(image);
-        JLabel draw = new JLabel(icon);
-        
-        frame.setContentPane(draw);
-        frame.setResizable(false);
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.pack();
-        frame.setVisible(true);
-        
-        graphics.scale(1/SCALE, 1/SCALE);
-        graphics.translate(-X_START, -Y_START);
+    public BasicMandelbrot(Viewport view, Colouring colouring) {
+        this.colouring = colouring;
+        counts = new IterationBuffer(view, colouring.mode == Colouring.Mode.SMOOTH);
+        // pixels are written straight into the image, the window (if there is a display) just shows it
+        raster = new MandelbrotRaster(view);
+        image = raster.image;
+        frame = raster.display("Mandelbrot");
     }
     
     public void run() {
-        for (int i = 0; i < IMAGE_SIZE; i++) {
-            for (int j = 0; j < IMAGE_SIZE; j++) {
-                double x0 = X_START + SCALE * i;
-                double y0 = Y_START + SCALE * j;
-                int gray = ITERATION_MAX - mandelbrot(x0, y0, ITERATION_MAX);
-                
-                // TODO do some colour mapping here if needed
-                
-                Color color = new Color(gray, gray, gray);
-                graphics.setColor(color);
-                graphics.fill(new Rectangle2D.Double(x0, y0, SCALE, SCALE));
-                // TODO might wanna do repaint outside of the outer for loop
-                // frame.repaint();
-            }
-        }
-        frame.repaint();
+        Viewport view = raster.view;
+        // row by row so the writes walk the buffer in order
+        counts.computeRows(0, view.height);
+        recolour(colouring);
+    }
+    
+    /**
+     * Colour the counts from the last run() again, e.g. with a different palette; smooth colouring only works if
+     * this was constructed with it
+     */
+    public void recolour(Colouring colouring) {
+        colouring.apply(counts, raster.pixels);
+        this.colouring = colouring;
+        if (frame != null)
+            frame.repaint();
     }
     
+    /**
+     * Arguments (all optional): colouring (gray, palette, smooth or equalised), then it times recolouring
+     */
     public static void main(String[] args)  {
+        String mode = args.length > 0 ? args[0].toUpperCase(Locale.ROOT) : "GRAY";
+        Viewport view = new Viewport(X_START, Y_START, SCALE, IMAGE_SIZE, IMAGE_SIZE, ITERATION_MAX);
+        Colouring colouring = mode.equals("GRAY") ? Colouring.gray(ITERATION_MAX)
+                : new Colouring(Colouring.Mode.valueOf(mode), Palette.classic());
         long start = System.currentTimeMillis();
-        new BasicMandelbrot().run();
+        BasicMandelbrot mandelbrot = new BasicMandelbrot(view, colouring);
+        mandelbrot.run();
         long end = System.currentTimeMillis();
         System.out.println(end - start);
+        
+        start = System.nanoTime();
+        mandelbrot.recolour(colouring);
+        System.out.printf("recoloured %s in %.2f ms%n", mode, (System.nanoTime() - start) / 1e6);
     }
 }
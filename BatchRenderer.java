@@ -0,0 +1,277 @@
+package concurrency;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless batch rendering of many views in one JVM, e.g. the nightly thumbnails. Jobs are read from a file, one per
+ * line:
+ *
+ *  xCentre yCentre size width height iterationMax output.png [gray|classic]
+ *
+ * (size is the width of the view in the complex plane; blank lines and lines starting with # are skipped).
+ * Like ZoomAnimation, the jobs go through a RenderPipeline: every job's tiles go onto one shared pool and finished
+ * images go on a queue to writer threads. Up to maxJobsInFlight jobs are admitted at once, so the tiles of the next
+ * jobs are already queued behind the current one's and no thread goes idle while a job's last tiles finish; a job's
+ * permit is only given back once its image is written, which bounds the memory held in images. A job that fails
+ * (a bad output path, say) is reported and the rest carry on.
+ */
+public class BatchRenderer
+{
+    public static int TILE_SIZE = 64;
+
+    private final List<Job> jobs;
+    private final int threadCount;
+    private final int writerCount;
+    private final int maxJobsInFlight;
+
+    public BatchRenderer(List<Job> jobs, int threadCount, int writerCount, int maxJobsInFlight)
+    {
+        if (maxJobsInFlight < 1)
+            throw new IllegalArgumentException("maxJobsInFlight must be at least 1: " + maxJobsInFlight);
+        this.jobs = jobs;  this.threadCount = threadCount;  this.writerCount = writerCount;
+        this.maxJobsInFlight = maxJobsInFlight;
+    }
+
+    public static final class Job
+    {
+        public final Viewport view;
+        public final File output;
+        public final Palette palette;
+
+        public Job(Viewport view, File output, Palette palette)
+        {
+            this.view = view;  this.output = output;  this.palette = palette;
+        }
+
+        /**
+         * One line of a job file; throws IllegalArgumentException naming the line if it doesn't make sense
+         */
+        public static Job parse(String line, int lineNumber)
+        {
+            String[] fields = line.trim().split("\\s+");
+            try
+            {
+                if (fields.length < 7 || fields.length > 8)
+                    throw new IllegalArgumentException("expected xCentre yCentre size width height iterationMax "
+                                                       + "output [palette], got " + fields.length + " fields");
+                double xCentre = Double.parseDouble(fields[0]);
+                double yCentre = Double.parseDouble(fields[1]);
+                double size = Double.parseDouble(fields[2]);
+                int width = Integer.parseInt(fields[3]);
+                int height = Integer.parseInt(fields[4]);
+                int iterationMax = Integer.parseInt(fields[5]);
+                double scale = size / width;
+                Viewport view = new Viewport(xCentre - scale * width / 2, yCentre - scale * height / 2, scale,
+                                             width, height, iterationMax);
+                String palette = fields.length > 7 ? fields[7] : "gray";
+                if (!palette.equals("gray") && !palette.equals("classic"))
+                    throw new IllegalArgumentException("palette must be gray or classic: " + palette);
+                return new Job(view, new File(fields[6]),
+                               palette.equals("gray") ? Palette.gray(iterationMax) : Palette.classic());
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new IllegalArgumentException("line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    public static List<Job> readJobs(Path file) throws IOException
+    {
+        List<Job> jobs = new ArrayList<>();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (int k = 0; k < lines.size(); k++)
+        {
+            String line = lines.get(k).trim();
+            if (!line.isEmpty() && !line.startsWith("#"))
+                jobs.add(Job.parse(line, k + 1));
+        }
+        return jobs;
+    }
+
+    /**
+     * How one job went; the times are System.nanoTime() values
+     */
+    public static final class Result
+    {
+        public final Job job;
+        final MandelbrotRaster raster;
+        // thread time spent on its tiles
+        final LongAdder renderNanos = new LongAdder();
+        volatile long admitted;
+        volatile long written;
+        volatile Throwable failure;
+
+        Result(Job job)
+        {
+            this.job = job;
+            raster = new MandelbrotRaster(job.view);
+        }
+
+        public boolean succeeded()
+        {
+            return failure == null;
+        }
+
+        public Throwable failure()
+        {
+            return failure;
+        }
+
+        // from being admitted to being written
+        public double seconds()
+        {
+            return (written - admitted) / 1e9;
+        }
+
+        public double renderSeconds()
+        {
+            return renderNanos.sum() / 1e9;
+        }
+
+        public double pixelsPerSecond()
+        {
+            return job.view.pixelCount() / seconds();
+        }
+    }
+
+    /**
+     * Render and write every job, returning how each went in the order they were given
+     */
+    public List<Result> run() throws InterruptedException
+    {
+        List<Result> results = new ArrayList<>(jobs.size());
+        try (RenderPipeline<Result> pipeline = new RenderPipeline<>(threadCount, writerCount, maxJobsInFlight,
+                                                                     TILE_SIZE, STAGES))
+        {
+            for (Job job : jobs)
+            {
+                Result result = new Result(job);
+                results.add(result);
+                pipeline.submit(result, job.view);
+            }
+            pipeline.awaitAll();
+        }
+        return results;
+    }
+
+    private static final RenderPipeline.Stages<Result> STAGES = new RenderPipeline.Stages<>()
+    {
+        @Override
+        public void admitted(Result result)
+        {
+            result.admitted = System.nanoTime();
+        }
+
+        @Override
+        public void renderTile(Result result, int x, int y, int width, int height)
+        {
+            long start = System.nanoTime();
+            plotTile(result, x, y, width, height);
+            result.renderNanos.add(System.nanoTime() - start);
+        }
+
+        @Override
+        public void write(Result result) throws IOException
+        {
+            File parent = result.job.output.getAbsoluteFile().getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs())
+                throw new IOException("can't create " + parent);
+            if (!ImageIO.write(result.raster.image, "png", result.job.output))
+                throw new IOException("no PNG writer");
+            result.written = System.nanoTime();
+        }
+
+        @Override
+        public void failed(Result result, Throwable failure)
+        {
+            result.failure = failure;
+            result.written = System.nanoTime();
+        }
+    };
+
+    private static void plotTile(Result result, int xStart, int yStart, int width, int height)
+    {
+        Viewport view = result.job.view;
+        Palette palette = result.job.palette;
+        int[] pixels = result.raster.pixels;
+        for (int j = yStart; j < yStart + height; j++)
+        {
+            double y0 = view.y(j);
+            for (int i = xStart; i < xStart + width; i++)
+            {
+                int count = MandelbrotKernel.mandelbrot(view.x(i), y0, view.iterationMax);
+                pixels[j * view.width + i] = count >= view.iterationMax ? palette.insideRGB : palette.colour(count);
+            }
+        }
+    }
+
+    public static void printReport(List<Result> results, double seconds)
+    {
+        long pixels = 0;
+        int failed = 0;
+        for (Result result : results)
+        {
+            if (result.succeeded())
+            {
+                pixels += result.job.view.pixelCount();
+                System.out.printf(Locale.ROOT, "%-40s %5dx%-5d %7.1f ms %8.2f Mpixels/s %7.1f ms rendering%n",
+                                  result.job.output, result.job.view.width, result.job.view.height,
+                                  result.seconds() * 1000, result.pixelsPerSecond() / 1e6,
+                                  result.renderSeconds() * 1000);
+            }
+            else
+            {
+                failed++;
+                System.out.println(result.job.output + " FAILED: " + result.failure());
+            }
+        }
+        System.out.printf(Locale.ROOT, "%d jobs (%d failed) in %.2f s: %.1f jobs/s, %.2f Mpixels/s%n",
+                          results.size(), failed, seconds, results.size() / seconds, pixels / seconds / 1e6);
+    }
+
+    /**
+     * Arguments (all optional): jobFile threads maxJobsInFlight writers. Without a job file it makes up 200
+     * thumbnails along the edge of the set and writes them to thumbnails/.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException  {
+        System.setProperty("java.awt.headless", "true");
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threadCount = args.length > 1 ? Integer.parseInt(args[1]) : cores;
+        int maxJobsInFlight = args.length > 2 ? Integer.parseInt(args[2]) : 2 * threadCount;
+        int writerCount = args.length > 3 ? Integer.parseInt(args[3]) : Math.max(1, cores / 4);
+
+        List<Job> jobs;
+        if (args.length > 0)
+            jobs = readJobs(Paths.get(args[0]));
+        else
+        {
+            jobs = new ArrayList<>();
+            for (int k = 0; k < 200; k++)
+            {
+                double angle = 2 * Math.PI * k / 200;
+                // round the main cardioid, where there's always something to see
+                double x = 0.5 * Math.cos(angle) - 0.25 * Math.cos(2 * angle);
+                double y = 0.5 * Math.sin(angle) - 0.25 * Math.sin(2 * angle);
+                jobs.add(Job.parse(x + " " + y + " 0.05 160 120 1000 thumbnails/thumb_" + k + ".png classic", 0));
+            }
+        }
+
+        long start = System.nanoTime();
+        List<Result> results = new BatchRenderer(jobs, threadCount, writerCount, maxJobsInFlight).run();
+        printReport(results, (System.nanoTime() - start) / 1e9);
+        for (Result result : results)
+            if (!result.succeeded())
+                System.exit(1);
+    }
+}
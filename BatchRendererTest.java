@@ -0,0 +1,83 @@
+package concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class BatchRendererTest {
+
+    @Test
+    public void testReadsJobFile() throws Exception {
+        Path file = Files.createTempFile("jobs", ".txt");
+        try {
+            Files.write(file, Arrays.asList("# thumbnails", "", "-0.5 0 3 300 200 500 a.png classic",
+                                            "  0 1 0.01 64 64 2000 out/b.png  "));
+            List<BatchRenderer.Job> jobs = BatchRenderer.readJobs(file);
+            assertEquals(2, jobs.size());
+            Viewport view = jobs.get(0).view;
+            assertEquals(300, view.width);
+            assertEquals(200, view.height);
+            assertEquals(0.01, view.scale, 1e-15);
+            assertEquals(-2.0, view.xStart, 1e-12);
+            assertEquals(-1.0, view.yStart, 1e-12);
+            assertEquals(new File("out/b.png"), jobs.get(1).output);
+            assertEquals(2000, jobs.get(1).view.iterationMax);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testBadLineIsNamed() {
+        try {
+            BatchRenderer.Job.parse("0 0 1 100 100 many out.png", 7);
+            fail("iteration limit isn't a number");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("line 7: "));
+        }
+    }
+
+    @Test
+    public void testRendersEveryJobWithFewInFlight() throws Exception {
+        Path dir = Files.createTempDirectory("batch");
+        List<BatchRenderer.Job> jobs = new ArrayList<>();
+        for (int k = 0; k < 6; k++)
+            jobs.add(BatchRenderer.Job.parse("-0.5 " + (0.1 * k) + " 3 " + (40 + 30 * k) + " 50 300 "
+                                             + dir.resolve("job" + k + ".png") + " classic", k + 1));
+        // the last one can't be written, the others mustn't mind
+        File blocker = dir.resolve("file").toFile();
+        assertTrue(blocker.createNewFile());
+        jobs.add(BatchRenderer.Job.parse("-0.5 0 3 30 30 300 " + new File(blocker, "x.png"), 7));
+
+        List<BatchRenderer.Result> results = new BatchRenderer(jobs, 3, 1, 2).run();
+        assertEquals(jobs.size(), results.size());
+        for (int k = 0; k < 6; k++) {
+            BatchRenderer.Result result = results.get(k);
+            assertTrue(result.succeeded());
+            Viewport view = result.job.view;
+            BufferedImage image = ImageIO.read(result.job.output);
+            for (int j = 0; j < view.height; j++) {
+                for (int i = 0; i < view.width; i++) {
+                    int count = MandelbrotKernel.mandelbrot(view.x(i), view.y(j), view.iterationMax);
+                    int expected = count >= view.iterationMax ? result.job.palette.insideRGB
+                                                              : result.job.palette.colour(count);
+                    assertEquals(expected, image.getRGB(i, j) & 0xffffff);
+                }
+            }
+        }
+        assertFalse(results.get(6).succeeded());
+    }
+}
@@ -1,8 +1,6 @@
 package concurrency;
 
 import javax.swing.*;
-import java.awt.*;
-import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 
 public class BlockedMandelbrot
@@ -27,48 +25,30 @@ public class BlockedMandelbrot
     // used in plotBlock()
     public static int BLOCK_SIZE = IMAGE_SIZE / 10;
     
+    public final MandelbrotRaster raster;
+    public final int blockSize;
     public JFrame frame;
     public BufferedImage image;
-    public Graphics2D graphics;
-    
-    // return number of iterations to check if c = x + iy is in Mandelbrot set
-    public static int mandelbrot(double x0, double y0, int maxIterations) {
-        double zx = x0;
-        double zy = y0;
-        for (int t = 0; t < maxIterations; t++) {
-            if (zx * zx + zy * zy > 4.0) {
-                return t;
-            }
-            double tmp = zx * zx - zy * zy + x0;
-            zy = 2.0 * zx * zy + y0;
-            zx = tmp;
-        }
-        return maxIterations;
-    }
     
+    // repaints at most 60 times a second however fast the blocks come in
+    private RepaintThrottle throttle;
     
     public BlockedMandelbrot() {
-        // Set up the graphics to display the image
-        frame = new JFrame("Mandelbrot");
-        image  = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
-        graphics  = image.createGraphics();
-        graphics.setColor(Color.WHITE);
-        graphics.fillRect(0, 0, IMAGE_SIZE, IMAGE_SIZE);
-        ImageIcon icon = new ImageIcon(image);
-        JLabel draw = new JLabel(icon);
-        
-        frame.setContentPane(draw);
-        frame.setResizable(false);
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.pack();
-        frame.setVisible(true);
-        
-        graphics.scale(1/SCALE, 1/SCALE);
-        graphics.translate(-X_START, -Y_START);
+        this(new Viewport(X_START, Y_START, SCALE, IMAGE_SIZE, IMAGE_SIZE, ITERATION_MAX), BLOCK_SIZE);
+    }
+    
+    public BlockedMandelbrot(Viewport view, int blockSize) {
+        this.blockSize = blockSize;
+        // pixels are written straight into the image, the window (if there is a display) just shows it
+        raster = new MandelbrotRaster(view);
+        image = raster.image;
+        frame = raster.display("Mandelbrot");
+        if (frame != null)
+            throttle = new RepaintThrottle(frame.getContentPane(), 60);
     }
     
     /**
-     * This method will plot a blockSize by blockSize square piece of the image starting at position (xStart, yStart) on the image canvas, with the parameters iterationMax and scale defined as in BasicMandelbrot
+     * This method will plot a blockSize by blockSize square piece of the image starting at position (xStart, yStart) on the image canvas, with the parameters iterationMax and scale defined as in BasicMandelbrot. Blocks that hang over the edge of the image are clipped
      * @param xStart starting x position of the block
      * @param yStart starting y position of the block
      * @param blockSize side length of the block square
@@ -78,31 +58,37 @@ public class BlockedMandelbrot
     public void plotBlock(double xStart, double yStart, int blockSize,
                           double scale, int iterationMax)
     {
-        for (int i = 0; i < blockSize; i++)
+        Viewport view = raster.view;
+        int width = Math.min(blockSize, view.width - (int)xStart);
+        int height = Math.min(blockSize, view.height - (int)yStart);
+        for (int j = 0; j < height; j++)
         {
-            for (int j = 0; j < blockSize; j++)
+            for (int i = 0; i < width; i++)
             {
-                double x0 = X_START + scale * (xStart + i);
-                double y0 = Y_START + scale * (yStart + j);
-                int gray = iterationMax - mandelbrot(x0, y0, iterationMax);
-                Color color = new Color(gray, gray, gray);
-                graphics.setColor(color);
-                graphics.fill(new Rectangle2D.Double(x0, y0, scale, scale));
-                frame.repaint();
+                double x0 = view.xStart + scale * (xStart + i);
+                double y0 = view.yStart + scale * (yStart + j);
+                int gray = iterationMax - MandelbrotKernel.mandelbrot(x0, y0, iterationMax);
+                raster.setPixel((int)xStart + i, (int)yStart + j, MandelbrotRaster.grayRGB(gray));
             }
         }
+        if (throttle != null)
+            throttle.markDirty((int)xStart, (int)yStart, width, height);
     }
     
     public void run()
     {
-        for (int i = 0; i < IMAGE_SIZE; i+=BLOCK_SIZE)
+        Viewport view = raster.view;
+        if (throttle != null)
+            throttle.start();
+        for (int i = 0; i < view.width; i+=blockSize)
         {
-            for (int j = 0; j < IMAGE_SIZE; j+=BLOCK_SIZE)
+            for (int j = 0; j < view.height; j+=blockSize)
             {
-                plotBlock(i, j, BLOCK_SIZE, SCALE, ITERATION_MAX);
+                plotBlock(i, j, blockSize, view.scale, view.iterationMax);
             }
         }
-        
+        if (throttle != null)
+            throttle.stop();
     }
     
     public static void main(String[] args)  {
@@ -0,0 +1,422 @@
+package concurrency;
+
+import javax.imageio.ImageIO;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Buddhabrot, and with several iteration limits Nebulabrot: random points c that escape have every point of their
+ * orbit added to a density image, one channel per limit (a channel counts the orbits that escaped within its limit).
+ *
+ * Every worker adds into its own int buffer, so the hot loop is plain array increments with no sharing at all. The
+ * samples are done in rounds; at the end of a round the buffers are summed into the long totals by all the threads
+ * at once, each taking a stripe of pixels (and zeroing it in the buffers), and a checkpoint can be written. Rounds
+ * keep the per-worker int counts far from overflowing however many samples are taken overall.
+ *
+ * Samples are drawn in batches of BATCH_SAMPLES, batch b always from the same seeded stream, so a run can be
+ * resumed from a checkpoint and carry on exactly as if it hadn't stopped. Only the upper half plane is sampled: the
+ * orbit of conj(c) is the mirror image of the orbit of c, so each orbit is plotted twice, once reflected.
+ *
+ * Importance sampling: most of the plane either lies inside the set (orbits that never escape, the costliest ones to
+ * throw away) or escapes too soon to count. A coarse grid over the sampling region is probed first, and
+ * samples are only drawn from cells where some probe's orbit escaped and went through the view; cells where none did
+ * are skipped. Within the cells that are kept sampling stays uniform, so their relative brightness isn't changed.
+ */
+public class Buddhabrot implements AutoCloseable
+{
+    public static final int CHECKPOINT_MAGIC = 0x42554444; // "BUDD"
+
+    // the sampling region: the whole set, upper half
+    public static final double SAMPLE_X = -2.0;
+    public static final double SAMPLE_Y = 0.0;
+    public static final double SAMPLE_WIDTH = 4.0;
+    public static final double SAMPLE_HEIGHT = 2.0;
+
+    public static int BATCH_SAMPLES = 1 << 14;
+    public static int IMPORTANCE_COLUMNS = 256;
+    public static int IMPORTANCE_ROWS = 128;
+    public static int PROBES_PER_CELL = 16;
+    // orbits that escape sooner than this only add an even haze around the set, they're left out
+    public static int MIN_ESCAPE = 10;
+
+    public final Viewport view;
+    // one channel per limit, highest first
+    public final int[] limits;
+    public final long seed;
+    public final MandelbrotRaster raster;
+
+    private final int threadCount;
+    private final ExecutorService threads;
+    private final int[][] buffers;
+    // channel c, pixel p at c * pixelCount + p
+    private final long[] density;
+    private final int maxLimit;
+    private int[] usefulCells;
+
+    private long batchesDone;
+    private final LongAdder contributing = new LongAdder();
+
+    public Buddhabrot(Viewport view, int[] limits, long seed, int threadCount)
+    {
+        if (limits.length == 0 || limits.length > 3)
+            throw new IllegalArgumentException("one to three iteration limits, one per colour channel");
+        this.view = view;
+        this.limits = limits.clone();
+        Arrays.sort(this.limits);
+        for (int k = 0; k < this.limits.length / 2; k++)
+        {
+            int swap = this.limits[k];
+            this.limits[k] = this.limits[this.limits.length - 1 - k];
+            this.limits[this.limits.length - 1 - k] = swap;
+        }
+        maxLimit = this.limits[0];
+        this.seed = seed;
+        this.threadCount = threadCount;
+        threads = ThreadedMandelbrot.newWorkerPool(threadCount);
+        int size = Math.multiplyExact(view.pixelCount(), this.limits.length);
+        buffers = new int[threadCount][size];
+        density = new long[size];
+        raster = new MandelbrotRaster(view);
+    }
+
+    public long samplesDone()
+    {
+        return batchesDone * BATCH_SAMPLES;
+    }
+
+    // samples that escaped and were plotted, since this object was made
+    public long contributingSamples()
+    {
+        return contributing.sum();
+    }
+
+    public int usefulCellCount()
+    {
+        return usefulCells == null ? 0 : usefulCells.length;
+    }
+
+    public long density(int channel, int i, int j)
+    {
+        return density[channel * view.pixelCount() + j * view.width + i];
+    }
+
+    /**
+     * Probe every cell of the sampling grid and keep the ones worth sampling; done once, before the first round
+     */
+    void buildImportanceMap()
+    {
+        int cells = IMPORTANCE_COLUMNS * IMPORTANCE_ROWS;
+        boolean[] useful = new boolean[cells];
+        List<Runnable> jobs = new ArrayList<>();
+        for (int row = 0; row < IMPORTANCE_ROWS; row++)
+        {
+            int r = row;
+            jobs.add(() -> {
+                SplittableRandom random = new SplittableRandom(seed - 1 - r);
+                for (int column = 0; column < IMPORTANCE_COLUMNS; column++)
+                {
+                    int cell = r * IMPORTANCE_COLUMNS + column;
+                    for (int probe = 0; probe < PROBES_PER_CELL && !useful[cell]; probe++)
+                    {
+                        double x = cellX(cell) + random.nextDouble() * cellWidth();
+                        double y = cellY(cell) + random.nextDouble() * cellHeight();
+                        useful[cell] = trace(x, y, null) > 0;
+                    }
+                }
+            });
+        }
+        RenderSchedulers.runAll(threads, jobs);
+        int count = 0;
+        for (boolean u : useful)
+            if (u)
+                count++;
+        usefulCells = new int[count];
+        count = 0;
+        for (int cell = 0; cell < cells; cell++)
+            if (useful[cell])
+                usefulCells[count++] = cell;
+    }
+
+    private static double cellWidth()
+    {
+        return SAMPLE_WIDTH / IMPORTANCE_COLUMNS;
+    }
+
+    private static double cellHeight()
+    {
+        return SAMPLE_HEIGHT / IMPORTANCE_ROWS;
+    }
+
+    private static double cellX(int cell)
+    {
+        return SAMPLE_X + (cell % IMPORTANCE_COLUMNS) * cellWidth();
+    }
+
+    private static double cellY(int cell)
+    {
+        return SAMPLE_Y + (cell / IMPORTANCE_COLUMNS) * cellHeight();
+    }
+
+    /**
+     * If c escapes within the highest limit (and not before MIN_ESCAPE), add its orbit (and its reflection) to
+     * buffer, if there is one, and return how many of its points landed in the view; 0 if it doesn't count
+     */
+    private int trace(double x0, double y0, int[] buffer)
+    {
+        int escapedAt = MandelbrotKernel.mandelbrot(x0, y0, maxLimit);
+        if (escapedAt >= maxLimit || escapedAt < MIN_ESCAPE)
+            return 0;
+        int pixels = view.pixelCount();
+        // the channels whose limit this orbit escaped within are 0 .. channels - 1, since they're highest first
+        int channels = 0;
+        while (channels < limits.length && escapedAt < limits[channels])
+            channels++;
+        double inverseScale = 1 / view.scale;
+        int landed = 0;
+        double x = x0;
+        double y = y0;
+        for (int t = 0; t < escapedAt; t++)
+        {
+            int i = (int) Math.floor((x - view.xStart) * inverseScale);
+            if (i >= 0 && i < view.width)
+            {
+                int j = (int) Math.floor((y - view.yStart) * inverseScale);
+                int mirror = (int) Math.floor((-y - view.yStart) * inverseScale);
+                if (j >= 0 && j < view.height)
+                {
+                    landed++;
+                    if (buffer != null)
+                        for (int c = 0; c < channels; c++)
+                            buffer[c * pixels + j * view.width + i]++;
+                }
+                if (mirror >= 0 && mirror < view.height)
+                {
+                    landed++;
+                    if (buffer != null)
+                        for (int c = 0; c < channels; c++)
+                            buffer[c * pixels + mirror * view.width + i]++;
+                }
+            }
+            double x2 = x * x;
+            double y2 = y * y;
+            y = 2.0 * x * y + y0;
+            x = x2 - y2 + x0;
+        }
+        return landed;
+    }
+
+    /**
+     * Take samples more samples (rounded up to whole batches), merging and checkpointing every roundSamples;
+     * checkpoint may be null
+     */
+    public void run(long samples, long roundSamples, Path checkpoint) throws IOException
+    {
+        if (usefulCells == null)
+            buildImportanceMap();
+        if (usefulCells.length == 0)
+            throw new IllegalStateException("no orbit from the sampling region goes through " + view);
+        long batchesPerRound = Math.max(1, roundSamples / BATCH_SAMPLES);
+        long endBatch = batchesDone + (samples + BATCH_SAMPLES - 1) / BATCH_SAMPLES;
+        while (batchesDone < endBatch)
+        {
+            long roundEnd = Math.min(endBatch, batchesDone + batchesPerRound);
+            AtomicLong nextBatch = new AtomicLong(batchesDone);
+            List<Runnable> workers = new ArrayList<>();
+            for (int w = 0; w < threadCount; w++)
+            {
+                int[] buffer = buffers[w];
+                workers.add(() -> {
+                    for (long batch = nextBatch.getAndIncrement(); batch < roundEnd;
+                         batch = nextBatch.getAndIncrement())
+                        sampleBatch(batch, buffer);
+                });
+            }
+            RenderSchedulers.runAll(threads, workers);
+            merge();
+            batchesDone = roundEnd;
+            if (checkpoint != null)
+                writeCheckpoint(checkpoint);
+        }
+    }
+
+    private void sampleBatch(long batch, int[] buffer)
+    {
+        SplittableRandom random = new SplittableRandom(seed + batch * 0x9E3779B97F4A7C15L);
+        long plotted = 0;
+        for (int s = 0; s < BATCH_SAMPLES; s++)
+        {
+            int cell = usefulCells[random.nextInt(usefulCells.length)];
+            double x = cellX(cell) + random.nextDouble() * cellWidth();
+            double y = cellY(cell) + random.nextDouble() * cellHeight();
+            if (trace(x, y, buffer) > 0)
+                plotted++;
+        }
+        contributing.add(plotted);
+    }
+
+    // every thread sums a stripe of all the buffers into the totals, clearing it as it goes
+    private void merge()
+    {
+        int stripes = threadCount * 4;
+        int stripe = (density.length + stripes - 1) / stripes;
+        List<Runnable> jobs = new ArrayList<>();
+        for (int from = 0; from < density.length; from += stripe)
+        {
+            int start = from;
+            int end = Math.min(density.length, from + stripe);
+            jobs.add(() -> {
+                for (int[] buffer : buffers)
+                {
+                    for (int p = start; p < end; p++)
+                        density[p] += buffer[p];
+                    Arrays.fill(buffer, start, end, 0);
+                }
+            });
+        }
+        RenderSchedulers.runAll(threads, jobs);
+    }
+
+    /**
+     * Written to a temporary file and moved over the old one, so a crash mid-write leaves the last good checkpoint
+     */
+    public void writeCheckpoint(Path file) throws IOException
+    {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary),
+                                                                                  1 << 16)))
+        {
+            out.writeInt(CHECKPOINT_MAGIC);
+            writeSettings(out);
+            out.writeLong(batchesDone);
+            for (long value : density)
+                out.writeLong(value);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Carry on from a checkpoint of the same view, limits, seed and batch size; false if there isn't one
+     */
+    public boolean restore(Path file) throws IOException
+    {
+        if (!Files.exists(file))
+            return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16)))
+        {
+            if (in.readInt() != CHECKPOINT_MAGIC)
+                throw new IOException(file + " isn't a Buddhabrot checkpoint");
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            writeSettings(new DataOutputStream(expected));
+            byte[] settings = new byte[expected.size()];
+            in.readFully(settings);
+            if (!Arrays.equals(settings, expected.toByteArray()))
+                throw new IOException(file + " is a checkpoint of a different render");
+            batchesDone = in.readLong();
+            for (int p = 0; p < density.length; p++)
+                density[p] = in.readLong();
+        }
+        return true;
+    }
+
+    private void writeSettings(DataOutputStream out) throws IOException
+    {
+        out.writeDouble(view.xStart);
+        out.writeDouble(view.yStart);
+        out.writeDouble(view.scale);
+        out.writeInt(view.width);
+        out.writeInt(view.height);
+        out.writeInt(limits.length);
+        for (int limit : limits)
+            out.writeInt(limit);
+        out.writeLong(seed);
+        out.writeInt(BATCH_SAMPLES);
+    }
+
+    /**
+     * Tone map the densities into raster: square root of each channel against its own maximum, the highest limit
+     * in red, then green, then blue (one limit gives gray)
+     */
+    public MandelbrotRaster toImage()
+    {
+        int pixels = view.pixelCount();
+        double[] inverseMax = new double[limits.length];
+        for (int c = 0; c < limits.length; c++)
+        {
+            long max = 1;
+            for (int p = 0; p < pixels; p++)
+                max = Math.max(max, density[c * pixels + p]);
+            inverseMax[c] = 1.0 / max;
+        }
+        for (int p = 0; p < pixels; p++)
+        {
+            int rgb = 0;
+            for (int c = 0; c < limits.length; c++)
+            {
+                int level = (int) Math.round(255 * Math.sqrt(density[c * pixels + p] * inverseMax[c]));
+                rgb |= limits.length == 1 ? MandelbrotRaster.grayRGB(level) : level << (16 - 8 * c);
+            }
+            raster.pixels[p] = rgb;
+        }
+        return raster;
+    }
+
+    @Override
+    public void close()
+    {
+        threads.shutdown();
+    }
+
+    /**
+     * Arguments (all optional): samples imageSize limits threads checkpointFile output.png, limits being
+     * comma separated (e.g. 5000,500,50 for a Nebulabrot). With a checkpoint file, resumes from it if it exists;
+     * samples is the total, so a resumed run only takes what the checkpoint is short of.
+     */
+    public static void main(String[] args) throws IOException  {
+        System.setProperty("java.awt.headless", "true");
+        long samples = args.length > 0 ? Long.parseLong(args[0]) : 20_000_000L;
+        int imageSize = args.length > 1 ? Integer.parseInt(args[1]) : 800;
+        int[] limits = Arrays.stream((args.length > 2 ? args[2] : "5000,500,50").split(","))
+                             .mapToInt(Integer::parseInt).toArray();
+        int threadCount = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        Path checkpoint = args.length > 4 ? Paths.get(args[4]) : null;
+        File output = new File(args.length > 5 ? args[5] : "buddhabrot.png");
+
+        // all of it, with a margin
+        Viewport view = Viewport.centred(-0.4, 0, 3.2, imageSize, limits[0]);
+        try (Buddhabrot buddhabrot = new Buddhabrot(view, limits, 1, threadCount))
+        {
+            if (checkpoint != null && buddhabrot.restore(checkpoint))
+                System.out.println("resuming after " + buddhabrot.samplesDone() + " samples");
+            long start = System.currentTimeMillis();
+            buddhabrot.buildImportanceMap();
+            long mapped = System.currentTimeMillis();
+            System.out.printf("importance map: %d of %d cells worth sampling, %d ms%n", buddhabrot.usefulCellCount(),
+                              IMPORTANCE_COLUMNS * IMPORTANCE_ROWS, mapped - start);
+            long before = buddhabrot.samplesDone();
+            buddhabrot.run(Math.max(0, samples - before), Math.max(BATCH_SAMPLES, samples / 10), checkpoint);
+            long end = System.currentTimeMillis();
+            // whole batches, so this can be a little over what was asked for
+            long taken = buddhabrot.samplesDone() - before;
+            System.out.printf("%d samples, %d plotted, in %d ms: %.2f Msamples/s on %d threads%n", taken,
+                              buddhabrot.contributingSamples(), end - mapped,
+                              taken / 1e3 / Math.max(1, end - mapped), threadCount);
+            ImageIO.write(buddhabrot.toImage().image, "png", output);
+        }
+    }
+}
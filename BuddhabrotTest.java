@@ -0,0 +1,85 @@
+package concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+public class BuddhabrotTest {
+
+    private static final Viewport VIEW = Viewport.centred(-0.4, 0, 3.2, 64, 200);
+    private static final int[] LIMITS = {20, 200};
+
+    private static void assertSameDensity(Buddhabrot expected, Buddhabrot actual) {
+        for (int c = 0; c < LIMITS.length; c++)
+            for (int j = 0; j < VIEW.height; j++)
+                for (int i = 0; i < VIEW.width; i++)
+                    assertEquals(expected.density(c, i, j), actual.density(c, i, j));
+    }
+
+    @Test
+    public void testSameImageOnAnyNumberOfThreads() throws Exception {
+        try (Buddhabrot one = new Buddhabrot(VIEW, LIMITS, 7, 1);
+             Buddhabrot three = new Buddhabrot(VIEW, LIMITS, 7, 3)) {
+            one.run(6L * Buddhabrot.BATCH_SAMPLES, 6L * Buddhabrot.BATCH_SAMPLES, null);
+            three.run(6L * Buddhabrot.BATCH_SAMPLES, 2L * Buddhabrot.BATCH_SAMPLES, null);
+            assertSameDensity(one, three);
+            assertEquals(one.contributingSamples(), three.contributingSamples());
+            assertTrue(one.contributingSamples() > 0);
+            // limits are kept highest first, and the lower limit's orbits are a subset of the higher one's
+            assertEquals(200, one.limits[0]);
+            long all = 0, shorter = 0;
+            for (int j = 0; j < VIEW.height; j++) {
+                for (int i = 0; i < VIEW.width; i++) {
+                    assertTrue(one.density(1, i, j) <= one.density(0, i, j));
+                    all += one.density(0, i, j);
+                    shorter += one.density(1, i, j);
+                }
+            }
+            assertTrue(shorter > 0 && shorter < all);
+        }
+    }
+
+    @Test
+    public void testResumesFromCheckpoint() throws Exception {
+        Path checkpoint = Files.createTempFile("buddhabrot", ".ckpt");
+        Files.delete(checkpoint);
+        try (Buddhabrot straight = new Buddhabrot(VIEW, LIMITS, 3, 2);
+             Buddhabrot first = new Buddhabrot(VIEW, LIMITS, 3, 2);
+             Buddhabrot second = new Buddhabrot(VIEW, LIMITS, 3, 2)) {
+            straight.run(5L * Buddhabrot.BATCH_SAMPLES, Buddhabrot.BATCH_SAMPLES, null);
+
+            assertFalse(first.restore(checkpoint));
+            first.run(2L * Buddhabrot.BATCH_SAMPLES, Buddhabrot.BATCH_SAMPLES, checkpoint);
+            assertTrue(second.restore(checkpoint));
+            assertEquals(2L * Buddhabrot.BATCH_SAMPLES, second.samplesDone());
+            second.run(3L * Buddhabrot.BATCH_SAMPLES, Buddhabrot.BATCH_SAMPLES, checkpoint);
+            assertSameDensity(straight, second);
+        } finally {
+            Files.deleteIfExists(checkpoint);
+        }
+    }
+
+    @Test
+    public void testRefusesAnotherRendersCheckpoint() throws Exception {
+        Path checkpoint = Files.createTempFile("buddhabrot", ".ckpt");
+        try (Buddhabrot render = new Buddhabrot(VIEW, LIMITS, 3, 1);
+             Buddhabrot other = new Buddhabrot(VIEW, LIMITS, 4, 1)) {
+            render.run(Buddhabrot.BATCH_SAMPLES, Buddhabrot.BATCH_SAMPLES, checkpoint);
+            try {
+                other.restore(checkpoint);
+                fail("different seed");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("different render"));
+            }
+        } finally {
+            Files.deleteIfExists(checkpoint);
+        }
+    }
+}
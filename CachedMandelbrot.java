@@ -0,0 +1,163 @@
+package concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders views out of a TileCache of iteration counts, so panning back and forth or revisiting a view only
+ * computes tiles that haven't been seen (or were evicted) and the colouring can be redone without iterating.
+ * Tiles sit on a grid anchored at (originX, originY) with the view's scale; views are snapped to whole pixels of
+ * that grid, so a view that starts at the origin renders exactly like MandelbrotRaster.render().
+ */
+public class CachedMandelbrot implements AutoCloseable
+{
+    public static int TILE_SIZE = 64;
+    // 64 MB of tiles by default, about 4000 64x64 tiles
+    public static long CACHE_BYTES = 64L << 20;
+
+    public final TileCache cache;
+    public final double originX;
+    public final double originY;
+    private final ExecutorService threads;
+
+    public CachedMandelbrot(double originX, double originY, int threadCount)
+    {
+        this(originX, originY, threadCount, new TileCache(CACHE_BYTES));
+    }
+
+    public CachedMandelbrot(double originX, double originY, int threadCount, TileCache cache)
+    {
+        this.originX = originX;
+        this.originY = originY;
+        this.cache = cache;
+        threads = Executors.newFixedThreadPool(threadCount);
+    }
+
+    /**
+     * Render view into a new raster, computing only the tiles that aren't cached
+     */
+    public MandelbrotRaster render(Viewport view)
+    {
+        MandelbrotRaster raster = new MandelbrotRaster(view);
+        render(raster);
+        return raster;
+    }
+
+    public void render(MandelbrotRaster raster)
+    {
+        Viewport view = raster.view;
+        // the view's top left pixel, in whole pixels from the grid origin
+        long offsetX = Math.round((view.xStart - originX) / view.scale);
+        long offsetY = Math.round((view.yStart - originY) / view.scale);
+        int firstTileX = Math.toIntExact(Math.floorDiv(offsetX, TILE_SIZE));
+        int firstTileY = Math.toIntExact(Math.floorDiv(offsetY, TILE_SIZE));
+        int lastTileX = Math.toIntExact(Math.floorDiv(offsetX + view.width - 1, TILE_SIZE));
+        int lastTileY = Math.toIntExact(Math.floorDiv(offsetY + view.height - 1, TILE_SIZE));
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int tileY = firstTileY; tileY <= lastTileY; tileY++)
+        {
+            for (int tileX = firstTileX; tileX <= lastTileX; tileX++)
+            {
+                TileKey key = new TileKey(originX, originY, view.scale, tileX, tileY, TILE_SIZE, view.iterationMax);
+                futures.add(threads.submit(() -> copyTile(raster, key, cache.get(key, () -> computeTile(key)),
+                                                          offsetX, offsetY)));
+            }
+        }
+        for (Future<?> future : futures)
+        {
+            try
+            {
+                future.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while rendering", e);
+            }
+            catch (ExecutionException e)
+            {
+                throw new IllegalStateException("render job failed", e.getCause());
+            }
+        }
+    }
+
+    static int[] computeTile(TileKey key)
+    {
+        int size = key.tileSize;
+        int[] counts = new int[size * size];
+        for (int j = 0; j < size; j++)
+        {
+            double y0 = key.originY + key.scale * (key.pixelY() + j);
+            for (int i = 0; i < size; i++)
+            {
+                double x0 = key.originX + key.scale * (key.pixelX() + i);
+                counts[j * size + i] = MandelbrotKernel.mandelbrot(x0, y0, key.iterationMax);
+            }
+        }
+        return counts;
+    }
+
+    // the part of the tile that falls inside the view
+    private void copyTile(MandelbrotRaster raster, TileKey key, int[] counts, long offsetX, long offsetY)
+    {
+        Viewport view = raster.view;
+        int size = key.tileSize;
+        for (int j = 0; j < size; j++)
+        {
+            long y = key.pixelY() + j - offsetY;
+            if (y < 0 || y >= view.height)
+                continue;
+            for (int i = 0; i < size; i++)
+            {
+                long x = key.pixelX() + i - offsetX;
+                if (x < 0 || x >= view.width)
+                    continue;
+                raster.pixels[(int) y * view.width + (int) x] =
+                        MandelbrotRaster.grayRGB(view.iterationMax - counts[j * size + i]);
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        threads.shutdown();
+    }
+
+    /**
+     * Pans across the default view and back, then zooms in and out again, printing the cache counters after each
+     */
+    public static void main(String[] args)  {
+        System.setProperty("java.awt.headless", "true");
+        Viewport home = Viewport.defaultView(800);
+        try (CachedMandelbrot mandelbrot = new CachedMandelbrot(home.xStart, home.yStart,
+                                                                Runtime.getRuntime().availableProcessors()))
+        {
+            List<Viewport> views = new ArrayList<>();
+            views.add(home);
+            for (int step = 1; step <= 4; step++)
+                views.add(new Viewport(home.xStart + step * 100 * home.scale, home.yStart, home.scale,
+                                       home.width, home.height, home.iterationMax));
+            for (int step = 3; step >= 0; step--)
+                views.add(views.get(step));
+            Viewport zoomed = new Viewport(home.xStart, home.yStart, home.scale / 2, home.width, home.height,
+                                           home.iterationMax);
+            views.add(zoomed);
+            views.add(home);
+            views.add(zoomed);
+
+            for (Viewport view : views)
+            {
+                long start = System.currentTimeMillis();
+                mandelbrot.render(view);
+                long end = System.currentTimeMillis();
+                System.out.println((end - start) + " ms  " + view + "  " + mandelbrot.cache);
+            }
+        }
+    }
+}
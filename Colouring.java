@@ -0,0 +1,144 @@
+package concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Turns an IterationBuffer into pixels, separately from iterating, so a finished render can be recoloured without
+ * computing a single orbit again. Three ways of choosing a pixel's colour from the palette:
+ *  PALETTE    the palette entry for the count
+ *  SMOOTH     blended between entries by the normalised iteration count (needs a smooth IterationBuffer)
+ *  EQUALISED  by the count's rank among all escaping pixels, so the colours are spread evenly over the image
+ *             whatever the zoom and iteration limit
+ * PALETTE and EQUALISED first reduce everything to a table from count to colour, so the per-pixel work is one
+ * lookup. Work is split into bands of rows; for EQUALISED each band counts into its own histogram and the histograms
+ * are added up at the end, so no band ever waits for another. Nothing is allocated per pixel.
+ */
+public final class Colouring
+{
+    public enum Mode { PALETTE, SMOOTH, EQUALISED }
+
+    public final Mode mode;
+    public final Palette palette;
+
+    public Colouring(Mode mode, Palette palette)
+    {
+        this.mode = mode;
+        this.palette = palette;
+    }
+
+    // what the renderers have always drawn
+    public static Colouring gray(int iterationMax)
+    {
+        return new Colouring(Mode.PALETTE, Palette.gray(iterationMax));
+    }
+
+    /**
+     * Colour every pixel of counts into pixels (row-major, same size as the view), on the calling thread
+     */
+    public void apply(IterationBuffer counts, int[] pixels)
+    {
+        apply(counts, pixels, null, 1);
+    }
+
+    /**
+     * Colour every pixel, split into bands run on threads (if not null)
+     */
+    public void apply(IterationBuffer counts, int[] pixels, ExecutorService threads, int bands)
+    {
+        if (mode == Mode.SMOOTH && !counts.isSmooth())
+            throw new IllegalArgumentException("smooth colouring needs an IterationBuffer created with smooth = true");
+        Viewport view = counts.view;
+        if (pixels.length != view.width * view.height)
+            throw new IllegalArgumentException("expected " + view.width * view.height + " pixels, got " + pixels.length);
+        int rows = (view.height + bands - 1) / bands;
+
+        if (mode == Mode.SMOOTH)
+        {
+            run(threads, bands, rows, view, (yStart, yEnd) -> colourSmooth(counts, pixels, yStart, yEnd));
+            return;
+        }
+        int[] lookup = mode == Mode.EQUALISED ? equalisedLookup(counts, threads, bands, rows) : paletteLookup(view);
+        run(threads, bands, rows, view, (yStart, yEnd) -> {
+            for (int index = yStart * view.width; index < yEnd * view.width; index++)
+                pixels[index] = lookup[counts.get(index)];
+        });
+    }
+
+    private int[] paletteLookup(Viewport view)
+    {
+        int[] lookup = new int[view.iterationMax + 1];
+        for (int count = 0; count < view.iterationMax; count++)
+            lookup[count] = palette.colour(count);
+        lookup[view.iterationMax] = palette.insideRGB;
+        return lookup;
+    }
+
+    /**
+     * Histogram of the escaping counts, one per band merged afterwards, turned into a table that gives each count
+     * the palette colour at its place in the cumulative distribution
+     */
+    private int[] equalisedLookup(IterationBuffer counts, ExecutorService threads, int bands, int rows)
+    {
+        Viewport view = counts.view;
+        int iterationMax = view.iterationMax;
+        int[][] histograms = new int[bands][];
+        run(threads, bands, rows, view, (yStart, yEnd) -> {
+            // each band has its own, so no two threads ever increment the same slot
+            int[] histogram = new int[iterationMax + 1];
+            for (int index = yStart * view.width; index < yEnd * view.width; index++)
+                histogram[counts.get(index)]++;
+            histograms[yStart / rows] = histogram;
+        });
+
+        long[] cumulative = new long[iterationMax];
+        long escaped = 0;
+        for (int count = 0; count < iterationMax; count++)
+        {
+            for (int[] histogram : histograms)
+                if (histogram != null)
+                    escaped += histogram[count];
+            cumulative[count] = escaped;
+        }
+        int[] lookup = new int[iterationMax + 1];
+        int last = palette.size() - 1;
+        for (int count = 0; count < iterationMax; count++)
+            lookup[count] = palette.colour(escaped == 0 ? 0 : (int) (cumulative[count] * last / escaped));
+        lookup[iterationMax] = palette.insideRGB;
+        return lookup;
+    }
+
+    private void colourSmooth(IterationBuffer counts, int[] pixels, int yStart, int yEnd)
+    {
+        int iterationMax = counts.view.iterationMax;
+        int width = counts.view.width;
+        for (int index = yStart * width; index < yEnd * width; index++)
+        {
+            int count = counts.get(index);
+            pixels[index] = count == iterationMax ? palette.insideRGB : palette.colour(counts.smoothCount(index));
+        }
+    }
+
+    interface Band
+    {
+        void colour(int yStart, int yEnd);
+    }
+
+    private static void run(ExecutorService threads, int bands, int rows, Viewport view, Band band)
+    {
+        if (threads == null)
+        {
+            for (int y = 0; y < view.height; y += rows)
+                band.colour(y, Math.min(y + rows, view.height));
+            return;
+        }
+        List<Runnable> jobs = new ArrayList<>(bands);
+        for (int y = 0; y < view.height; y += rows)
+        {
+            int yStart = y;
+            jobs.add(() -> band.colour(yStart, Math.min(yStart + rows, view.height)));
+        }
+        RenderSchedulers.runAll(threads, jobs);
+    }
+}
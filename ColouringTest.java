@@ -0,0 +1,83 @@
+package concurrency;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class ColouringTest {
+
+    @Test
+    public void testGrayMatchesRaster() {
+        Viewport view = Viewport.defaultView(120);
+        MandelbrotRaster expected = new MandelbrotRaster(view);
+        expected.render();
+        BasicMandelbrot basic = new BasicMandelbrot(view);
+        basic.run();
+        assertArrayEquals(expected.pixels, basic.raster.pixels);
+    }
+
+    @Test
+    public void testParallelEqualisationMatchesSequential() {
+        Viewport view = Viewport.centred(-0.5, 0, 3, 150, 1000);
+        IterationBuffer counts = new IterationBuffer(view);
+        counts.computeRows(0, view.height);
+        Colouring colouring = new Colouring(Colouring.Mode.EQUALISED, Palette.classic());
+        int[] sequential = new int[view.width * view.height];
+        colouring.apply(counts, sequential);
+        int[] parallel = new int[view.width * view.height];
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            colouring.apply(counts, parallel, threads, 7);
+        } finally {
+            threads.shutdown();
+        }
+        assertArrayEquals(sequential, parallel);
+    }
+
+    @Test
+    public void testSmoothCountsKeepTheWholeCount() {
+        Viewport view = Viewport.centred(-0.5, 0, 3, 60, 500);
+        IterationBuffer counts = new IterationBuffer(view, true);
+        counts.computeRows(0, view.height);
+        for (int j = 0; j < view.height; j++) {
+            for (int i = 0; i < view.width; i++) {
+                int index = counts.index(i, j);
+                int count = MandelbrotKernel.mandelbrot(view.x(i), view.y(j), 500);
+                assertEquals(count, counts.get(index));
+                double fraction = counts.smoothCount(index) - count;
+                assertTrue(fraction >= 0 && fraction < 1);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSmoothNeedsFractions() {
+        Viewport view = Viewport.defaultView(20);
+        IterationBuffer counts = new IterationBuffer(view);
+        new Colouring(Colouring.Mode.SMOOTH, Palette.classic()).apply(counts, new int[400]);
+    }
+
+    @Test
+    public void testRecolouringAllocatesNothingPerPixel() {
+        Viewport view = Viewport.centred(-0.5, 0, 3, 400, 255);
+        IterationBuffer counts = new IterationBuffer(view, true);
+        counts.computeRows(0, view.height);
+        int[] pixels = new int[view.width * view.height];
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (Colouring.Mode mode : Colouring.Mode.values()) {
+            Colouring colouring = new Colouring(mode, Palette.classic());
+            colouring.apply(counts, pixels);
+            long before = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            colouring.apply(counts, pixels);
+            long allocated = bean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            // a lookup table or a histogram, nowhere near a byte per pixel
+            assertTrue(mode + " allocated " + allocated, allocated < 16 * 1024);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package concurrency;
+
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deep zoom by perturbation. One reference orbit Z_n is computed at the centre of the view with BigDecimal, at a
+ * precision that follows the zoom depth, and stored as doubles. Every pixel c = C + dc is then iterated as a
+ * double precision difference from it, d_{n+1} = 2 Z_n d_n + d_n^2 + dc, so pixels cost about as much as with
+ * the normal kernel however deep the view is.
+ *
+ * Glitches happen when the pixel's orbit z = Z_n + d_n gets closer to 0 than to the reference (|z| < |d|): from
+ * then on d can't be tracked accurately relative to Z. That is detected on every iteration and the pixel is rebased
+ * onto the start of the reference orbit (d = z, n = 0), which is also done when the reference orbit runs out
+ * because the reference point escaped. So one reference is enough for the whole view and no pixel is re-rendered.
+ *
+ * The doubles limit how deep it goes: dc has to stay above Double.MIN_NORMAL, so views down to about 1e-300.
+ */
+public class DeepZoomMandelbrot
+{
+    // c = i is a Misiurewicz point, so there's structure to look at however far in we go
+    public static final String DEFAULT_X_CENTRE = "0";
+    public static final String DEFAULT_Y_CENTRE = "1";
+    public static final String DEFAULT_SIZE = "1e-100";
+    public static final int ITERATION_MAX = 5000;
+    public static final int IMAGE_SIZE = 800;
+
+    // rows per job
+    public static int BAND_HEIGHT = 16;
+
+    public final BigDecimal xCentre;
+    public final BigDecimal yCentre;
+    public final int threadCount;
+    public final MandelbrotRaster raster;
+    public JFrame frame;
+    public BufferedImage image;
+
+    // iteration count per pixel, row-major
+    public final int[] iterations;
+
+    // reference orbit, starting from Z_0 = 0 so that a rebased pixel can restart from n = 0 with d = z
+    private double[] referenceX;
+    private double[] referenceY;
+    private int referenceLength;
+
+    private final LongAdder rebases = new LongAdder();
+
+    public DeepZoomMandelbrot(BigDecimal xCentre, BigDecimal yCentre, BigDecimal size, int imageSize,
+                              int iterationMax, int threadCount)
+    {
+        this.xCentre = xCentre;
+        this.yCentre = yCentre;
+        this.threadCount = threadCount;
+        double scale = size.doubleValue() / imageSize;
+        if (!(scale >= Double.MIN_NORMAL))
+            throw new IllegalArgumentException("view of size " + size + " is too deep for double precision deltas");
+        // the double view is only used for the image size, scale and iteration limit; the corner is approximate
+        raster = new MandelbrotRaster(new Viewport(xCentre.doubleValue() - size.doubleValue() / 2,
+                                                   yCentre.doubleValue() - size.doubleValue() / 2,
+                                                   scale, imageSize, imageSize, iterationMax));
+        image = raster.image;
+        iterations = new int[raster.view.pixelCount()];
+        frame = raster.display("Mandelbrot");
+    }
+
+    /**
+     * Enough decimal digits to tell neighbouring pixels apart with some to spare
+     */
+    static MathContext precisionFor(double scale)
+    {
+        return new MathContext(Math.max(20, (int) Math.ceil(-Math.log10(scale)) + 20));
+    }
+
+    void computeReferenceOrbit()
+    {
+        Viewport view = raster.view;
+        MathContext mc = precisionFor(view.scale);
+        BigDecimal four = BigDecimal.valueOf(4);
+        // Z_0 .. Z_{iterationMax + 1}; a pixel's z_t (as the normal kernel counts) is Z_{t+1} + d
+        referenceX = new double[view.iterationMax + 2];
+        referenceY = new double[view.iterationMax + 2];
+        BigDecimal zx = BigDecimal.ZERO;
+        BigDecimal zy = BigDecimal.ZERO;
+        int n = 0;
+        while (true)
+        {
+            referenceX[n] = zx.doubleValue();
+            referenceY[n] = zy.doubleValue();
+            BigDecimal zx2 = zx.multiply(zx, mc);
+            BigDecimal zy2 = zy.multiply(zy, mc);
+            // stop once the reference escapes (keeping the escaped value) or we have all we can use
+            if (n == referenceX.length - 1 || zx2.add(zy2, mc).compareTo(four) > 0)
+                break;
+            BigDecimal tmp = zx2.subtract(zy2, mc).add(xCentre, mc);
+            zy = zx.multiply(zy, mc).multiply(BigDecimal.valueOf(2), mc).add(yCentre, mc);
+            zx = tmp;
+            n++;
+        }
+        referenceLength = n + 1;
+    }
+
+    /**
+     * Iteration count for the pixel at offset (dcx, dcy) from the centre, counted the same way as MandelbrotKernel
+     */
+    int perturbedIterations(double dcx, double dcy, int maxIterations)
+    {
+        double[] zrx = referenceX;
+        double[] zry = referenceY;
+        int last = referenceLength - 1;
+        double dx = 0;
+        double dy = 0;
+        int n = 0;
+        long rebased = 0;
+        int result = maxIterations;
+        for (int t = 0; t < maxIterations; t++)
+        {
+            // d_{n+1} = 2 Z_n d_n + d_n^2 + dc
+            double refX = zrx[n];
+            double refY = zry[n];
+            double tmp = 2 * (refX * dx - refY * dy) + (dx * dx - dy * dy) + dcx;
+            dy = 2 * (refX * dy + refY * dx) + 2 * dx * dy + dcy;
+            dx = tmp;
+            n++;
+
+            double zx = zrx[n] + dx;
+            double zy = zry[n] + dy;
+            double z2 = zx * zx + zy * zy;
+            if (z2 > 4.0)
+            {
+                result = t;
+                break;
+            }
+            // glitch: the orbit is nearer 0 than the reference, or the reference has run out; rebase onto Z_0 = 0
+            if (z2 < dx * dx + dy * dy || n == last)
+            {
+                dx = zx;
+                dy = zy;
+                n = 0;
+                rebased++;
+            }
+        }
+        if (rebased > 0)
+            rebases.add(rebased);
+        return result;
+    }
+
+    public long rebases()
+    {
+        return rebases.sum();
+    }
+
+    public void run()
+    {
+        rebases.reset();
+        computeReferenceOrbit();
+        Viewport view = raster.view;
+        ExecutorService threads = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int band = 0; band < view.height; band += BAND_HEIGHT)
+        {
+            int bandStart = band;
+            futures.add(threads.submit(() -> renderRows(bandStart, Math.min(bandStart + BAND_HEIGHT, view.height))));
+        }
+        try
+        {
+            for (Future<?> future : futures)
+                future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while rendering", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("render job failed", e.getCause());
+        }
+        finally
+        {
+            threads.shutdown();
+        }
+        if (frame != null)
+            frame.repaint();
+    }
+
+    void renderRows(int yStart, int yEnd)
+    {
+        Viewport view = raster.view;
+        for (int j = yStart; j < yEnd; j++)
+        {
+            double dcy = (j - view.height / 2) * view.scale;
+            for (int i = 0; i < view.width; i++)
+            {
+                double dcx = (i - view.width / 2) * view.scale;
+                int count = perturbedIterations(dcx, dcy, view.iterationMax);
+                iterations[j * view.width + i] = count;
+                // banded gray so detail still shows with iteration limits above 255
+                int gray = count == view.iterationMax ? 0 : 255 - count % 256;
+                raster.pixels[j * view.width + i] = MandelbrotRaster.grayRGB(gray);
+            }
+        }
+    }
+
+    /**
+     * Arguments (all optional): xCentre yCentre size iterationMax imageSize, e.g. 0 1 1e-100 5000 800
+     */
+    public static void main(String[] args)  {
+        BigDecimal x = new BigDecimal(args.length > 0 ? args[0] : DEFAULT_X_CENTRE);
+        BigDecimal y = new BigDecimal(args.length > 1 ? args[1] : DEFAULT_Y_CENTRE);
+        BigDecimal size = new BigDecimal(args.length > 2 ? args[2] : DEFAULT_SIZE);
+        int iterationMax = args.length > 3 ? Integer.parseInt(args[3]) : ITERATION_MAX;
+        int imageSize = args.length > 4 ? Integer.parseInt(args[4]) : IMAGE_SIZE;
+
+        long start = System.currentTimeMillis();
+        DeepZoomMandelbrot mandelbrot = new DeepZoomMandelbrot(x, y, size, imageSize, iterationMax,
+                                                               Runtime.getRuntime().availableProcessors());
+        mandelbrot.run();
+        long end = System.currentTimeMillis();
+        System.out.println(end - start);
+        System.out.println("reference orbit length " + mandelbrot.referenceLength + ", rebases " + mandelbrot.rebases());
+    }
+}
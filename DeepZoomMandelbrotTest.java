@@ -0,0 +1,77 @@
+package concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import org.junit.Test;
+
+public class DeepZoomMandelbrotTest {
+
+    // the plain kernel, one pixel at a time in BigDecimal
+    private static int bigDecimalMandelbrot(BigDecimal x0, BigDecimal y0, int maxIterations, MathContext mc) {
+        BigDecimal four = BigDecimal.valueOf(4);
+        BigDecimal zx = x0;
+        BigDecimal zy = y0;
+        for (int t = 0; t < maxIterations; t++) {
+            BigDecimal zx2 = zx.multiply(zx, mc);
+            BigDecimal zy2 = zy.multiply(zy, mc);
+            if (zx2.add(zy2, mc).compareTo(four) > 0) {
+                return t;
+            }
+            BigDecimal tmp = zx2.subtract(zy2, mc).add(x0, mc);
+            zy = zx.multiply(zy, mc).multiply(BigDecimal.valueOf(2), mc).add(y0, mc);
+            zx = tmp;
+        }
+        return maxIterations;
+    }
+
+    @Test
+    public void testMatchesBigDecimalWhenDeep() {
+        BigDecimal size = new BigDecimal("1e-40");
+        int imageSize = 64;
+        int iterationMax = 2000;
+        DeepZoomMandelbrot deep = new DeepZoomMandelbrot(BigDecimal.ZERO, BigDecimal.ONE, size, imageSize,
+                iterationMax, 2);
+        deep.run();
+
+        MathContext mc = DeepZoomMandelbrot.precisionFor(deep.raster.view.scale);
+        BigDecimal scale = size.divide(BigDecimal.valueOf(imageSize), mc);
+        int mismatches = 0;
+        for (int p = 0; p < 40; p++) {
+            int i = (p * 37) % imageSize;
+            int j = (p * 53) % imageSize;
+            BigDecimal x0 = BigDecimal.valueOf(i - imageSize / 2).multiply(scale, mc);
+            BigDecimal y0 = BigDecimal.ONE.add(BigDecimal.valueOf(j - imageSize / 2).multiply(scale, mc), mc);
+            if (bigDecimalMandelbrot(x0, y0, iterationMax, mc) != deep.iterations[j * imageSize + i]) {
+                mismatches++;
+            }
+        }
+        // all of these pixels escape well inside the limit; an odd off-by-one at a band edge is tolerable
+        assertTrue("mismatches: " + mismatches, mismatches <= 1);
+    }
+
+    @Test
+    public void testMatchesKernelWhenShallow() {
+        int imageSize = 100;
+        DeepZoomMandelbrot deep = new DeepZoomMandelbrot(new BigDecimal("-0.5"), BigDecimal.ZERO,
+                new BigDecimal("2.5"), imageSize, 500, 2);
+        deep.run();
+        double scale = 2.5 / imageSize;
+        int mismatches = 0;
+        for (int j = 0; j < imageSize; j++) {
+            for (int i = 0; i < imageSize; i++) {
+                int expected = MandelbrotKernel.mandelbrot(-0.5 + (i - imageSize / 2) * scale,
+                        (j - imageSize / 2) * scale, 500);
+                if (expected != deep.iterations[j * imageSize + i]) {
+                    mismatches++;
+                }
+            }
+        }
+        // different rounding along the way, only points right on the edge of a band may differ
+        assertTrue("mismatches: " + mismatches, mismatches < imageSize * imageSize / 100);
+        assertEquals(500, deep.iterations[50 * imageSize + 50]);
+    }
+}
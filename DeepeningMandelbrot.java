@@ -0,0 +1,214 @@
+package concurrency;
+
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Raises the iteration limit a step at a time (256, 1024, 4096, ...) without starting any orbit again from z = c.
+ * The pixels that haven't escaped yet are kept in compact parallel arrays (pixel index, zx, zy; they've all been
+ * iterated exactly up to the current limit, so no count needs storing), and each pass only carries on with those,
+ * split into chunks over a pool. Pixels that escape during a pass are coloured straight away and dropped from the
+ * arrays, which are then packed down, so later passes only touch the points that are still undecided.
+ * When most of the view escapes early, going to a high limit costs little more than the points that need it, and
+ * every pass leaves a finished-looking image.
+ *
+ * The loop does the same floating point operations in the same order as MandelbrotKernel, so after deepening to a
+ * limit every escaped count is exactly what mandelbrot(x, y, limit) gives.
+ */
+public class DeepeningMandelbrot implements AutoCloseable
+{
+    public static final int[] DEFAULT_LIMITS = {256, 1024, 4096, 16384, 65536};
+
+    // chunks per thread, so a thread that drew a cheap chunk can pick up another
+    public static int CHUNKS_PER_THREAD = 4;
+
+    public final MandelbrotRaster raster;
+    // escape counts; pixels that haven't escaped hold view.iterationMax, the highest limit this render can go to
+    public final IterationBuffer counts;
+    public final Palette palette;
+    public JFrame frame;
+    public BufferedImage image;
+
+    private final ExecutorService threads;
+    private final int threadCount;
+
+    // the undecided pixels, packed into the first activeCount entries
+    private final int[] active;
+    private final double[] zx;
+    private final double[] zy;
+    private int activeCount;
+    private int limit;
+
+    public DeepeningMandelbrot(Viewport view, Palette palette, int threadCount)
+    {
+        this.palette = palette;
+        this.threadCount = threadCount;
+        threads = ThreadedMandelbrot.newWorkerPool(threadCount);
+        raster = new MandelbrotRaster(view);
+        counts = new IterationBuffer(view);
+        image = raster.image;
+
+        // every pixel starts out undecided at z = c, apart from the ones we know are inside
+        active = new int[view.pixelCount()];
+        zx = new double[view.pixelCount()];
+        zy = new double[view.pixelCount()];
+        for (int j = 0; j < view.height; j++)
+        {
+            double y0 = view.y(j);
+            for (int i = 0; i < view.width; i++)
+            {
+                int index = counts.index(i, j);
+                double x0 = view.x(i);
+                counts.set(index, view.iterationMax);
+                raster.pixels[index] = palette.insideRGB;
+                if (MandelbrotKernel.inCardioidOrBulb(x0, y0))
+                    continue;
+                active[activeCount] = index;
+                zx[activeCount] = x0;
+                zy[activeCount] = y0;
+                activeCount++;
+            }
+        }
+        frame = raster.display("Mandelbrot");
+    }
+
+    public int limit()
+    {
+        return limit;
+    }
+
+    public int activeCount()
+    {
+        return activeCount;
+    }
+
+    /**
+     * Carry every undecided pixel on up to newLimit iterations, returning how many escaped on the way
+     */
+    public int deepen(int newLimit)
+    {
+        Viewport view = raster.view;
+        if (newLimit <= limit || newLimit > view.iterationMax)
+            throw new IllegalArgumentException("new limit must be above " + limit + " and at most "
+                                               + view.iterationMax + ": " + newLimit);
+        int chunks = Math.max(1, Math.min(activeCount, threadCount * CHUNKS_PER_THREAD));
+        int chunkSize = (activeCount + chunks - 1) / Math.max(1, chunks);
+        int[] kept = new int[chunks];
+        List<Runnable> jobs = new ArrayList<>(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++)
+        {
+            int c = chunk;
+            int from = Math.min(activeCount, chunk * chunkSize);
+            int to = Math.min(activeCount, from + chunkSize);
+            jobs.add(() -> kept[c] = iterate(from, to, limit, newLimit));
+        }
+        RenderSchedulers.runAll(threads, jobs);
+
+        // each chunk packed its survivors to its own front, close up the gaps between chunks
+        int before = activeCount;
+        int packed = 0;
+        for (int chunk = 0; chunk < chunks; chunk++)
+        {
+            int from = Math.min(before, chunk * chunkSize);
+            System.arraycopy(active, from, active, packed, kept[chunk]);
+            System.arraycopy(zx, from, zx, packed, kept[chunk]);
+            System.arraycopy(zy, from, zy, packed, kept[chunk]);
+            packed += kept[chunk];
+        }
+        activeCount = packed;
+        limit = newLimit;
+        if (frame != null)
+            frame.repaint();
+        return before - activeCount;
+    }
+
+    // iterate entries from..to on from oldLimit to newLimit, packing the survivors to the front; returns how many
+    private int iterate(int from, int to, int oldLimit, int newLimit)
+    {
+        Viewport view = raster.view;
+        int[] pixels = raster.pixels;
+        int kept = from;
+        for (int k = from; k < to; k++)
+        {
+            int index = active[k];
+            double x0 = view.x(index % view.width);
+            double y0 = view.y(index / view.width);
+            double x = zx[k];
+            double y = zy[k];
+            int escapedAt = -1;
+            for (int t = oldLimit; t < newLimit; t++)
+            {
+                double x2 = x * x;
+                double y2 = y * y;
+                if (x2 + y2 > 4.0)
+                {
+                    escapedAt = t;
+                    break;
+                }
+                y = 2.0 * x * y + y0;
+                x = x2 - y2 + x0;
+            }
+            if (escapedAt >= 0)
+            {
+                counts.set(index, escapedAt);
+                pixels[index] = palette.colour(escapedAt);
+            }
+            else
+            {
+                active[kept] = index;
+                zx[kept] = x;
+                zy[kept] = y;
+                kept++;
+            }
+        }
+        return kept - from;
+    }
+
+    @Override
+    public void close()
+    {
+        threads.shutdown();
+    }
+
+    /**
+     * Arguments (all optional): imageSize, then the limits to deepen through; compares each pass against rendering
+     * the whole view from scratch at that limit
+     */
+    public static void main(String[] args)  {
+        int imageSize = args.length > 0 ? Integer.parseInt(args[0]) : 800;
+        int[] limits = DEFAULT_LIMITS;
+        if (args.length > 1)
+        {
+            limits = new int[args.length - 1];
+            for (int k = 1; k < args.length; k++)
+                limits[k - 1] = Integer.parseInt(args[k]);
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        Viewport view = Viewport.centred(-0.743643887037151, 0.131825904205330, 0.005, imageSize,
+                                         limits[limits.length - 1]);
+        try (DeepeningMandelbrot mandelbrot = new DeepeningMandelbrot(view, Palette.classic(), cores);
+             RenderScheduler scheduler = RenderSchedulers.create("dynamic", cores, 0))
+        {
+            long total = 0;
+            for (int limit : limits)
+            {
+                long start = System.currentTimeMillis();
+                int escaped = mandelbrot.deepen(limit);
+                long millis = System.currentTimeMillis() - start;
+                total += millis;
+
+                MandelbrotRaster scratch = new MandelbrotRaster(new Viewport(view.xStart, view.yStart, view.scale,
+                                                                             view.width, view.height, limit));
+                start = System.currentTimeMillis();
+                scheduler.render(view.width, view.height, scratch::plotBlock);
+                long scratchMillis = System.currentTimeMillis() - start;
+                System.out.printf("limit %6d: %7d escaped, %7d still active, %5d ms (%d ms so far), "
+                                  + "from scratch %5d ms%n", limit, escaped, mandelbrot.activeCount(), millis, total,
+                                  scratchMillis);
+            }
+        }
+    }
+}
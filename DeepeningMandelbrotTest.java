@@ -0,0 +1,44 @@
+package concurrency;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class DeepeningMandelbrotTest {
+
+    @Test
+    public void testEachPassMatchesKernelAtThatLimit() {
+        Viewport view = Viewport.centred(-0.7436, 0.1318, 0.01, 80, 4096);
+        Palette palette = Palette.classic();
+        try (DeepeningMandelbrot mandelbrot = new DeepeningMandelbrot(view, palette, 3)) {
+            for (int limit : new int[]{64, 256, 1024, 4096}) {
+                mandelbrot.deepen(limit);
+                int undecided = 0;
+                for (int j = 0; j < view.height; j++) {
+                    for (int i = 0; i < view.width; i++) {
+                        int index = mandelbrot.counts.index(i, j);
+                        int expected = MandelbrotKernel.mandelbrot(view.x(i), view.y(j), limit);
+                        if (expected < limit) {
+                            assertEquals(expected, mandelbrot.counts.get(index));
+                            assertEquals(palette.colour(expected), mandelbrot.raster.pixels[index]);
+                        } else {
+                            assertEquals(view.iterationMax, mandelbrot.counts.get(index));
+                            assertEquals(palette.insideRGB, mandelbrot.raster.pixels[index]);
+                            if (!MandelbrotKernel.inCardioidOrBulb(view.x(i), view.y(j)))
+                                undecided++;
+                        }
+                    }
+                }
+                assertEquals(undecided, mandelbrot.activeCount());
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLimitOnlyGoesUp() {
+        try (DeepeningMandelbrot mandelbrot = new DeepeningMandelbrot(Viewport.defaultView(20), Palette.classic(), 1)) {
+            mandelbrot.deepen(100);
+            mandelbrot.deepen(50);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package concurrency;
+
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instead of a fixed 10x10 grid, tiles are split in two until the estimated cost of each one is below a threshold.
+ * The cost is estimated by sampling a few pixels of the tile, so tiles over the interior of the set (which take
+ * ITERATION_MAX iterations per pixel) end up much smaller than tiles over the exterior, and the ForkJoinPool
+ * evens out whatever imbalance is left by work stealing.
+ */
+public class ForkJoinMandelbrot
+{
+    // Determine the position and zoom level of the image of the Mandelbrot set
+    private static final double X_CENTRE   = 0;
+    private static final double Y_CENTRE   = 0.75;
+
+    // this effectively sets the zoom level of the whole image
+    private static final double MANDELBROT_SIZE = 1;
+
+    public static final double X_START = X_CENTRE - MANDELBROT_SIZE/2;
+    public static final double Y_START = Y_CENTRE - MANDELBROT_SIZE/2;
+
+    // maximum number of iterations
+    public static final int ITERATION_MAX = 255;
+
+    // size of the image (the window size)
+    public static final int IMAGE_SIZE   = 1600;
+    public static final double SCALE = MANDELBROT_SIZE/IMAGE_SIZE;
+
+    // a tile is split while its estimated number of iterations is above this
+    public static long COST_THRESHOLD = 1 << 18;
+    // ... and it is at least this wide or high
+    public static int MIN_TILE_SIZE = 16;
+    // pixels sampled along each side of a tile to estimate its cost
+    public static int SAMPLES_PER_SIDE = 4;
+
+    public final MandelbrotRaster raster;
+    public JFrame frame;
+    public BufferedImage image;
+
+    private final ForkJoinPool pool;
+
+    // nanoseconds each worker spent plotting, keyed by thread name
+    private final Map<String, LongAdder> busyNanos = new ConcurrentHashMap<>();
+    private final LongAdder tileCount = new LongAdder();
+
+    public ForkJoinMandelbrot()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ForkJoinMandelbrot(ForkJoinPool pool)
+    {
+        this(new Viewport(X_START, Y_START, SCALE, IMAGE_SIZE, IMAGE_SIZE, ITERATION_MAX), pool);
+    }
+
+    public ForkJoinMandelbrot(Viewport view, ForkJoinPool pool)
+    {
+        this.pool = pool;
+        raster = new MandelbrotRaster(view);
+        image = raster.image;
+        frame = raster.display("Mandelbrot");
+    }
+
+    public void run()
+    {
+        busyNanos.clear();
+        tileCount.reset();
+        Viewport view = raster.view;
+        pool.invoke(new TileTask(0, 0, view.width, view.height));
+        if (frame != null)
+            frame.repaint();
+    }
+
+    /**
+     * Estimate how many iterations plotting the tile will take, from a SAMPLES_PER_SIDE^2 grid of its pixels
+     */
+    long estimateCost(int x, int y, int width, int height)
+    {
+        Viewport view = raster.view;
+        int samplesX = Math.min(SAMPLES_PER_SIDE, width);
+        int samplesY = Math.min(SAMPLES_PER_SIDE, height);
+        long iterations = 0;
+        for (int sj = 0; sj < samplesY; sj++)
+        {
+            // sample the middle of each cell so we don't only look at the tile's edges
+            int j = y + (2 * sj + 1) * height / (2 * samplesY);
+            for (int si = 0; si < samplesX; si++)
+            {
+                int i = x + (2 * si + 1) * width / (2 * samplesX);
+                iterations += MandelbrotKernel.mandelbrot(view.x(i), view.y(j), view.iterationMax);
+            }
+        }
+        // +1 per pixel since even a pixel that escapes straight away isn't free
+        return (iterations / (samplesX * samplesY) + 1) * width * height;
+    }
+
+    /**
+     * Busy time per worker in milliseconds, for the last run
+     */
+    public Map<String, Double> workerBusyMillis()
+    {
+        Map<String, Double> result = new TreeMap<>();
+        busyNanos.forEach((name, nanos) -> result.put(name, nanos.sum() / 1e6));
+        return result;
+    }
+
+    /**
+     * Busiest worker's time over the mean; 1.0 means the work was spread perfectly evenly
+     */
+    public double loadImbalance()
+    {
+        Map<String, Double> busy = workerBusyMillis();
+        // workers that never got a tile count as idle
+        int workers = Math.max(busy.size(), pool.getParallelism());
+        double total = 0;
+        double max = 0;
+        for (double millis : busy.values())
+        {
+            total += millis;
+            max = Math.max(max, millis);
+        }
+        return total == 0 ? 1.0 : max / (total / workers);
+    }
+
+    public void printLoadReport()
+    {
+        System.out.println("tiles: " + tileCount.sum() + ", workers: " + pool.getParallelism());
+        workerBusyMillis().forEach((name, millis) -> System.out.printf("  %-40s %10.1f ms%n", name, millis));
+        System.out.printf("load imbalance (max/mean): %.3f%n", loadImbalance());
+    }
+
+    public static void main(String[] args)  {
+        // optional argument: number of workers, defaults to the common pool
+        ForkJoinPool pool = args.length > 0 ? new ForkJoinPool(Integer.parseInt(args[0])) : ForkJoinPool.commonPool();
+        long start = System.currentTimeMillis();
+        ForkJoinMandelbrot mandelbrot = new ForkJoinMandelbrot(pool);
+        mandelbrot.run();
+        long end = System.currentTimeMillis();
+        System.out.println(end - start);
+        mandelbrot.printLoadReport();
+    }
+
+    class TileTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int x; final int y; final int width; final int height;
+
+        TileTask(int x, int y, int width, int height)
+        {
+            this.x = x;  this.y = y;  this.width = width;  this.height = height;
+        }
+
+        @Override
+        protected void compute()
+        {
+            long start = System.nanoTime();
+            boolean splittable = width >= 2 * MIN_TILE_SIZE || height >= 2 * MIN_TILE_SIZE;
+            if (splittable && estimateCost(x, y, width, height) > COST_THRESHOLD)
+            {
+                addBusyTime(start);
+                // halve along the longer side
+                if (width >= height)
+                {
+                    int half = width / 2;
+                    invokeAll(new TileTask(x, y, half, height), new TileTask(x + half, y, width - half, height));
+                }
+                else
+                {
+                    int half = height / 2;
+                    invokeAll(new TileTask(x, y, width, half), new TileTask(x, y + half, width, height - half));
+                }
+                return;
+            }
+            raster.plotBlock(x, y, width, height);
+            tileCount.increment();
+            addBusyTime(start);
+        }
+
+        private void addBusyTime(long start)
+        {
+            busyNanos.computeIfAbsent(Thread.currentThread().getName(), name -> new LongAdder())
+                     .add(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package concurrency;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ForkJoinMandelbrotTest {
+
+    @Test
+    public void testSameImageAsSingleThreaded() {
+        Viewport view = Viewport.defaultView(400);
+        MandelbrotRaster expected = new MandelbrotRaster(view);
+        expected.render();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ForkJoinMandelbrot forkJoin = new ForkJoinMandelbrot(view, pool);
+            forkJoin.run();
+            assertArrayEquals(expected.pixels, forkJoin.raster.pixels);
+            assertTrue(forkJoin.loadImbalance() >= 1.0);
+            assertTrue(!forkJoin.workerBusyMillis().isEmpty());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
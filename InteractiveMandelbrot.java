@@ -0,0 +1,363 @@
+package concurrency;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A window you can zoom and pan: the mouse wheel or a click zooms about the cursor (right click zooms out), dragging
+ * pans, and the window can be resized. Every change of view starts a new generation:
+ *
+ *  - the previous generation's image is resampled into the new view straight away (nearest neighbour, through per-column and
+ *    per-row lookup tables, so a few milliseconds) and shown as the preview;
+ *  - the new view's tiles go onto the pool sorted by distance from the cursor, so what you're looking at sharpens
+ *    first;
+ *  - tiles of older generations see that they're stale and stop, before they start if they're still queued or at the
+ *    next row if they're running, so they never hold up the new view for more than a row.
+ *
+ * Each generation draws into its own image, so a stale tile that was halfway through a row can't scribble over the
+ * new preview.
+ */
+public class InteractiveMandelbrot implements AutoCloseable
+{
+    public static int TILE_SIZE = 32;
+    public static double ZOOM_FACTOR = 2;
+    // shown where the preview has nothing to go on
+    public static final int UNKNOWN_RGB = 0x202020;
+
+    public final Palette palette;
+    public JFrame frame;
+
+    private final ExecutorService threads;
+    private final boolean ownsThreads;
+    private final AtomicInteger generation = new AtomicInteger();
+    private volatile Generation current;
+    // set up on the event dispatch thread, used by the workers
+    private volatile JComponent canvas;
+    private volatile RepaintThrottle throttle;
+
+    // tiles of old generations dropped before they started, and ones given up part way through
+    private final LongAdder skippedTiles = new LongAdder();
+    private final LongAdder abandonedTiles = new LongAdder();
+
+    /**
+     * One generation's image, with its own pixels
+     */
+    public static final class Generation
+    {
+        public final Viewport view;
+        public final int number;
+        public final BufferedImage image;
+        final int[] pixels;
+        private final CountDownLatch remaining;
+        // from navigate() being called to the preview being in place
+        volatile long previewNanos;
+
+        Generation(Viewport view, int number, int tileCount)
+        {
+            this.view = view;
+            this.number = number;
+            image = new BufferedImage(view.width, view.height, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            remaining = new CountDownLatch(tileCount);
+        }
+
+        public boolean isComplete()
+        {
+            return remaining.getCount() == 0;
+        }
+
+        // false if it timed out, e.g. because a newer generation took over
+        public boolean await(long timeout, TimeUnit unit) throws InterruptedException
+        {
+            return remaining.await(timeout, unit);
+        }
+
+        public double previewMillis()
+        {
+            return previewNanos / 1e6;
+        }
+    }
+
+    public InteractiveMandelbrot(Viewport view, Palette palette, int threadCount)
+    {
+        this(view, palette, ThreadedMandelbrot.newWorkerPool(threadCount), true);
+    }
+
+    /**
+     * Render on a pool owned by the caller; close() leaves it running
+     */
+    public InteractiveMandelbrot(Viewport view, Palette palette, ExecutorService threads)
+    {
+        this(view, palette, threads, false);
+    }
+
+    private InteractiveMandelbrot(Viewport view, Palette palette, ExecutorService threads, boolean ownsThreads)
+    {
+        this.palette = palette;
+        this.threads = threads;
+        this.ownsThreads = ownsThreads;
+        navigate(view, view.width / 2, view.height / 2);
+        if (!GraphicsEnvironment.isHeadless())
+            SwingUtilities.invokeLater(this::display);
+    }
+
+    public Generation current()
+    {
+        return current;
+    }
+
+    public long skippedTiles()
+    {
+        return skippedTiles.sum();
+    }
+
+    public long abandonedTiles()
+    {
+        return abandonedTiles.sum();
+    }
+
+    /**
+     * Switch to next: show the old image resampled into it at once, then render its tiles nearest (focusX, focusY)
+     * first. Anything still rendering for an older view stops.
+     */
+    public synchronized Generation navigate(Viewport next, int focusX, int focusY)
+    {
+        long start = System.nanoTime();
+        List<Rectangle> tiles = tileOrder(next, focusX, focusY);
+        Generation started = new Generation(next, generation.incrementAndGet(), tiles.size());
+        Generation previous = current;
+        if (previous == null)
+            Arrays.fill(started.pixels, UNKNOWN_RGB);
+        else
+            resample(previous, started);
+        current = started;
+        started.previewNanos = System.nanoTime() - start;
+        if (canvas != null)
+            canvas.repaint();
+        for (Rectangle tile : tiles)
+            threads.execute(() -> plotTile(started, tile));
+        return started;
+    }
+
+    /**
+     * The view's tiles, nearest to (focusX, focusY) first
+     */
+    static List<Rectangle> tileOrder(Viewport view, int focusX, int focusY)
+    {
+        List<Rectangle> tiles = new ArrayList<>();
+        for (int y = 0; y < view.height; y += TILE_SIZE)
+            for (int x = 0; x < view.width; x += TILE_SIZE)
+                tiles.add(new Rectangle(x, y, Math.min(TILE_SIZE, view.width - x),
+                                        Math.min(TILE_SIZE, view.height - y)));
+        tiles.sort(Comparator.comparingDouble(tile -> Point.distanceSq(tile.getCenterX(), tile.getCenterY(),
+                                                                        focusX, focusY)));
+        return tiles;
+    }
+
+    // nearest neighbour from one generation's pixels to another's; O(width + height) divisions, the rest is copying
+    static void resample(Generation from, Generation to)
+    {
+        Viewport source = from.view;
+        Viewport target = to.view;
+        int[] columns = new int[target.width];
+        for (int i = 0; i < target.width; i++)
+            columns[i] = sourcePixel(source.xStart, source.scale, source.width, target.x(i));
+        for (int j = 0; j < target.height; j++)
+        {
+            int row = sourcePixel(source.yStart, source.scale, source.height, target.y(j));
+            int targetRow = j * target.width;
+            if (row < 0)
+            {
+                Arrays.fill(to.pixels, targetRow, targetRow + target.width, UNKNOWN_RGB);
+                continue;
+            }
+            int sourceRow = row * source.width;
+            for (int i = 0; i < target.width; i++)
+                to.pixels[targetRow + i] = columns[i] < 0 ? UNKNOWN_RGB : from.pixels[sourceRow + columns[i]];
+        }
+    }
+
+    // the source pixel covering coordinate, or -1 if it's outside
+    private static int sourcePixel(double start, double scale, int size, double coordinate)
+    {
+        double pixel = Math.floor((coordinate - start) / scale + 0.5);
+        return pixel < 0 || pixel >= size ? -1 : (int) pixel;
+    }
+
+    private void plotTile(Generation target, Rectangle tile)
+    {
+        if (generation.get() != target.number)
+        {
+            skippedTiles.increment();
+            return;
+        }
+        Viewport view = target.view;
+        for (int j = tile.y; j < tile.y + tile.height; j++)
+        {
+            // the cooperative cancellation point: a row is the most a stale tile costs the new view
+            if (generation.get() != target.number)
+            {
+                abandonedTiles.increment();
+                return;
+            }
+            double y0 = view.y(j);
+            int row = j * view.width;
+            for (int i = tile.x; i < tile.x + tile.width; i++)
+            {
+                int count = MandelbrotKernel.mandelbrot(view.x(i), y0, view.iterationMax);
+                target.pixels[row + i] = count >= view.iterationMax ? palette.insideRGB : palette.colour(count);
+            }
+        }
+        target.remaining.countDown();
+        if (throttle != null)
+            throttle.markDirty(tile.x, tile.y, tile.width, tile.height);
+    }
+
+    /**
+     * The view scaled by factor about pixel (x, y), which stays where it is on screen
+     */
+    public static Viewport zoom(Viewport view, int x, int y, double factor)
+    {
+        double scale = view.scale * factor;
+        return new Viewport(view.x(x) - scale * x, view.y(y) - scale * y, scale, view.width, view.height,
+                            view.iterationMax);
+    }
+
+    // the view moved by (dx, dy) pixels on screen
+    public static Viewport pan(Viewport view, int dx, int dy)
+    {
+        return new Viewport(view.xStart - dx * view.scale, view.yStart - dy * view.scale, view.scale, view.width,
+                            view.height, view.iterationMax);
+    }
+
+    private void display()
+    {
+        canvas = new JComponent()
+        {
+            @Override
+            protected void paintComponent(Graphics g)
+            {
+                g.drawImage(current.image, 0, 0, null);
+            }
+        };
+        Viewport view = current.view;
+        canvas.setPreferredSize(new Dimension(view.width, view.height));
+        MouseAdapter mouse = new MouseAdapter()
+        {
+            private Point dragFrom;
+
+            @Override
+            public void mousePressed(MouseEvent e)
+            {
+                dragFrom = e.getPoint();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e)
+            {
+                navigate(pan(current.view, e.getX() - dragFrom.x, e.getY() - dragFrom.y), e.getX(), e.getY());
+                dragFrom = e.getPoint();
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e)
+            {
+                double factor = SwingUtilities.isRightMouseButton(e) ? ZOOM_FACTOR : 1 / ZOOM_FACTOR;
+                navigate(zoom(current.view, e.getX(), e.getY(), factor), e.getX(), e.getY());
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e)
+            {
+                double factor = Math.pow(ZOOM_FACTOR, e.getPreciseWheelRotation());
+                navigate(zoom(current.view, e.getX(), e.getY(), factor), e.getX(), e.getY());
+            }
+        };
+        canvas.addMouseListener(mouse);
+        canvas.addMouseMotionListener(mouse);
+        canvas.addMouseWheelListener(mouse);
+        canvas.addComponentListener(new ComponentAdapter()
+        {
+            @Override
+            public void componentResized(ComponentEvent e)
+            {
+                Viewport view = current.view;
+                if (canvas.getWidth() > 0 && canvas.getHeight() > 0
+                    && (canvas.getWidth() != view.width || canvas.getHeight() != view.height))
+                    navigate(new Viewport(view.xStart, view.yStart, view.scale, canvas.getWidth(), canvas.getHeight(),
+                                          view.iterationMax), canvas.getWidth() / 2, canvas.getHeight() / 2);
+            }
+        });
+
+        frame = new JFrame("Mandelbrot - wheel or click to zoom, drag to pan");
+        frame.setContentPane(canvas);
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.pack();
+        frame.setVisible(true);
+        throttle = new RepaintThrottle(canvas, 60);
+        throttle.start();
+    }
+
+    @Override
+    public void close()
+    {
+        // stops whatever is still rendering
+        generation.incrementAndGet();
+        if (throttle != null)
+            throttle.stop();
+        if (ownsThreads)
+            threads.shutdown();
+    }
+
+    /**
+     * Arguments (all optional): imageSize iterationMax threads. Opens the viewer, or without a display replays a
+     * burst of zooms towards the seahorse valley 20 ms apart and prints how long each preview took, how much stale
+     * work was dropped and how long the final view took to finish.
+     */
+    public static void main(String[] args) throws InterruptedException  {
+        int imageSize = args.length > 0 ? Integer.parseInt(args[0]) : 800;
+        int iterationMax = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int threadCount = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        Viewport home = Viewport.centred(-0.5, 0, 3, imageSize, iterationMax);
+        InteractiveMandelbrot viewer = new InteractiveMandelbrot(home, Palette.classic(), threadCount);
+        if (!GraphicsEnvironment.isHeadless())
+            return;
+
+        try (viewer)
+        {
+            // the pixel the seahorse valley lands on
+            int x = (int) Math.round((-0.745 - home.xStart) / home.scale);
+            int y = (int) Math.round((0.11 - home.yStart) / home.scale);
+            Generation shown = viewer.current();
+            double worstPreview = 0;
+            for (int step = 0; step < 10; step++)
+            {
+                Thread.sleep(20);
+                shown = viewer.navigate(zoom(shown.view, x, y, 1 / 1.5), x, y);
+                worstPreview = Math.max(worstPreview, shown.previewMillis());
+                System.out.printf("zoom %2d: preview in %.2f ms%n", step + 1, shown.previewMillis());
+            }
+            long start = System.currentTimeMillis();
+            shown.await(1, TimeUnit.MINUTES);
+            System.out.printf("worst preview %.2f ms, last view finished %d ms after the last zoom, "
+                              + "%d stale tiles skipped and %d abandoned part way%n", worstPreview,
+                              System.currentTimeMillis() - start, viewer.skippedTiles(), viewer.abandonedTiles());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class InteractiveMandelbrotTest {
+
+    private static void assertRendered(InteractiveMandelbrot viewer, InteractiveMandelbrot.Generation generation) {
+        Viewport view = generation.view;
+        for (int j = 0; j < view.height; j++) {
+            for (int i = 0; i < view.width; i++) {
+                int count = MandelbrotKernel.mandelbrot(view.x(i), view.y(j), view.iterationMax);
+                int expected = count >= view.iterationMax ? viewer.palette.insideRGB : viewer.palette.colour(count);
+                assertEquals(expected, generation.pixels[j * view.width + i]);
+            }
+        }
+    }
+
+    @Test
+    public void testOnlyTheLatestViewFinishes() throws Exception {
+        Viewport home = Viewport.centred(-0.5, 0, 3, 160, 2000);
+        try (InteractiveMandelbrot viewer = new InteractiveMandelbrot(home, Palette.classic(), 2)) {
+            InteractiveMandelbrot.Generation first = viewer.current();
+            InteractiveMandelbrot.Generation last = first;
+            for (int step = 0; step < 5; step++)
+                last = viewer.navigate(InteractiveMandelbrot.zoom(last.view, 30, 40, 0.5), 30, 40);
+            assertTrue(last.await(30, TimeUnit.SECONDS));
+            assertRendered(viewer, last);
+            // the earlier views were dropped rather than finished
+            assertTrue(viewer.skippedTiles() + viewer.abandonedTiles() > 0);
+            assertFalse(first.isComplete());
+        }
+    }
+
+    @Test
+    public void testPreviewIsTheOldImageResampled() throws Exception {
+        Viewport home = Viewport.centred(-0.5, 0, 3, 64, 255);
+        ExecutorService threads = ThreadedMandelbrot.newWorkerPool(1);
+        try (InteractiveMandelbrot viewer = new InteractiveMandelbrot(home, Palette.classic(), threads)) {
+            InteractiveMandelbrot.Generation old = viewer.current();
+            assertTrue(old.await(30, TimeUnit.SECONDS));
+
+            // hold the only worker so nothing of the new view gets rendered before we look
+            CountDownLatch release = new CountDownLatch(1);
+            threads.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            InteractiveMandelbrot.Generation zoomed = viewer.navigate(InteractiveMandelbrot.zoom(home, 0, 0, 0.5), 0, 0);
+            // pixel (2i, 2j) of the zoomed view is pixel (i, j) of the old one
+            for (int j = 0; j < 32; j++)
+                for (int i = 0; i < 32; i++)
+                    assertEquals(old.pixels[j * 64 + i], zoomed.pixels[2 * j * 64 + 2 * i]);
+
+            InteractiveMandelbrot.Generation panned = viewer.navigate(InteractiveMandelbrot.pan(zoomed.view, 10, 0), 0, 0);
+            // moved right by 10, with nothing known about the strip uncovered on the left
+            assertEquals(InteractiveMandelbrot.UNKNOWN_RGB, panned.pixels[5]);
+            assertEquals(zoomed.pixels[20], panned.pixels[30]);
+
+            release.countDown();
+            assertTrue(panned.await(30, TimeUnit.SECONDS));
+            assertRendered(viewer, panned);
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    @Test
+    public void testTilesNearestTheCursorComeFirst() {
+        Viewport view = Viewport.centred(-0.5, 0, 3, 200, 255);
+        List<Rectangle> tiles = InteractiveMandelbrot.tileOrder(view, 150, 20);
+        assertTrue(tiles.get(0).contains(150, 20));
+        double previous = 0;
+        for (Rectangle tile : tiles) {
+            double distance = Math.hypot(tile.getCenterX() - 150, tile.getCenterY() - 20);
+            assertTrue(distance >= previous);
+            previous = distance;
+        }
+        Rectangle last = tiles.get(tiles.size() - 1);
+        assertTrue(last.x == 0 && last.y + last.height == view.height);
+    }
+}
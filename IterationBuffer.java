@@ -0,0 +1,172 @@
+package concurrency;
+
+/**
+ * Iteration counts for a whole view in one flat, row-major primitive array: pixel (i, j) is at index(i, j).
+ * The element is as narrow as the iteration limit allows, a byte up to 255 iterations, a short up to 65535 and an
+ * int above that, so the default 800x800 view takes 640 KB instead of 2.5 MB of ints (or the 30+ MB of boxed
+ * position arrays LessBlockageThreading used to keep). Coordinates aren't stored, Viewport.x(i) and y(j) give them
+ * back from the index. For smooth colouring the buffer can also keep the fraction of an iteration each escaping point
+ * got past the escape radius, quantised to a byte (1/256 of a band is finer than any palette needs).
+ *
+ * Threads writing different index ranges can share the buffer without locking. They only slow each other down where
+ * their ranges meet inside a cache line, so hand out runs of whole rows (see rowsPerJob) rather than narrow blocks.
+ */
+public final class IterationBuffer
+{
+    public final Viewport view;
+    public final int elementBytes;
+
+    // exactly one of these is non-null
+    private final byte[] bytes;
+    private final short[] shorts;
+    private final int[] ints;
+    // null unless asked for
+    private final byte[] fractions;
+
+    public IterationBuffer(Viewport view)
+    {
+        this(view, false);
+    }
+
+    public IterationBuffer(Viewport view, boolean smooth)
+    {
+        this.view = view;
+        int length = Math.multiplyExact(view.width, view.height);
+        if (view.iterationMax <= 0xff)
+        {
+            elementBytes = 1;
+            bytes = new byte[length];  shorts = null;  ints = null;
+        }
+        else if (view.iterationMax <= 0xffff)
+        {
+            elementBytes = 2;
+            bytes = null;  shorts = new short[length];  ints = null;
+        }
+        else
+        {
+            elementBytes = 4;
+            bytes = null;  shorts = null;  ints = new int[length];
+        }
+        fractions = smooth ? new byte[length] : null;
+    }
+
+    public boolean isSmooth()
+    {
+        return fractions != null;
+    }
+
+    public int index(int i, int j)
+    {
+        return j * view.width + i;
+    }
+
+    // counts are 0..iterationMax, read back unsigned
+    public int get(int index)
+    {
+        if (bytes != null)
+            return bytes[index] & 0xff;
+        if (shorts != null)
+            return shorts[index] & 0xffff;
+        return ints[index];
+    }
+
+    public void set(int index, int count)
+    {
+        if (bytes != null)
+            bytes[index] = (byte) count;
+        else if (shorts != null)
+            shorts[index] = (short) count;
+        else
+            ints[index] = count;
+    }
+
+    /**
+     * The count plus the fraction of the next iteration, for smooth colouring; just the count if not smooth
+     */
+    public double smoothCount(int index)
+    {
+        if (fractions == null)
+            return get(index);
+        return get(index) + (fractions[index] & 0xff) / 256.0;
+    }
+
+    public void setSmooth(int index, double smoothCount)
+    {
+        int count = (int) smoothCount;
+        set(index, count);
+        if (fractions != null)
+            fractions[index] = (byte) ((smoothCount - count) * 256);
+    }
+
+    /**
+     * Iterate rows yStart (inclusive) to yEnd (exclusive) of the view into the buffer
+     */
+    public void computeRows(int yStart, int yEnd)
+    {
+        computeRegion(0, yStart, view.width, yEnd - yStart);
+    }
+
+    /**
+     * Iterate the width by height rectangle at (xStart, yStart) into the buffer
+     */
+    public void computeRegion(int xStart, int yStart, int width, int height)
+    {
+        int iterationMax = view.iterationMax;
+        for (int j = yStart; j < yStart + height; j++)
+        {
+            double y0 = view.y(j);
+            int row = j * view.width;
+            if (fractions != null)
+            {
+                for (int i = xStart; i < xStart + width; i++)
+                    setSmooth(row + i, MandelbrotKernel.smoothMandelbrot(view.x(i), y0, iterationMax));
+            }
+            else
+            {
+                for (int i = xStart; i < xStart + width; i++)
+                    set(row + i, MandelbrotKernel.mandelbrot(view.x(i), y0, iterationMax));
+            }
+        }
+    }
+
+    /**
+     * How many whole rows a job should take so there are about jobCount jobs; each job then writes one contiguous
+     * range and shares at most a cache line at each end with its neighbours
+     */
+    public int rowsPerJob(int jobCount)
+    {
+        return rowsPerJob(view, jobCount);
+    }
+
+    public static int rowsPerJob(Viewport view, int jobCount)
+    {
+        return Math.max(1, (view.height + jobCount - 1) / jobCount);
+    }
+
+    public long sizeInBytes()
+    {
+        return (long) (elementBytes + (fractions != null ? 1 : 0)) * view.width * view.height;
+    }
+
+    /**
+     * Write rows yStart to yEnd of the counts into the raster as gray levels
+     */
+    public void copyRows(MandelbrotRaster raster, int yStart, int yEnd)
+    {
+        copyRegion(raster, 0, yStart, view.width, yEnd - yStart);
+    }
+
+    /**
+     * Write the width by height rectangle at (xStart, yStart) of the counts into the raster as gray levels
+     */
+    public void copyRegion(MandelbrotRaster raster, int xStart, int yStart, int width, int height)
+    {
+        int iterationMax = view.iterationMax;
+        for (int j = yStart; j < yStart + height; j++)
+        {
+            int row = j * view.width;
+            for (int index = row + xStart; index < row + xStart + width; index++)
+                raster.pixels[index] = MandelbrotRaster.grayRGB(iterationMax - get(index));
+        }
+    }
+}
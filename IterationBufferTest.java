@@ -0,0 +1,53 @@
+package concurrency;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class IterationBufferTest {
+
+    private static Viewport view(int iterationMax) {
+        return Viewport.centred(-0.5, 0, 3, 40, iterationMax);
+    }
+
+    @Test
+    public void testElementWidthFollowsIterationLimit() {
+        assertEquals(1, new IterationBuffer(view(255)).elementBytes);
+        assertEquals(2, new IterationBuffer(view(256)).elementBytes);
+        assertEquals(2, new IterationBuffer(view(65535)).elementBytes);
+        assertEquals(4, new IterationBuffer(view(65536)).elementBytes);
+        assertEquals(40 * 40, new IterationBuffer(view(255)).sizeInBytes());
+    }
+
+    @Test
+    public void testCountsReadBackUnsigned() {
+        for (int iterationMax : new int[]{255, 65535, 1 << 20}) {
+            IterationBuffer buffer = new IterationBuffer(view(iterationMax));
+            buffer.set(buffer.index(3, 2), iterationMax);
+            buffer.set(buffer.index(4, 2), 0);
+            assertEquals(iterationMax, buffer.get(buffer.index(3, 2)));
+            assertEquals(0, buffer.get(buffer.index(4, 2)));
+        }
+    }
+
+    @Test
+    public void testRowsMatchKernel() {
+        Viewport view = view(1000);
+        IterationBuffer buffer = new IterationBuffer(view);
+        buffer.computeRows(0, view.height);
+        for (int j = 0; j < view.height; j++)
+            for (int i = 0; i < view.width; i++)
+                assertEquals(MandelbrotKernel.mandelbrot(view.x(i), view.y(j), 1000), buffer.get(buffer.index(i, j)));
+    }
+
+    @Test
+    public void testLessBlockageMatchesRaster() {
+        Viewport view = Viewport.defaultView(150);
+        MandelbrotRaster expected = new MandelbrotRaster(view);
+        expected.render();
+        LessBlockageThreading threaded = new LessBlockageThreading(view, 32, 4);
+        threaded.run();
+        assertArrayEquals(expected.pixels, threaded.raster.pixels);
+    }
+}
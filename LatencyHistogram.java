@@ -0,0 +1,79 @@
+package concurrency;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies for percentiles, cheap enough to record every request from many threads.
+ * Buckets are powers of two of microseconds split into SUB_BUCKETS steps each, so a percentile comes back as the top
+ * of its bucket, at most 1/SUB_BUCKETS (about 12%) above the true value; anything past about 4 hours lands in the
+ * last bucket.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKETS = 8;
+    private static final int POWERS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(POWERS * SUB_BUCKETS);
+
+    public void record(long nanos)
+    {
+        buckets.incrementAndGet(bucket(Math.max(0, nanos / 1000)));
+    }
+
+    // bucket k covers micros up to and including upperMicros(k)
+    static int bucket(long micros)
+    {
+        if (micros < SUB_BUCKETS)
+            return (int) micros;
+        int power = 63 - Long.numberOfLeadingZeros(micros);
+        // the three bits below the top one pick the step within the power of two
+        int step = (int) (micros >>> (power - 3)) & (SUB_BUCKETS - 1);
+        int index = (power - 2) * SUB_BUCKETS + step;
+        return Math.min(index, POWERS * SUB_BUCKETS - 1);
+    }
+
+    static long upperMicros(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int power = bucket / SUB_BUCKETS + 2;
+        int step = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + step + 1) << (power - 3)) - 1;
+    }
+
+    public long count()
+    {
+        long count = 0;
+        for (int k = 0; k < buckets.length(); k++)
+            count += buckets.get(k);
+        return count;
+    }
+
+    /**
+     * The latency at or below which fraction (0 to 1) of the recorded ones fall, in milliseconds; 0 if there are none
+     */
+    public double percentileMillis(double fraction)
+    {
+        long[] snapshot = new long[buckets.length()];
+        long count = 0;
+        for (int k = 0; k < snapshot.length; k++)
+            count += snapshot[k] = buckets.get(k);
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int k = 0; k < snapshot.length; k++)
+        {
+            seen += snapshot[k];
+            if (seen >= rank)
+                return upperMicros(k) / 1000.0;
+        }
+        return upperMicros(snapshot.length - 1) / 1000.0;
+    }
+
+    public void clear()
+    {
+        for (int k = 0; k < buckets.length(); k++)
+            buckets.set(k, 0);
+    }
+}
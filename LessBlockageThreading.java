@@ -1,17 +1,15 @@
 package concurrency;
 
 import javax.swing.*;
-import java.awt.*;
-import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
 
-public class LessBlockageThreading
+/**
+ * Workers fill in an IterationBuffer through a RenderScheduler that outlives a single render, by default in runs of
+ * whole rows on a fixed pool (RenderSchedulers.RowRuns). Each worker copies its region into the image and marks it
+ * for repainting as soon as it's computed, so the picture fills in live.
+ */
+public class LessBlockageThreading implements AutoCloseable
 {
     // Determine the position and zoom level of the image of the Mandelbrot set
     private static final double X_CENTRE   = 0;
@@ -32,129 +30,98 @@ public class LessBlockageThreading
     
     public static int BLOCK_SIZE = IMAGE_SIZE / 10;
     
+    public final MandelbrotRaster raster;
+    public final RenderScheduler scheduler;
     public JFrame frame;
     public BufferedImage image;
-    public Graphics2D graphics;
-    
-    // hold the data needed for plotting
-    private int[][] plotData = new int[IMAGE_SIZE][IMAGE_SIZE];
-    private double[][][] positionData = new double[IMAGE_SIZE][IMAGE_SIZE][2];
-    
-    // return number of iterations to check if c = x + iy is in Mandelbrot set
-    public static int mandelbrot(double x0, double y0, int maxIterations) {
-        double zx = x0;
-        double zy = y0;
-        for (int t = 0; t < maxIterations; t++) {
-            if (zx * zx + zy * zy > 4.0) {
-                return t;
-            }
-            double tmp = zx * zx - zy * zy + x0;
-            zy = 2.0 * zx * zy + y0;
-            zx = tmp;
-        }
-        return maxIterations;
-    }
     
+    // iteration counts, filled in by the jobs; each job's rows are turned into pixels as soon as it's done
+    public final IterationBuffer counts;
+    
+    // only close a scheduler we made ourselves
+    private final boolean ownsScheduler;
+    private RepaintThrottle throttle;
     
     public LessBlockageThreading() {
-        // Set up the graphics to display the image
-        frame = new JFrame("Mandelbrot");
-        image  = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
-        graphics  = image.createGraphics();
-        graphics.setColor(Color.WHITE);
-        graphics.fillRect(0, 0, IMAGE_SIZE, IMAGE_SIZE);
-        ImageIcon icon = new ImageIcon(image);
-        JLabel draw = new JLabel(icon);
-        
-        frame.setContentPane(draw);
-        frame.setResizable(false);
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.pack();
-        frame.setVisible(true);
-        
-        graphics.scale(1/SCALE, 1/SCALE);
-        graphics.translate(-X_START, -Y_START);
+        this(new Viewport(X_START, Y_START, SCALE, IMAGE_SIZE, IMAGE_SIZE, ITERATION_MAX), BLOCK_SIZE, 10);
+    }
+    
+    public LessBlockageThreading(Viewport view, int blockSize, int threadCount) {
+        this(view, new RenderSchedulers.RowRuns(threadCount, rowsPerJob(view, blockSize)), true);
     }
     
-    public void plotBlock(double xStart, double yStart, int blockSize,
-                          double scale, int iterationMax)
+    /**
+     * Render on a pool owned by the caller, e.g. one shared by several renderers; close() leaves it running
+     */
+    public LessBlockageThreading(Viewport view, int blockSize, ExecutorService threads) {
+        this(view, new RenderSchedulers.RowRuns(threads, rowsPerJob(view, blockSize)), true);
+    }
+    
+    /**
+     * Render through a scheduler owned by the caller; close() leaves it open
+     */
+    public LessBlockageThreading(Viewport view, RenderScheduler scheduler) {
+        this(view, scheduler, false);
+    }
+    
+    private LessBlockageThreading(Viewport view, RenderScheduler scheduler, boolean ownsScheduler) {
+        this.scheduler = scheduler;
+        this.ownsScheduler = ownsScheduler;
+        counts = new IterationBuffer(view);
+        // pixels are written straight into the image, the window (if there is a display) just shows it
+        raster = new MandelbrotRaster(view);
+        image = raster.image;
+        frame = raster.display("Mandelbrot");
+        if (frame != null)
+            throttle = new RepaintThrottle(frame.getContentPane(), 60);
+    }
+    
+    // as many jobs as there would be blocks, but each is a run of whole rows so the jobs write to separate parts of
+    // the buffer instead of interleaving in every row
+    private static int rowsPerJob(Viewport view, int blockSize)
     {
-        for (int i = 0; i < blockSize; i++)
-        {
-            for (int j = 0; j < blockSize; j++)
-            {
-                double x0 = X_START + scale * (xStart + i);
-                double y0 = Y_START + scale * (yStart + j);
-                int gray = iterationMax - mandelbrot(x0, y0, iterationMax);
-                Color color = new Color(gray, gray, gray);
-                graphics.setColor(color);
-                graphics.fill(new Rectangle2D.Double(x0, y0, scale, scale));
-                // frame.repaint();
-            }
-        }
+        int blockCount = ((view.width + blockSize - 1) / blockSize) * ((view.height + blockSize - 1) / blockSize);
+        return IterationBuffer.rowsPerJob(view, blockCount);
     }
     
-    List<Future<?>> futures = new ArrayList<>();
     public void run()
     {
-        ExecutorService threads = Executors.newFixedThreadPool(10);
-            
-        for (int i = 0; i < IMAGE_SIZE; i += BLOCK_SIZE)
+        Viewport view = raster.view;
+        if (throttle != null)
+            throttle.start();
+        try
         {
-            for (int j = 0; j < IMAGE_SIZE; j += BLOCK_SIZE)
-            {
-                Future<?> f = threads.submit(new PlotBlockJob(i, j, BLOCK_SIZE, SCALE, ITERATION_MAX));
-                futures.add(f);
-            }
+            scheduler.render(view.width, view.height, this::plot);
         }
-
-        boolean allDone = false;
-        while (!allDone)
+        finally
         {
-            allDone = true;
-            for (var future : futures)
-            {
-                if (!(future.isDone()))
-                {
-                    allDone = false;
-                    break;
-                }
-            }
+            if (throttle != null)
+                throttle.stop();
         }
-
-//        threads.shutdown();
-//        // await termination, then repaint
-//        while (true)
-//        {
-//            try
-//            {
-//                if (threads.awaitTermination(1000, TimeUnit.MILLISECONDS))
-//                    break;
-//            }
-//            catch (InterruptedException e)
-//            {
-//                e.printStackTrace();
-//            }
-//        }
-
-        for (int i = 0; i < IMAGE_SIZE; i++)
-        {
-            for (int j = 0; j < IMAGE_SIZE; j++)
-            {
-                int gray = plotData[i][j];
-                graphics.setColor(new Color(gray, gray, gray));
-                double[] position = positionData[i][j];
-                graphics.fill(new Rectangle2D.Double(position[0], position[1], SCALE, SCALE));
-            }
-        }
-
-
-        frame.repaint();
+    }
+    
+    // runs on the worker that computes the region, which copies it into the image straight after
+    private void plot(int x, int y, int width, int height)
+    {
+        counts.computeRegion(x, y, width, height);
+        counts.copyRegion(raster, x, y, width, height);
+        if (throttle != null)
+            throttle.markDirty(x, y, width, height);
+    }
+    
+    @Override
+    public void close()
+    {
+        if (ownsScheduler)
+            scheduler.close();
     }
     
     public static void main(String[] args)  {
         long start = System.currentTimeMillis();
-        new LessBlockageThreading().run();
+        try (LessBlockageThreading mandelbrot = new LessBlockageThreading())
+        {
+            mandelbrot.run();
+        }
 //        for (double i = 1; i > 0.01 ; i-=0.05)
 //        {
 //            var plot = new LessBlockageThreading();
@@ -164,36 +131,4 @@ public class LessBlockageThreading
         long end = System.currentTimeMillis();
         System.out.println(end - start);
     }
-    
-    class PlotBlockJob implements Runnable
-    {
-        double xStart; double yStart; int blockSize;
-        double scale; int iterationMax;
-        
-        public PlotBlockJob(double xStart, double yStart, int blockSize,
-                            double scale, int iterationMax)
-        {
-            this.xStart = xStart;  this.yStart = yStart;  this.blockSize = blockSize;
-            this.scale = scale;  this.iterationMax = iterationMax;
-        }
-        @Override
-        public void run()
-        {
-            for (int i = 0; i < blockSize; i++)
-            {
-                for (int j = 0; j < blockSize; j++)
-                {
-                    int xPos = (int)xStart + i;
-                    int yPos = (int)yStart + j;
-                    double x0 = X_START + scale * (xPos);
-                    double y0 = Y_START + scale * (yPos);
-                    int gray = iterationMax - mandelbrot(x0, y0, iterationMax);
-                    //Color color = new Color(gray, gray, gray);
-                    
-                    plotData[xPos][yPos] = gray;
-                    positionData[xPos][yPos] = new double[]{x0, y0};
-                }
-            }
-        }
-    }
 }
@@ -0,0 +1,151 @@
+package concurrency;
+
+/**
+ * The escape-time kernel shared by every renderer.
+ * Points in the main cardioid or the period-2 bulb are answered straight away, and orbits that land exactly on a
+ * value they had before are cycling, so they are stopped early too. Both only ever return maxIterations for points
+ * that the plain loop would also have iterated to maxIterations, and the loop itself does the same floating point
+ * operations in the same order, so every point that escapes gets bit-for-bit the same count as before.
+ */
+public final class MandelbrotKernel
+{
+    private MandelbrotKernel() {}
+
+    // return number of iterations to check if c = x + iy is in Mandelbrot set
+    public static int mandelbrot(double x0, double y0, int maxIterations)
+    {
+        return count(mandelbrotWithWork(x0, y0, maxIterations));
+    }
+
+    /**
+     * mandelbrot() together with how many iterations it actually ran, which for interior points is less than the
+     * count: none inside the cardioid or bulb, and only up to the repeat for a cycling orbit. Both are packed into
+     * one long so nothing is allocated; take them apart with count() and iterationsRun().
+     */
+    public static long mandelbrotWithWork(double x0, double y0, int maxIterations)
+    {
+        if (inCardioidOrBulb(x0, y0))
+            return withWork(maxIterations, 0);
+
+        double zx = x0;
+        double zy = y0;
+        // Brent's cycle detection: remember z every power of two steps and look for it coming round again
+        double savedX = zx;
+        double savedY = zy;
+        int steps = 0;
+        int stepLimit = 1;
+        for (int t = 0; t < maxIterations; t++)
+        {
+            double zx2 = zx * zx;
+            double zy2 = zy * zy;
+            if (zx2 + zy2 > 4.0)
+                return withWork(t, t);
+            zy = 2.0 * zx * zy + y0;
+            zx = zx2 - zy2 + x0;
+
+            // exact comparison: an orbit that repeats a value exactly will repeat forever and never escape
+            if (zx == savedX && zy == savedY)
+                return withWork(maxIterations, t + 1);
+            if (++steps == stepLimit)
+            {
+                savedX = zx;
+                savedY = zy;
+                steps = 0;
+                stepLimit <<= 1;
+            }
+        }
+        return withWork(maxIterations, maxIterations);
+    }
+
+    private static long withWork(int count, int iterationsRun)
+    {
+        return (long) iterationsRun << 32 | count;
+    }
+
+    // the count from mandelbrotWithWork()
+    public static int count(long countWithWork)
+    {
+        return (int) countWithWork;
+    }
+
+    // the iterations mandelbrotWithWork() actually ran
+    public static int iterationsRun(long countWithWork)
+    {
+        return (int) (countWithWork >>> 32);
+    }
+
+    /**
+     * The same count as mandelbrot() plus a fraction in [0, 255/256] for how far past the escape radius the orbit got
+     * (the normalised iteration count), so colours can change smoothly instead of in bands. A couple of extra
+     * iterations after escaping make the fraction much closer to continuous. Points that don't escape give exactly
+     * maxIterations.
+     */
+    public static double smoothMandelbrot(double x0, double y0, int maxIterations)
+    {
+        if (inCardioidOrBulb(x0, y0))
+            return maxIterations;
+
+        // the loop from mandelbrotWithWork(), so the whole part is bit-for-bit the same count; MandelbrotKernelTest
+        // checks the two agree
+        double zx = x0;
+        double zy = y0;
+        double savedX = zx;
+        double savedY = zy;
+        int steps = 0;
+        int stepLimit = 1;
+        for (int t = 0; t < maxIterations; t++)
+        {
+            double zx2 = zx * zx;
+            double zy2 = zy * zy;
+            if (zx2 + zy2 > 4.0)
+                return t + escapeFraction(zx, zy, x0, y0);
+            zy = 2.0 * zx * zy + y0;
+            zx = zx2 - zy2 + x0;
+
+            if (zx == savedX && zy == savedY)
+                return maxIterations;
+            if (++steps == stepLimit)
+            {
+                savedX = zx;
+                savedY = zy;
+                steps = 0;
+                stepLimit <<= 1;
+            }
+        }
+        return maxIterations;
+    }
+
+    private static final int SMOOTH_EXTRA_ITERATIONS = 2;
+    private static final double LN_2 = Math.log(2);
+    private static final double MAX_FRACTION = 255 / 256.0;
+
+    // mu - n = 1 - log2(ln|z| / ln 2) for the first z past radius 2, taken a few iterations later when it's closer
+    private static double escapeFraction(double zx, double zy, double x0, double y0)
+    {
+        for (int extra = 0; extra < SMOOTH_EXTRA_ITERATIONS; extra++)
+        {
+            double zx2 = zx * zx;
+            double zy2 = zy * zy;
+            zy = 2.0 * zx * zy + y0;
+            zx = zx2 - zy2 + x0;
+        }
+        double logModulus = 0.5 * Math.log(zx * zx + zy * zy);
+        double fraction = SMOOTH_EXTRA_ITERATIONS + 1 - Math.log(logModulus / LN_2) / LN_2;
+        // capped well short of 1, so adding it to any int count can't round up to the next one
+        return Math.max(0, Math.min(fraction, MAX_FRACTION));
+    }
+
+    /**
+     * Whether c = x + iy lies strictly inside the main cardioid or the period-2 bulb, where nothing escapes
+     */
+    public static boolean inCardioidOrBulb(double x, double y)
+    {
+        double y2 = y * y;
+        double xq = x - 0.25;
+        double q = xq * xq + y2;
+        if (q * (q + xq) < 0.25 * y2)
+            return true;
+        double xb = x + 1;
+        return xb * xb + y2 < 0.0625;
+    }
+}
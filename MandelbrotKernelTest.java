@@ -0,0 +1,86 @@
+package concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MandelbrotKernelTest {
+
+    // the kernel as it was before the interior shortcuts
+    private static int plainMandelbrot(double x0, double y0, int maxIterations) {
+        double zx = x0;
+        double zy = y0;
+        for (int t = 0; t < maxIterations; t++) {
+            if (zx * zx + zy * zy > 4.0) {
+                return t;
+            }
+            double tmp = zx * zx - zy * zy + x0;
+            zy = 2.0 * zx * zy + y0;
+            zx = tmp;
+        }
+        return maxIterations;
+    }
+
+    @Test
+    public void testSameCountsAsPlainKernel() {
+        int maxIterations = 5000;
+        int size = 300;
+        for (int j = 0; j < size; j++) {
+            for (int i = 0; i < size; i++) {
+                double x0 = -2.0 + 2.5 * i / size;
+                double y0 = -1.25 + 2.5 * j / size;
+                assertEquals(plainMandelbrot(x0, y0, maxIterations), MandelbrotKernel.mandelbrot(x0, y0, maxIterations));
+            }
+        }
+    }
+
+    @Test
+    public void testReportsTheIterationsItRan() {
+        int maxIterations = 1000;
+        // escapes: ran exactly as many iterations as it counts
+        long escaping = MandelbrotKernel.mandelbrotWithWork(0.3, 0.5, maxIterations);
+        assertEquals(MandelbrotKernel.mandelbrot(0.3, 0.5, maxIterations), MandelbrotKernel.count(escaping));
+        assertEquals(MandelbrotKernel.count(escaping), MandelbrotKernel.iterationsRun(escaping));
+        // answered by the cardioid test without iterating
+        long cardioid = MandelbrotKernel.mandelbrotWithWork(0, 0, maxIterations);
+        assertEquals(maxIterations, MandelbrotKernel.count(cardioid));
+        assertEquals(0, MandelbrotKernel.iterationsRun(cardioid));
+        // -2 -> 2 -> 2 and i -> -1 + i -> -i -> -1 + i repeat exactly, cycle detection stops them early
+        for (double[] c : new double[][]{{-2, 0}, {0, 1}}) {
+            long cycling = MandelbrotKernel.mandelbrotWithWork(c[0], c[1], maxIterations);
+            assertEquals(maxIterations, MandelbrotKernel.count(cycling));
+            assertTrue(MandelbrotKernel.iterationsRun(cycling) > 0);
+            assertTrue(MandelbrotKernel.iterationsRun(cycling) < 10);
+        }
+    }
+
+    @Test
+    public void testSmoothCountHasTheSameWholePart() {
+        int maxIterations = 5000;
+        int size = 300;
+        for (int j = 0; j <= size; j++) {
+            for (int i = 0; i <= size; i++) {
+                double x0 = -2.0 + 2.5 * i / size;
+                double y0 = -1.25 + 2.5 * j / size;
+                double smooth = MandelbrotKernel.smoothMandelbrot(x0, y0, maxIterations);
+                assertEquals(MandelbrotKernel.mandelbrot(x0, y0, maxIterations), (int) smooth);
+                assertTrue(smooth - (int) smooth < 1);
+            }
+        }
+        // the grid takes in the cardioid; these cycle exactly
+        assertEquals(maxIterations, MandelbrotKernel.smoothMandelbrot(-2, 0, maxIterations), 0);
+        assertEquals(maxIterations, MandelbrotKernel.smoothMandelbrot(0, 1, maxIterations), 0);
+    }
+
+    @Test
+    public void testCardioidAndBulb() {
+        assertTrue(MandelbrotKernel.inCardioidOrBulb(0, 0));
+        assertTrue(MandelbrotKernel.inCardioidOrBulb(-1, 0));
+        assertTrue(MandelbrotKernel.inCardioidOrBulb(0.2, 0.1));
+        assertFalse(MandelbrotKernel.inCardioidOrBulb(0.3, 0));
+        assertFalse(MandelbrotKernel.inCardioidOrBulb(-0.12, 0.75));
+        assertFalse(MandelbrotKernel.inCardioidOrBulb(-2, 0));
+    }
+}
@@ -0,0 +1,132 @@
+package concurrency;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Headless rendering core shared by the renderers.
+ * Iteration counts are turned into packed RGB ints and written straight into the int[] backing the BufferedImage,
+ * so there is no Color, Rectangle2D or Graphics2D involved per pixel and no JFrame is needed to render.
+ * Blocks that don't overlap can be plotted from different threads at the same time, they never touch the same index.
+ */
+public class MandelbrotRaster
+{
+    public final Viewport view;
+    public final BufferedImage image;
+
+    // row-major, pixel (i, j) lives at pixels[j * width + i]; this IS the image's data, not a copy
+    public final int[] pixels;
+
+    public enum Kernel { SCALAR, VECTOR }
+
+    // only worth checking once; the module has to be added with --add-modules jdk.incubator.vector
+    private static final boolean VECTOR_AVAILABLE =
+            ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && VectorKernel.wideEnough();
+
+    // set before rendering, the workers only read it
+    private Kernel kernel = Kernel.SCALAR;
+
+    public MandelbrotRaster(Viewport view)
+    {
+        this.view = view;
+        image = new BufferedImage(view.width, view.height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    // same gray level as new Color(gray, gray, gray).getRGB(), minus the alpha which TYPE_INT_RGB ignores
+    public static int grayRGB(int gray)
+    {
+        return gray << 16 | gray << 8 | gray;
+    }
+
+    public static boolean vectorKernelAvailable()
+    {
+        return VECTOR_AVAILABLE;
+    }
+
+    /**
+     * Choose the kernel plotBlock uses. VECTOR falls back to SCALAR when the Vector API module isn't loaded or the
+     * hardware vectors are too narrow to be worth it.
+     */
+    public void setKernel(Kernel kernel)
+    {
+        this.kernel = kernel == Kernel.VECTOR && !VECTOR_AVAILABLE ? Kernel.SCALAR : kernel;
+    }
+
+    public Kernel getKernel()
+    {
+        return kernel;
+    }
+
+    public void setPixel(int i, int j, int rgb)
+    {
+        pixels[j * view.width + i] = rgb;
+    }
+
+    /**
+     * Plot the width by height block whose top left pixel is (xStart, yStart), clipped to the image;
+     * returns the iterations the kernel actually ran for it, for the metrics
+     */
+    public long plotBlock(int xStart, int yStart, int width, int height)
+    {
+        int xEnd = Math.min(xStart + width, view.width);
+        int yEnd = Math.min(yStart + height, view.height);
+        if (kernel == Kernel.VECTOR)
+            return plotBlockVector(xStart, yStart, xEnd, yEnd);
+        int iterationMax = view.iterationMax;
+        long iterations = 0;
+        for (int j = yStart; j < yEnd; j++)
+        {
+            double y0 = view.y(j);
+            int row = j * view.width;
+            for (int i = xStart; i < xEnd; i++)
+            {
+                long countWithWork = MandelbrotKernel.mandelbrotWithWork(view.x(i), y0, iterationMax);
+                int count = MandelbrotKernel.count(countWithWork);
+                iterations += MandelbrotKernel.iterationsRun(countWithWork);
+                pixels[row + i] = grayRGB(iterationMax - count);
+            }
+        }
+        return iterations;
+    }
+
+    private long plotBlockVector(int xStart, int yStart, int xEnd, int yEnd)
+    {
+        int[] counts = new int[xEnd - xStart];
+        double[] xs = new double[VectorKernel.lanes()];
+        double[] laneCounts = new double[VectorKernel.lanes()];
+        int iterationMax = view.iterationMax;
+        long iterations = 0;
+        for (int j = yStart; j < yEnd; j++)
+        {
+            iterations += VectorKernel.mandelbrotRow(view, j, xStart, xEnd, counts, xs, laneCounts);
+            int row = j * view.width;
+            for (int i = xStart; i < xEnd; i++)
+                pixels[row + i] = grayRGB(iterationMax - counts[i - xStart]);
+        }
+        return iterations;
+    }
+
+    public void render()
+    {
+        plotBlock(0, 0, view.width, view.height);
+    }
+
+    /**
+     * Put the image in a window, or return null when there is no display (e.g. on the render boxes or in tests)
+     */
+    public JFrame display(String title)
+    {
+        if (GraphicsEnvironment.isHeadless())
+            return null;
+        JFrame frame = new JFrame(title);
+        frame.setContentPane(new JLabel(new ImageIcon(image)));
+        frame.setResizable(false);
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.pack();
+        frame.setVisible(true);
+        return frame;
+    }
+}
@@ -0,0 +1,86 @@
+package concurrency;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+public class MandelbrotRasterTest {
+
+    @Test
+    public void testWritesIntoImage() {
+        MandelbrotRaster raster = new MandelbrotRaster(Viewport.defaultView(64));
+        raster.render();
+        Viewport view = raster.view;
+        for (int j = 0; j < view.height; j++) {
+            for (int i = 0; i < view.width; i++) {
+                int gray = view.iterationMax - MandelbrotKernel.mandelbrot(view.x(i), view.y(j), view.iterationMax);
+                assertEquals(new Color(gray, gray, gray).getRGB(), raster.image.getRGB(i, j));
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesGraphicsRendering() {
+        // the old way of plotting: one scaled Rectangle2D per pixel through Graphics2D
+        Viewport view = Viewport.defaultView(200);
+        BufferedImage expected = new BufferedImage(view.width, view.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = expected.createGraphics();
+        graphics.scale(1/view.scale, 1/view.scale);
+        graphics.translate(-view.xStart, -view.yStart);
+        for (int i = 0; i < view.width; i++) {
+            for (int j = 0; j < view.height; j++) {
+                double x0 = view.x(i);
+                double y0 = view.y(j);
+                int gray = view.iterationMax - MandelbrotKernel.mandelbrot(x0, y0, view.iterationMax);
+                graphics.setColor(new Color(gray, gray, gray));
+                graphics.fill(new Rectangle2D.Double(x0, y0, view.scale, view.scale));
+            }
+        }
+
+        MandelbrotRaster raster = new MandelbrotRaster(view);
+        raster.render();
+
+        int badPixelCount = 0;
+        for (int j = 0; j < view.height; j++) {
+            for (int i = 0; i < view.width; i++) {
+                if (expected.getRGB(i, j) != raster.image.getRGB(i, j)) {
+                    badPixelCount++;
+                }
+            }
+        }
+        // the transformed rectangles can land a pixel off through floating point rounding
+        assertTrue(badPixelCount <= 5);
+    }
+
+    @Test
+    public void testBlocksAreClipped() {
+        MandelbrotRaster raster = new MandelbrotRaster(Viewport.defaultView(50));
+        raster.plotBlock(40, 40, 20, 20);
+        Viewport view = raster.view;
+        int gray = view.iterationMax - MandelbrotKernel.mandelbrot(view.x(49), view.y(49), view.iterationMax);
+        assertEquals(MandelbrotRaster.grayRGB(gray), raster.pixels[49 * 50 + 49]);
+        // outside the block is untouched
+        assertEquals(0, raster.pixels[39 * 50 + 39]);
+    }
+
+    @Test
+    public void testVectorKernelMatchesScalar() {
+        // without jdk.incubator.vector VECTOR quietly falls back to the scalar loop, which would prove nothing
+        assertTrue("run with --add-modules jdk.incubator.vector", MandelbrotRaster.vectorKernelAvailable());
+        // odd width so the last vector in each row is only partly used
+        Viewport view = Viewport.centred(-0.5, 0, 2.5, 301, 1000);
+        MandelbrotRaster scalar = new MandelbrotRaster(view);
+        scalar.render();
+        MandelbrotRaster vector = new MandelbrotRaster(view);
+        vector.setKernel(MandelbrotRaster.Kernel.VECTOR);
+        vector.render();
+        assertArrayEquals(scalar.pixels, vector.pixels);
+    }
+}
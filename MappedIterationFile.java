@@ -0,0 +1,176 @@
+package concurrency;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Iteration counts for a render too big for the heap, kept in a memory-mapped file.
+ * The image is cut into square tiles and each tile is stored contiguously, so a worker maps just its own tile and
+ * writes the counts straight into the mapped pages; only the header is mapped the whole time.
+ *
+ * Layout: a header with the view and a done flag per tile, padded to a page, then the tiles in row-major tile order,
+ * tileSize * tileSize ints each (edge tiles are stored full size, the part outside the image is unused).
+ * A tile's flag is only set after its data has been forced to disk, so after a crash the file can be reopened
+ * and only the tiles without a flag need rendering again.
+ */
+public class MappedIterationFile implements AutoCloseable
+{
+    private static final int MAGIC = 0x4d424954; // "MBIT"
+    private static final int VERSION = 1;
+    // magic, version, width, height, tileSize, iterationMax, then xStart, yStart, scale
+    private static final int FIXED_HEADER = 6 * 4 + 3 * 8;
+    private static final int PAGE = 4096;
+
+    public final Viewport view;
+    public final int tileSize;
+    public final int tilesX;
+    public final int tilesY;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final long dataStart;
+
+    private MappedIterationFile(FileChannel channel, Viewport view, int tileSize, boolean create) throws IOException
+    {
+        this.channel = channel;
+        this.view = view;
+        this.tileSize = tileSize;
+        tilesX = (view.width + tileSize - 1) / tileSize;
+        tilesY = (view.height + tileSize - 1) / tileSize;
+        long headerSize = FIXED_HEADER + (long) tilesX * tilesY;
+        dataStart = (headerSize + PAGE - 1) / PAGE * PAGE;
+        if (create)
+            channel.truncate(0);
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerSize);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (create)
+        {
+            header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, view.width).putInt(12, view.height)
+                  .putInt(16, tileSize).putInt(20, view.iterationMax)
+                  .putDouble(24, view.xStart).putDouble(32, view.yStart).putDouble(40, view.scale);
+            // sparse on most file systems, pages only get allocated as tiles are written
+            channel.write(ByteBuffer.wrap(new byte[1]), dataStart + tileBytes() * tilesX * tilesY - 1);
+            header.force();
+        }
+    }
+
+    /**
+     * Open the file for this view, picking up the finished tiles if it already holds the same render,
+     * or starting it from scratch if it doesn't exist
+     */
+    public static MappedIterationFile open(Path path, Viewport view, int tileSize) throws IOException
+    {
+        boolean exists = Files.exists(path) && Files.size(path) >= FIXED_HEADER;
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+        try
+        {
+            if (exists)
+                checkHeader(channel, path, view, tileSize);
+            return new MappedIterationFile(channel, view, tileSize, !exists);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void checkHeader(FileChannel channel, Path path, Viewport view, int tileSize) throws IOException
+    {
+        MappedByteBuffer existing = channel.map(FileChannel.MapMode.READ_ONLY, 0, FIXED_HEADER);
+        existing.order(ByteOrder.LITTLE_ENDIAN);
+        boolean same = existing.getInt(0) == MAGIC && existing.getInt(4) == VERSION
+                && existing.getInt(8) == view.width && existing.getInt(12) == view.height
+                && existing.getInt(16) == tileSize && existing.getInt(20) == view.iterationMax
+                && existing.getDouble(24) == view.xStart && existing.getDouble(32) == view.yStart
+                && existing.getDouble(40) == view.scale;
+        if (!same)
+            throw new IOException(path + " holds a different render than " + view + " with tiles of " + tileSize);
+    }
+
+    private long tileBytes()
+    {
+        return 4L * tileSize * tileSize;
+    }
+
+    private long tileOffset(int tileX, int tileY)
+    {
+        return dataStart + tileBytes() * ((long) tileY * tilesX + tileX);
+    }
+
+    public boolean isDone(int tileX, int tileY)
+    {
+        return header.get(FIXED_HEADER + tileY * tilesX + tileX) != 0;
+    }
+
+    public int doneCount()
+    {
+        int done = 0;
+        for (int t = 0; t < tilesX * tilesY; t++)
+            if (header.get(FIXED_HEADER + t) != 0)
+                done++;
+        return done;
+    }
+
+    /**
+     * Map one tile for writing; counts go in row-major within the tile (asIntBuffer() to write them),
+     * then hand the buffer to markDone()
+     */
+    public MappedByteBuffer mapTile(int tileX, int tileY) throws IOException
+    {
+        return map(FileChannel.MapMode.READ_WRITE, tileX, tileY);
+    }
+
+    public IntBuffer readTile(int tileX, int tileY) throws IOException
+    {
+        return map(FileChannel.MapMode.READ_ONLY, tileX, tileY).asIntBuffer();
+    }
+
+    private MappedByteBuffer map(FileChannel.MapMode mode, int tileX, int tileY) throws IOException
+    {
+        MappedByteBuffer buffer = channel.map(mode, tileOffset(tileX, tileY), tileBytes());
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * Flush a written tile to disk and only then flag it as done
+     */
+    public void markDone(int tileX, int tileY, MappedByteBuffer tile)
+    {
+        tile.force();
+        synchronized (header)
+        {
+            header.put(FIXED_HEADER + tileY * tilesX + tileX, (byte) 1);
+            header.force();
+        }
+    }
+
+    public int iterationsAt(int i, int j) throws IOException
+    {
+        int tileX = i / tileSize;
+        int tileY = j / tileSize;
+        long offset = tileOffset(tileX, tileY) + 4L * ((j % tileSize) * tileSize + (i % tileSize));
+        ByteBuffer value = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        while (value.hasRemaining())
+        {
+            if (channel.read(value, offset + value.position()) < 0)
+                throw new IOException("unexpected end of file at " + offset);
+        }
+        return value.getInt(0);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
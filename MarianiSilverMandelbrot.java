@@ -0,0 +1,172 @@
+package concurrency;
+
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mariani-Silver rendering: only the border of a rectangle is iterated. If every border pixel has the same
+ * iteration count the inside is filled with it without iterating, otherwise the rectangle is cut into four
+ * (sharing their dividing lines) and those are done in parallel, the same way ForkJoinMandelbrot splits tiles.
+ */
+public class MarianiSilverMandelbrot
+{
+    // Determine the position and zoom level of the image of the Mandelbrot set
+    private static final double X_CENTRE   = 0;
+    private static final double Y_CENTRE   = 0.75;
+
+    // this effectively sets the zoom level of the whole image
+    private static final double MANDELBROT_SIZE = 1;
+
+    public static final double X_START = X_CENTRE - MANDELBROT_SIZE/2;
+    public static final double Y_START = Y_CENTRE - MANDELBROT_SIZE/2;
+
+    // maximum number of iterations
+    public static final int ITERATION_MAX = 255;
+
+    // size of the image (the window size)
+    public static final int IMAGE_SIZE   = 1600;
+    public static final double SCALE = MANDELBROT_SIZE/IMAGE_SIZE;
+
+    // rectangles with a side shorter than this are just iterated pixel by pixel
+    public static int MIN_RECT_SIZE = 8;
+
+    public final MandelbrotRaster raster;
+    public JFrame frame;
+    public BufferedImage image;
+
+    private final ForkJoinPool pool;
+
+    // iteration count per pixel, row-major like raster.pixels, NOT_COMPUTED until known
+    private final int[] iterations;
+    private static final int NOT_COMPUTED = -1;
+
+    // how many pixels actually went through mandelbrot(), the rest were filled
+    private final LongAdder iteratedPixels = new LongAdder();
+
+    public MarianiSilverMandelbrot()
+    {
+        this(new Viewport(X_START, Y_START, SCALE, IMAGE_SIZE, IMAGE_SIZE, ITERATION_MAX), ForkJoinPool.commonPool());
+    }
+
+    public MarianiSilverMandelbrot(Viewport view, ForkJoinPool pool)
+    {
+        this.pool = pool;
+        raster = new MandelbrotRaster(view);
+        image = raster.image;
+        iterations = new int[view.pixelCount()];
+        frame = raster.display("Mandelbrot");
+    }
+
+    public void run()
+    {
+        Arrays.fill(iterations, NOT_COMPUTED);
+        iteratedPixels.reset();
+        Viewport view = raster.view;
+        pool.invoke(new RectTask(0, 0, view.width - 1, view.height - 1));
+        if (frame != null)
+            frame.repaint();
+    }
+
+    public long iteratedPixels()
+    {
+        return iteratedPixels.sum();
+    }
+
+    /**
+     * Iteration count at pixel (i, j), computing and plotting it the first time it's asked for.
+     * Neighbouring rectangles share their edges, so two workers can both find an edge pixel NOT_COMPUTED and
+     * both compute it; they write the same value so that race only costs a little duplicated work.
+     */
+    int iterationsAt(int i, int j)
+    {
+        Viewport view = raster.view;
+        int index = j * view.width + i;
+        int count = iterations[index];
+        if (count == NOT_COMPUTED)
+        {
+            count = MandelbrotKernel.mandelbrot(view.x(i), view.y(j), view.iterationMax);
+            iterations[index] = count;
+            raster.pixels[index] = MandelbrotRaster.grayRGB(view.iterationMax - count);
+            iteratedPixels.increment();
+        }
+        return count;
+    }
+
+    public static void main(String[] args)  {
+        long start = System.currentTimeMillis();
+        MarianiSilverMandelbrot mandelbrot = new MarianiSilverMandelbrot();
+        mandelbrot.run();
+        long end = System.currentTimeMillis();
+        System.out.println(end - start);
+        System.out.println("iterated " + mandelbrot.iteratedPixels() + " of " + mandelbrot.raster.view.pixelCount() + " pixels");
+    }
+
+    // x0, y0, x1, y1 are all inclusive
+    class RectTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int x0; final int y0; final int x1; final int y1;
+
+        RectTask(int x0, int y0, int x1, int y1)
+        {
+            this.x0 = x0;  this.y0 = y0;  this.x1 = x1;  this.y1 = y1;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (x1 - x0 < MIN_RECT_SIZE || y1 - y0 < MIN_RECT_SIZE)
+            {
+                for (int j = y0; j <= y1; j++)
+                    for (int i = x0; i <= x1; i++)
+                        iterationsAt(i, j);
+                return;
+            }
+
+            if (uniformBorder())
+            {
+                fillInside(iterationsAt(x0, y0));
+                return;
+            }
+
+            int xMid = (x0 + x1) / 2;
+            int yMid = (y0 + y1) / 2;
+            invokeAll(new RectTask(x0, y0, xMid, yMid), new RectTask(xMid, y0, x1, yMid),
+                      new RectTask(x0, yMid, xMid, y1), new RectTask(xMid, yMid, x1, y1));
+        }
+
+        // stops at the first pixel that differs; the sub-rectangles will compute the rest of the border anyway
+        private boolean uniformBorder()
+        {
+            int count = iterationsAt(x0, y0);
+            for (int i = x0; i <= x1; i++)
+            {
+                if (iterationsAt(i, y0) != count || iterationsAt(i, y1) != count)
+                    return false;
+            }
+            for (int j = y0 + 1; j < y1; j++)
+            {
+                if (iterationsAt(x0, j) != count || iterationsAt(x1, j) != count)
+                    return false;
+            }
+            return true;
+        }
+
+        private void fillInside(int count)
+        {
+            Viewport view = raster.view;
+            int rgb = MandelbrotRaster.grayRGB(view.iterationMax - count);
+            for (int j = y0 + 1; j < y1; j++)
+            {
+                int row = j * view.width;
+                Arrays.fill(iterations, row + x0 + 1, row + x1, count);
+                Arrays.fill(raster.pixels, row + x0 + 1, row + x1, rgb);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package concurrency;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class MarianiSilverMandelbrotTest {
+
+    @Test
+    public void testSameImageAsBasic() {
+        Viewport view = new Viewport(BasicMandelbrot.X_START, BasicMandelbrot.Y_START, BasicMandelbrot.SCALE,
+                BasicMandelbrot.IMAGE_SIZE, BasicMandelbrot.IMAGE_SIZE, BasicMandelbrot.ITERATION_MAX);
+        MandelbrotRaster expected = new MandelbrotRaster(view);
+        expected.render();
+
+        MarianiSilverMandelbrot marianiSilver = new MarianiSilverMandelbrot(view, ForkJoinPool.commonPool());
+        marianiSilver.run();
+
+        int badPixelCount = 0;
+        for (int i = 0; i < expected.pixels.length; i++) {
+            if (expected.pixels[i] != marianiSilver.raster.pixels[i]) {
+                badPixelCount++;
+            }
+        }
+        // a lone escaping pixel inside a uniform border can't be seen, allow a few like compareImages does
+        assertTrue(badPixelCount <= 5);
+        assertTrue(marianiSilver.iteratedPixels() < view.pixelCount() / 2);
+    }
+}
@@ -0,0 +1,157 @@
+package concurrency;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders views far bigger than the heap (65536 x 65536 and up) into a MappedIterationFile. Each job maps one tile,
+ * writes its iteration counts straight into the mapped pages and flags it done, so the heap only ever holds a few
+ * tile mappings. Running it again on the same file after a crash carries on with the tiles that weren't finished.
+ */
+public class OutOfCoreMandelbrot
+{
+    public static int TILE_SIZE = 256;
+
+    private final MappedIterationFile file;
+    private final int threadCount;
+    private final AtomicInteger tilesRendered = new AtomicInteger();
+
+    public OutOfCoreMandelbrot(MappedIterationFile file, int threadCount)
+    {
+        this.file = file;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Render every tile not already flagged done in the file; returns how many were rendered this time
+     */
+    public int run() throws InterruptedException
+    {
+        tilesRendered.set(0);
+        ExecutorService threads = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int tileY = 0; tileY < file.tilesY; tileY++)
+        {
+            for (int tileX = 0; tileX < file.tilesX; tileX++)
+            {
+                if (file.isDone(tileX, tileY))
+                    continue;
+                int x = tileX;
+                int y = tileY;
+                futures.add(threads.submit(() -> {
+                    renderTile(x, y);
+                    return null;
+                }));
+            }
+        }
+        try
+        {
+            for (Future<?> future : futures)
+                future.get();
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+                throw new UncheckedIOException((IOException) e.getCause());
+            throw new IllegalStateException("render job failed", e.getCause());
+        }
+        finally
+        {
+            threads.shutdownNow();
+        }
+        return tilesRendered.get();
+    }
+
+    void renderTile(int tileX, int tileY) throws IOException
+    {
+        Viewport view = file.view;
+        int size = file.tileSize;
+        MappedByteBuffer mapped = file.mapTile(tileX, tileY);
+        IntBuffer counts = mapped.asIntBuffer();
+        int xStart = tileX * size;
+        int yStart = tileY * size;
+        int xEnd = Math.min(xStart + size, view.width);
+        int yEnd = Math.min(yStart + size, view.height);
+        for (int j = yStart; j < yEnd; j++)
+        {
+            double y0 = view.y(j);
+            int row = (j - yStart) * size;
+            for (int i = xStart; i < xEnd; i++)
+                counts.put(row + i - xStart, MandelbrotKernel.mandelbrot(view.x(i), y0, view.iterationMax));
+        }
+        file.markDone(tileX, tileY, mapped);
+        tilesRendered.incrementAndGet();
+    }
+
+    /**
+     * A scaled down picture of the finished render, at most maxSize pixels on a side, sampled tile by tile
+     */
+    public BufferedImage preview(int maxSize) throws IOException
+    {
+        Viewport view = file.view;
+        int step = Math.max(1, (Math.max(view.width, view.height) + maxSize - 1) / maxSize);
+        BufferedImage image = new BufferedImage((view.width + step - 1) / step, (view.height + step - 1) / step,
+                                                BufferedImage.TYPE_INT_RGB);
+        int size = file.tileSize;
+        for (int tileY = 0; tileY < file.tilesY; tileY++)
+        {
+            for (int tileX = 0; tileX < file.tilesX; tileX++)
+            {
+                if (!file.isDone(tileX, tileY))
+                    continue;
+                IntBuffer counts = file.readTile(tileX, tileY);
+                int xEnd = Math.min((tileX + 1) * size, view.width);
+                int yEnd = Math.min((tileY + 1) * size, view.height);
+                // first pixels in the tile that land on the preview grid
+                int jStart = (tileY * size + step - 1) / step * step;
+                int iStart = (tileX * size + step - 1) / step * step;
+                for (int j = jStart; j < yEnd; j += step)
+                {
+                    for (int i = iStart; i < xEnd; i += step)
+                    {
+                        int count = counts.get((j - tileY * size) * size + (i - tileX * size));
+                        // in long, count * 255 overflows an int for iteration limits above about 8.4 million
+                        int shade = (int) (255L * count / view.iterationMax);
+                        image.setRGB(i / step, j / step, MandelbrotRaster.grayRGB(255 - shade));
+                    }
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Arguments (all optional): file imageSize tileSize previewFile
+     */
+    public static void main(String[] args) throws IOException, InterruptedException  {
+        Path path = Paths.get(args.length > 0 ? args[0] : "mandelbrot.iter");
+        int imageSize = args.length > 1 ? Integer.parseInt(args[1]) : 16384;
+        int tileSize = args.length > 2 ? Integer.parseInt(args[2]) : TILE_SIZE;
+        Path previewPath = Paths.get(args.length > 3 ? args[3] : "mandelbrot-preview.png");
+
+        Viewport view = Viewport.defaultView(imageSize);
+        try (MappedIterationFile file = MappedIterationFile.open(path, view, tileSize))
+        {
+            int total = file.tilesX * file.tilesY;
+            System.out.println(file.doneCount() + " of " + total + " tiles already done in " + path);
+            long start = System.currentTimeMillis();
+            int rendered = new OutOfCoreMandelbrot(file, Runtime.getRuntime().availableProcessors()).run();
+            long end = System.currentTimeMillis();
+            System.out.println("rendered " + rendered + " tiles in " + (end - start) + " ms");
+            ImageIO.write(new OutOfCoreMandelbrot(file, 1).preview(1024), "png", previewPath.toFile());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+public class OutOfCoreMandelbrotTest {
+
+    @Test
+    public void testResumesFromFinishedTiles() throws Exception {
+        Path path = Files.createTempFile("mandelbrot", ".iter");
+        Files.delete(path);
+        Viewport view = Viewport.defaultView(300);
+
+        // a render that "crashed" after three tiles
+        try (MappedIterationFile file = MappedIterationFile.open(path, view, 64)) {
+            OutOfCoreMandelbrot partial = new OutOfCoreMandelbrot(file, 2);
+            partial.renderTile(0, 0);
+            partial.renderTile(4, 1);
+            partial.renderTile(4, 4);
+        }
+
+        try (MappedIterationFile file = MappedIterationFile.open(path, view, 64)) {
+            assertEquals(3, file.doneCount());
+            int total = file.tilesX * file.tilesY;
+            assertEquals(total - 3, new OutOfCoreMandelbrot(file, 2).run());
+            assertEquals(total, file.doneCount());
+            for (int j = 0; j < view.height; j += 7) {
+                for (int i = 0; i < view.width; i += 5) {
+                    assertEquals(MandelbrotKernel.mandelbrot(view.x(i), view.y(j), view.iterationMax),
+                            file.iterationsAt(i, j));
+                }
+            }
+            assertEquals(150, new OutOfCoreMandelbrot(file, 1).preview(150).getWidth());
+        }
+        Files.delete(path);
+    }
+
+    @Test
+    public void testRefusesDifferentRender() throws Exception {
+        Path path = Files.createTempFile("mandelbrot", ".iter");
+        Files.delete(path);
+        try (MappedIterationFile file = MappedIterationFile.open(path, Viewport.defaultView(100), 32)) {
+            new OutOfCoreMandelbrot(file, 1).run();
+        }
+        try {
+            MappedIterationFile.open(path, Viewport.defaultView(120), 32).close();
+            fail("opened a file holding a different render");
+        } catch (IOException expected) {
+            // the file is left alone
+        }
+        Files.delete(path);
+    }
+}
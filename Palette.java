@@ -0,0 +1,86 @@
+package concurrency;
+
+/**
+ * A precomputed lookup table of packed RGB colours, indexed by iteration count (wrapping round for counts past the
+ * end), plus the colour for points that never escape. Colouring a pixel is then an array lookup, or two and a blend
+ * for smooth colouring, instead of building a Color per pixel.
+ */
+public final class Palette
+{
+    private final int[] colours;
+    public final int insideRGB;
+
+    private Palette(int[] colours, int insideRGB)
+    {
+        if (colours.length == 0)
+            throw new IllegalArgumentException("a palette needs at least one colour");
+        this.colours = colours;
+        this.insideRGB = insideRGB;
+    }
+
+    /**
+     * The gray levels the renderers have always used: iterationMax - count, so with 255 iterations escaping fast is
+     * white and the set itself is black
+     */
+    public static Palette gray(int iterationMax)
+    {
+        int[] colours = new int[iterationMax + 1];
+        for (int count = 0; count <= iterationMax; count++)
+            colours[count] = MandelbrotRaster.grayRGB(Math.max(0, Math.min(255, iterationMax - count)));
+        return new Palette(colours, MandelbrotRaster.grayRGB(0));
+    }
+
+    /**
+     * size colours blended evenly through stops and back round to the first, so the palette can repeat without a seam
+     */
+    public static Palette gradient(int size, int insideRGB, int... stops)
+    {
+        if (stops.length == 0)
+            throw new IllegalArgumentException("a gradient needs at least one stop");
+        int[] colours = new int[size];
+        for (int k = 0; k < size; k++)
+        {
+            double position = (double) k * stops.length / size;
+            int stop = (int) position;
+            colours[k] = blend(stops[stop], stops[(stop + 1) % stops.length], (float) (position - stop));
+        }
+        return new Palette(colours, insideRGB);
+    }
+
+    // the usual blue, white and orange bands, 256 colours to a cycle
+    public static Palette classic()
+    {
+        return gradient(256, 0x000000, 0x000764, 0x206bcb, 0xedffff, 0xffaa00, 0x000200);
+    }
+
+    public int size()
+    {
+        return colours.length;
+    }
+
+    public int colour(int index)
+    {
+        return colours[index % colours.length];
+    }
+
+    /**
+     * Colour for a fractional index, blended between the two neighbouring entries
+     */
+    public int colour(double index)
+    {
+        int whole = (int) index;
+        return blend(colour(whole), colour(whole + 1), (float) (index - whole));
+    }
+
+    // linear blend of each channel, t = 0 gives a and t = 1 gives b
+    static int blend(int a, int b, float t)
+    {
+        int red = (a >> 16) & 0xff;
+        int green = (a >> 8) & 0xff;
+        int blue = a & 0xff;
+        red += (int) ((((b >> 16) & 0xff) - red) * t);
+        green += (int) ((((b >> 8) & 0xff) - green) * t);
+        blue += (int) (((b & 0xff) - blue) * t);
+        return red << 16 | green << 8 | blue;
+    }
+}
@@ -0,0 +1,376 @@
+package concurrency;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an RGB PNG strip by strip, compressing the strips in parallel. Each strip of rows is filtered and deflated
+ * on its own, on the pool, into a run of deflate blocks that ends on a byte boundary (a sync flush; the last strip
+ * finishes the stream instead), so the strips can simply be laid end to end inside one zlib stream. The zlib
+ * checksum is the strips' Adler-32s combined in order. Strips are written to the FileChannel as IDAT chunks as soon
+ * as they and everything before them are compressed, so only the strips waiting for an earlier one are held in
+ * memory, and nothing needs the whole image at once.
+ *
+ * The first row of a strip is filtered with Sub, the others with Paeth, so a strip never looks at the rows of
+ * another. Strips don't share a dictionary either, which costs a little compression at each strip boundary.
+ */
+public final class ParallelPngWriter implements AutoCloseable
+{
+    public static int LEVEL = 6;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int BYTES_PER_PIXEL = 3;
+
+    public final int width;
+    public final int height;
+    public final int stripHeight;
+
+    private final FileChannel channel;
+    private final ExecutorService threads;
+    private final int stripCount;
+
+    // compressed strips waiting for their turn, and their checksums and lengths; guarded by this
+    private final byte[][] compressed;
+    private final long[] adlers;
+    private final long[] rawLengths;
+    private int nextToWrite;
+    private long adler = 1;
+    private IOException failure;
+
+    public ParallelPngWriter(Path file, int width, int height, int stripHeight, ExecutorService threads)
+            throws IOException
+    {
+        if (width <= 0 || height <= 0 || stripHeight <= 0)
+            throw new IllegalArgumentException("sizes must be positive: " + width + "x" + height + ", strips of "
+                                               + stripHeight);
+        this.width = width;  this.height = height;  this.stripHeight = stripHeight;  this.threads = threads;
+        stripCount = (height + stripHeight - 1) / stripHeight;
+        compressed = new byte[stripCount][];
+        adlers = new long[stripCount];
+        rawLengths = new long[stripCount];
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        channel.write(ByteBuffer.wrap(SIGNATURE));
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width).putInt(height);
+        // 8 bits per channel, truecolour, deflate, adaptive filtering, not interlaced
+        header.put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0);
+        writeChunk("IHDR", header.array(), 0, 13);
+    }
+
+    public int stripCount()
+    {
+        return stripCount;
+    }
+
+    // rows in strip, the last one can be short
+    public int rows(int strip)
+    {
+        return Math.min(stripHeight, height - strip * stripHeight);
+    }
+
+    /**
+     * Compress strip on the pool and write it once the strips before it are written. Its pixels are packed RGB,
+     * row-major, starting at offset in pixels; they're read while the returned future is incomplete and not after.
+     */
+    public CompletableFuture<Void> writeStrip(int strip, int[] pixels, int offset)
+    {
+        if (strip < 0 || strip >= stripCount)
+            throw new IllegalArgumentException("no strip " + strip + " in " + stripCount);
+        return CompletableFuture.runAsync(() -> compressStrip(strip, pixels, offset), threads)
+                                .thenRun(this::writeReady);
+    }
+
+    private void compressStrip(int strip, int[] pixels, int offset)
+    {
+        int rows = rows(strip);
+        int rowBytes = 1 + width * BYTES_PER_PIXEL;
+        byte[] raw = new byte[rows * rowBytes];
+        byte[] previous = new byte[width * BYTES_PER_PIXEL];
+        byte[] current = new byte[width * BYTES_PER_PIXEL];
+        for (int row = 0; row < rows; row++)
+        {
+            int source = offset + row * width;
+            for (int i = 0; i < width; i++)
+            {
+                int rgb = pixels[source + i];
+                current[3 * i] = (byte) (rgb >> 16);
+                current[3 * i + 1] = (byte) (rgb >> 8);
+                current[3 * i + 2] = (byte) rgb;
+            }
+            filter(current, row == 0 ? null : previous, raw, row * rowBytes);
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        Adler32 checksum = new Adler32();
+        checksum.update(raw);
+        Deflater deflater = new Deflater(LEVEL, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+        byte[] buffer = new byte[1 << 16];
+        try
+        {
+            deflater.setInput(raw);
+            if (strip == stripCount - 1)
+            {
+                deflater.finish();
+                while (!deflater.finished())
+                    out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            else
+            {
+                // a full buffer means there may be more to come
+                int length;
+                do
+                {
+                    length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, length);
+                }
+                while (length == buffer.length);
+            }
+        }
+        finally
+        {
+            deflater.end();
+        }
+        synchronized (this)
+        {
+            compressed[strip] = out.toByteArray();
+            adlers[strip] = checksum.getValue();
+            rawLengths[strip] = raw.length;
+        }
+    }
+
+    // filter type byte then the filtered row at out[at]: Sub for a strip's first row, Paeth after that
+    private static void filter(byte[] row, byte[] above, byte[] out, int at)
+    {
+        out[at] = (byte) (above == null ? 1 : 4);
+        for (int k = 0; k < row.length; k++)
+        {
+            int left = k >= BYTES_PER_PIXEL ? row[k - BYTES_PER_PIXEL] & 0xff : 0;
+            int predicted;
+            if (above == null)
+                predicted = left;
+            else
+            {
+                int up = above[k] & 0xff;
+                int upLeft = k >= BYTES_PER_PIXEL ? above[k - BYTES_PER_PIXEL] & 0xff : 0;
+                int p = left + up - upLeft;
+                int pa = Math.abs(p - left);
+                int pb = Math.abs(p - up);
+                int pc = Math.abs(p - upLeft);
+                predicted = pa <= pb && pa <= pc ? left : pb <= pc ? up : upLeft;
+            }
+            out[at + 1 + k] = (byte) (row[k] - predicted);
+        }
+    }
+
+    // write out every strip that's next in line; whoever finishes a strip does this, one at a time
+    private synchronized void writeReady()
+    {
+        try
+        {
+            while (nextToWrite < stripCount && compressed[nextToWrite] != null)
+            {
+                int strip = nextToWrite;
+                byte[] data = compressed[strip];
+                compressed[strip] = null;
+                if (strip == 0)
+                {
+                    // zlib header: deflate with a 32K window, default compression, no dictionary
+                    byte[] withHeader = new byte[data.length + 2];
+                    withHeader[0] = 0x78;
+                    withHeader[1] = (byte) 0x9c;
+                    System.arraycopy(data, 0, withHeader, 2, data.length);
+                    data = withHeader;
+                    adler = adlers[0];
+                }
+                else
+                    adler = combineAdler32(adler, adlers[strip], rawLengths[strip]);
+                if (strip == stripCount - 1)
+                {
+                    byte[] withTrailer = new byte[data.length + 4];
+                    System.arraycopy(data, 0, withTrailer, 0, data.length);
+                    ByteBuffer.wrap(withTrailer, data.length, 4).putInt((int) adler);
+                    data = withTrailer;
+                }
+                writeChunk("IDAT", data, 0, data.length);
+                nextToWrite++;
+            }
+        }
+        catch (IOException e)
+        {
+            if (failure == null)
+                failure = e;
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int offset, int length) throws IOException
+    {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        ByteBuffer head = ByteBuffer.allocate(8).putInt(length).put(typeBytes);
+        head.flip();
+        ByteBuffer tail = ByteBuffer.allocate(4).putInt((int) crc.getValue());
+        tail.flip();
+        ByteBuffer[] buffers = {head, ByteBuffer.wrap(data, offset, length), tail};
+        while (tail.hasRemaining())
+            channel.write(buffers);
+    }
+
+    /**
+     * Adler-32 of two pieces of data laid end to end, from their own Adler-32s and the length of the second
+     * (zlib's adler32_combine)
+     */
+    static long combineAdler32(long first, long second, long secondLength)
+    {
+        final long base = 65521;
+        long remainder = secondLength % base;
+        long sum1 = first & 0xffff;
+        long sum2 = remainder * sum1 % base;
+        sum1 += (second & 0xffff) + base - 1;
+        sum2 += ((first >>> 16) & 0xffff) + ((second >>> 16) & 0xffff) + base - remainder;
+        if (sum1 >= base)
+            sum1 -= base;
+        if (sum1 >= base)
+            sum1 -= base;
+        if (sum2 >= base << 1)
+            sum2 -= base << 1;
+        if (sum2 >= base)
+            sum2 -= base;
+        return sum1 | sum2 << 16;
+    }
+
+    /**
+     * Finish the file; every strip must have been handed over and written. Throws if one wasn't or writing failed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            synchronized (this)
+            {
+                if (failure != null)
+                    throw failure;
+                if (nextToWrite < stripCount)
+                    throw new IOException("only " + nextToWrite + " of " + stripCount + " strips were written");
+                writeChunk("IEND", new byte[0], 0, 0);
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Write pixels (packed RGB, row-major) as a PNG using the pool, waiting until it's done
+     */
+    public static void write(Path file, int[] pixels, int width, int height, int stripHeight,
+                             ExecutorService threads) throws IOException
+    {
+        try (ParallelPngWriter writer = new ParallelPngWriter(file, width, height, stripHeight, threads))
+        {
+            CompletableFuture<?>[] strips = new CompletableFuture<?>[writer.stripCount()];
+            for (int strip = 0; strip < strips.length; strip++)
+                strips[strip] = writer.writeStrip(strip, pixels, strip * stripHeight * width);
+            CompletableFuture.allOf(strips).join();
+        }
+    }
+
+    /**
+     * Arguments (all optional): imageSize stripHeight threads. Renders a strip at a time straight into the writer,
+     * with no more than two strips per thread in memory, then for comparison renders the whole image and saves it
+     * with ImageIO.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException  {
+        System.setProperty("java.awt.headless", "true");
+        int imageSize = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int stripHeight = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int threadCount = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        Viewport view = Viewport.centred(-0.5, 0, 3, imageSize, 1000);
+        Palette palette = Palette.classic();
+        ExecutorService threads = ThreadedMandelbrot.newWorkerPool(threadCount);
+        try
+        {
+            long start = System.currentTimeMillis();
+            Semaphore stripsInMemory = new Semaphore(2 * threadCount);
+            try (ParallelPngWriter writer = new ParallelPngWriter(Paths.get("streamed.png"), view.width, view.height,
+                                                                  stripHeight, threads))
+            {
+                CompletableFuture<?>[] strips = new CompletableFuture<?>[writer.stripCount()];
+                for (int strip = 0; strip < strips.length; strip++)
+                {
+                    stripsInMemory.acquire();
+                    int s = strip;
+                    int[] pixels = new int[writer.rows(s) * view.width];
+                    strips[s] = CompletableFuture.runAsync(() -> renderRows(view, palette, s * stripHeight, pixels),
+                                                           threads)
+                                                 .thenCompose(rendered -> writer.writeStrip(s, pixels, 0))
+                                                 .whenComplete((done, failure) -> stripsInMemory.release());
+                }
+                CompletableFuture.allOf(strips).join();
+            }
+            long streamed = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            BufferedImage image = new BufferedImage(view.width, view.height, BufferedImage.TYPE_INT_RGB);
+            int[] pixels = new int[view.pixelCount()];
+            CompletableFuture<?>[] strips = new CompletableFuture<?>[(view.height + stripHeight - 1) / stripHeight];
+            for (int strip = 0; strip < strips.length; strip++)
+            {
+                int y = strip * stripHeight;
+                int[] rows = new int[Math.min(stripHeight, view.height - y) * view.width];
+                strips[strip] = CompletableFuture.runAsync(() -> {
+                    renderRows(view, palette, y, rows);
+                    System.arraycopy(rows, 0, pixels, y * view.width, rows.length);
+                }, threads);
+            }
+            CompletableFuture.allOf(strips).join();
+            long rendered = System.currentTimeMillis() - start;
+            image.setRGB(0, 0, view.width, view.height, pixels, 0, view.width);
+            ImageIO.write(image, "png", Paths.get("imageio.png").toFile());
+            long whole = System.currentTimeMillis() - start;
+            System.out.printf("%dx%d: streamed render and encode %d ms; render %d ms then ImageIO %d ms, %d ms in all%n",
+                              view.width, view.height, streamed, rendered, whole - rendered, whole);
+        }
+        finally
+        {
+            threads.shutdown();
+        }
+    }
+
+    private static void renderRows(Viewport view, Palette palette, int yStart, int[] pixels)
+    {
+        int rows = pixels.length / view.width;
+        for (int j = 0; j < rows; j++)
+        {
+            double y0 = view.y(yStart + j);
+            for (int i = 0; i < view.width; i++)
+            {
+                int count = MandelbrotKernel.mandelbrot(view.x(i), y0, view.iterationMax);
+                pixels[j * view.width + i] = count >= view.iterationMax ? palette.insideRGB : palette.colour(count);
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package concurrency;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class ParallelPngWriterTest {
+
+    private static int[] decode(Path file, int width, int height) throws IOException {
+        BufferedImage image = ImageIO.read(file.toFile());
+        assertNotNull(image);
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        for (int k = 0; k < pixels.length; k++)
+            pixels[k] &= 0xffffff;
+        return pixels;
+    }
+
+    @Test
+    public void testDecodesToTheSamePixels() throws Exception {
+        Viewport view = Viewport.centred(-0.5, 0, 3, 301, 200);
+        MandelbrotRaster raster = new MandelbrotRaster(view);
+        Palette palette = Palette.classic();
+        for (int j = 0; j < view.height; j++)
+            for (int i = 0; i < view.width; i++) {
+                int count = MandelbrotKernel.mandelbrot(view.x(i), view.y(j), view.iterationMax);
+                raster.pixels[j * view.width + i] = count >= view.iterationMax ? palette.insideRGB
+                                                                               : palette.colour(count);
+            }
+        ExecutorService threads = ThreadedMandelbrot.newWorkerPool(4);
+        Path file = Files.createTempFile("parallel", ".png");
+        try {
+            // a short last strip, one row strips and a single strip
+            for (int stripHeight : new int[]{32, 1, 500}) {
+                ParallelPngWriter.write(file, raster.pixels, view.width, view.height, stripHeight, threads);
+                assertArrayEquals("strips of " + stripHeight, raster.pixels,
+                                  decode(file, view.width, view.height));
+            }
+        } finally {
+            threads.shutdown();
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testStripsInAnyOrder() throws Exception {
+        int width = 37, height = 50;
+        Random random = new Random(7);
+        int[] pixels = new int[width * height];
+        for (int k = 0; k < pixels.length; k++)
+            pixels[k] = random.nextInt(1 << 24);
+        ExecutorService threads = ThreadedMandelbrot.newWorkerPool(3);
+        Path file = Files.createTempFile("parallel", ".png");
+        try {
+            try (ParallelPngWriter writer = new ParallelPngWriter(file, width, height, 8, threads)) {
+                CompletableFuture<?>[] strips = new CompletableFuture<?>[writer.stripCount()];
+                for (int strip = strips.length - 1; strip >= 0; strip--) {
+                    // each strip in its own buffer, as a streaming renderer would hand them over
+                    int[] rows = new int[writer.rows(strip) * width];
+                    System.arraycopy(pixels, strip * 8 * width, rows, 0, rows.length);
+                    strips[strip] = writer.writeStrip(strip, rows, 0);
+                }
+                CompletableFuture.allOf(strips).join();
+            }
+            assertArrayEquals(pixels, decode(file, width, height));
+        } finally {
+            threads.shutdown();
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testMissingStripFailsClose() throws Exception {
+        ExecutorService threads = ThreadedMandelbrot.newWorkerPool(1);
+        Path file = Files.createTempFile("parallel", ".png");
+        try {
+            ParallelPngWriter writer = new ParallelPngWriter(file, 4, 4, 2, threads);
+            writer.writeStrip(1, new int[8], 0).join();
+            try {
+                writer.close();
+                fail("closed with a strip missing");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("0 of 2"));
+            }
+        } finally {
+            threads.shutdown();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testCombineAdler32() {
+        byte[] data = new byte[100_000];
+        new Random(3).nextBytes(data);
+        Adler32 whole = new Adler32();
+        whole.update(data);
+        for (int split : new int[]{0, 1, 65521, 70_000, data.length}) {
+            Adler32 first = new Adler32();
+            first.update(data, 0, split);
+            Adler32 second = new Adler32();
+            second.update(data, split, data.length - split);
+            assertEquals("split at " + split, whole.getValue(),
+                         ParallelPngWriter.combineAdler32(first.getValue(), second.getValue(), data.length - split));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package concurrency;
+
+import java.math.BigDecimal;
+
+/**
+ * The escape-time loop in three precisions, and the rule for picking the cheapest one that can still resolve a view.
+ *
+ *  FLOAT          24 bit mantissa; enough for the overview-level views, but as a scalar loop it's barely faster
+ *                 than DOUBLE, so select() only picks it when SELECT_FLOAT is set
+ *  DOUBLE         MandelbrotKernel itself
+ *  DOUBLE_DOUBLE  each number is an unevaluated sum hi + lo of two doubles, about 106 bits, with the products made
+ *                 exact by Math.fma; good to pixel sizes around 1e-29 at the cost of about four times the work
+ *
+ * A precision can resolve a view when the pixel spacing is at least GUARD units in the last place of the largest
+ * coordinate in the view, so neighbouring pixels get distinct values of c with room left for the rounding the
+ * iterations add up. Past what DOUBLE_DOUBLE can resolve, DeepZoomMandelbrot's perturbation is the way to go.
+ * All three loops keep MandelbrotKernel's cardioid test, cycle detection and order of operations, so where the
+ * precision is enough they give the same counts apart from orbits that pass within rounding of the escape radius.
+ */
+public final class PrecisionKernel
+{
+    public enum Precision
+    {
+        FLOAT(24), DOUBLE(53), DOUBLE_DOUBLE(106);
+
+        public final int mantissaBits;
+
+        Precision(int mantissaBits)
+        {
+            this.mantissaBits = mantissaBits;
+        }
+
+        // the next more precise tier, or null for the most precise
+        public Precision higher()
+        {
+            return this == DOUBLE_DOUBLE ? null : values()[ordinal() + 1];
+        }
+    }
+
+    // pixel spacing needed, in units in the last place of the coordinates
+    public static double GUARD = 1 << 10;
+    // float saves under a fifth of the time of the scalar double loop, not worth its rounding until it's vectorised
+    public static boolean SELECT_FLOAT = false;
+    // rounding builds up with every iteration, so FLOAT is only trusted for shortish orbits
+    public static int FLOAT_MAX_ITERATIONS = 1000;
+
+    private PrecisionKernel() {}
+
+    /**
+     * The cheapest precision for pixels scale apart whose coordinates go up to magnitude in absolute value;
+     * throws IllegalArgumentException if even DOUBLE_DOUBLE is too coarse
+     */
+    public static Precision select(double scale, double magnitude, int iterationMax)
+    {
+        double relative = scale / Math.max(magnitude, Double.MIN_NORMAL);
+        for (Precision precision : Precision.values())
+        {
+            if (precision == Precision.FLOAT && (!SELECT_FLOAT || iterationMax > FLOAT_MAX_ITERATIONS))
+                continue;
+            if (relative >= GUARD * Math.scalb(1.0, -precision.mantissaBits))
+                return precision;
+        }
+        throw new IllegalArgumentException("pixels " + scale + " apart at magnitude " + magnitude
+                                           + " are too close even for double-double, use DeepZoomMandelbrot");
+    }
+
+    public static Precision select(Viewport view)
+    {
+        double magnitude = Math.max(Math.max(Math.abs(view.xStart), Math.abs(view.x(view.width))),
+                                    Math.max(Math.abs(view.yStart), Math.abs(view.y(view.height))));
+        return select(view.scale, magnitude, view.iterationMax);
+    }
+
+    /**
+     * MandelbrotKernel.mandelbrot in float
+     */
+    public static int mandelbrotFloat(float x0, float y0, int maxIterations)
+    {
+        if (MandelbrotKernel.inCardioidOrBulb(x0, y0))
+            return maxIterations;
+
+        float zx = x0;
+        float zy = y0;
+        float savedX = zx;
+        float savedY = zy;
+        int steps = 0;
+        int stepLimit = 1;
+        for (int t = 0; t < maxIterations; t++)
+        {
+            float zx2 = zx * zx;
+            float zy2 = zy * zy;
+            if (zx2 + zy2 > 4.0f)
+                return t;
+            zy = 2.0f * zx * zy + y0;
+            zx = zx2 - zy2 + x0;
+
+            if (zx == savedX && zy == savedY)
+                return maxIterations;
+            if (++steps == stepLimit)
+            {
+                savedX = zx;
+                savedY = zy;
+                steps = 0;
+                stepLimit <<= 1;
+            }
+        }
+        return maxIterations;
+    }
+
+    /**
+     * MandelbrotKernel.mandelbrot for c = (xHi + xLo) + i(yHi + yLo) in double-double. The arithmetic is written out
+     * in place (two-sum for additions, fma two-product for multiplications, then renormalised) so that nothing is
+     * allocated in the loop.
+     */
+    public static int mandelbrotDoubleDouble(double xHi, double xLo, double yHi, double yLo, int maxIterations)
+    {
+        if (MandelbrotKernel.inCardioidOrBulb(xHi, yHi))
+            return maxIterations;
+
+        double zxHi = xHi, zxLo = xLo;
+        double zyHi = yHi, zyLo = yLo;
+        double savedXHi = zxHi, savedXLo = zxLo, savedYHi = zyHi, savedYLo = zyLo;
+        int steps = 0;
+        int stepLimit = 1;
+        for (int t = 0; t < maxIterations; t++)
+        {
+            // zx2 = zx * zx
+            double p = zxHi * zxHi;
+            double e = Math.fma(zxHi, zxHi, -p) + 2 * zxHi * zxLo;
+            double zx2Hi = p + e;
+            double zx2Lo = e - (zx2Hi - p);
+            // zy2 = zy * zy
+            p = zyHi * zyHi;
+            e = Math.fma(zyHi, zyHi, -p) + 2 * zyHi * zyLo;
+            double zy2Hi = p + e;
+            double zy2Lo = e - (zy2Hi - p);
+            // the high parts decide escaping, as precisely as the double kernel does
+            if (zx2Hi + zy2Hi > 4.0)
+                return t;
+
+            // zy = 2 * zx * zy + y0
+            p = zxHi * zyHi;
+            e = Math.fma(zxHi, zyHi, -p) + (zxHi * zyLo + zxLo * zyHi);
+            double xyHi = p + e;
+            double xyLo = e - (xyHi - p);
+            double s = 2 * xyHi + yHi;
+            double v = s - 2 * xyHi;
+            e = (2 * xyHi - (s - v)) + (yHi - v) + (2 * xyLo + yLo);
+            double newYHi = s + e;
+            double newYLo = e - (newYHi - s);
+
+            // zx = zx2 - zy2 + x0
+            s = zx2Hi - zy2Hi;
+            v = s - zx2Hi;
+            e = (zx2Hi - (s - v)) + (-zy2Hi - v) + (zx2Lo - zy2Lo);
+            double dHi = s + e;
+            double dLo = e - (dHi - s);
+            s = dHi + xHi;
+            v = s - dHi;
+            e = (dHi - (s - v)) + (xHi - v) + (dLo + xLo);
+            zxHi = s + e;
+            zxLo = e - (zxHi - s);
+            zyHi = newYHi;
+            zyLo = newYLo;
+
+            if (zxHi == savedXHi && zxLo == savedXLo && zyHi == savedYHi && zyLo == savedYLo)
+                return maxIterations;
+            if (++steps == stepLimit)
+            {
+                savedXHi = zxHi;  savedXLo = zxLo;  savedYHi = zyHi;  savedYLo = zyLo;
+                steps = 0;
+                stepLimit <<= 1;
+            }
+        }
+        return maxIterations;
+    }
+
+    /**
+     * value split into hi + lo, hi being the nearest double and lo the nearest double to what's left
+     */
+    public static double[] split(BigDecimal value)
+    {
+        double hi = value.doubleValue();
+        double lo = value.subtract(new BigDecimal(hi)).doubleValue();
+        return new double[]{hi, lo};
+    }
+}
@@ -0,0 +1,90 @@
+package concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class PrecisionKernelTest {
+
+    // c = i is a Misiurewicz point, with structure at every depth
+    private static final BigDecimal MISIUREWICZ_X = BigDecimal.ZERO;
+    private static final BigDecimal MISIUREWICZ_Y = BigDecimal.ONE;
+
+    @Test
+    public void testSelectsTheCheapestPrecisionThatResolves() {
+        Viewport overview = Viewport.defaultView(800);
+        // float isn't picked on its own, it's no faster than double
+        assertEquals(PrecisionKernel.Precision.DOUBLE, PrecisionKernel.select(overview));
+        assertEquals(PrecisionKernel.Precision.DOUBLE, PrecisionKernel.select(overview.scale, 1.25, 5000));
+        assertEquals(PrecisionKernel.Precision.DOUBLE, PrecisionKernel.select(1e-12, 0.75, 1000));
+        assertEquals(PrecisionKernel.Precision.DOUBLE_DOUBLE, PrecisionKernel.select(1e-15, 0.75, 1000));
+        assertEquals(PrecisionKernel.Precision.DOUBLE_DOUBLE, PrecisionKernel.select(1e-28, 0.75, 1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooDeepForDoubleDouble() {
+        PrecisionKernel.select(1e-35, 0.75, 1000);
+    }
+
+    @Test
+    public void testEveryPrecisionAgreesOnAShallowView() {
+        Viewport view = Viewport.defaultView(100);
+        int floatMismatches = 0;
+        for (int j = 0; j < view.height; j++) {
+            for (int i = 0; i < view.width; i++) {
+                double x = view.x(i);
+                double y = view.y(j);
+                int expected = MandelbrotKernel.mandelbrot(x, y, view.iterationMax);
+                assertEquals(expected, PrecisionKernel.mandelbrotDoubleDouble(x, 0, y, 0, view.iterationMax));
+                if (PrecisionKernel.mandelbrotFloat((float) x, (float) y, view.iterationMax) != expected)
+                    floatMismatches++;
+            }
+        }
+        // float rounding only shows on orbits that graze the escape radius
+        assertTrue("float differs on " + floatMismatches + " pixels", floatMismatches < view.pixelCount() / 100);
+    }
+
+    @Test
+    public void testDoubleDoubleResolvesWhatDoubleCannot() {
+        BigDecimal size = new BigDecimal("1e-18");
+        int distinctDouble;
+        int distinctDoubleDouble;
+        try (PrecisionMandelbrot coarse = new PrecisionMandelbrot(MISIUREWICZ_X, MISIUREWICZ_Y, size, 32, 1000,
+                Palette.classic(), 2, PrecisionKernel.Precision.DOUBLE);
+             PrecisionMandelbrot fine = new PrecisionMandelbrot(MISIUREWICZ_X, MISIUREWICZ_Y, size, 32, 1000,
+                Palette.classic(), 2)) {
+            assertEquals(PrecisionKernel.Precision.DOUBLE_DOUBLE, fine.precision);
+            coarse.render();
+            fine.render();
+            distinctDouble = distinctCounts(coarse);
+            distinctDoubleDouble = distinctCounts(fine);
+        }
+        // at 1e-18 a whole row of pixels rounds to a handful of doubles
+        assertTrue(distinctDouble + " vs " + distinctDoubleDouble, distinctDoubleDouble > 4 * distinctDouble);
+    }
+
+    private static int distinctCounts(PrecisionMandelbrot mandelbrot) {
+        Set<Integer> counts = new HashSet<>();
+        for (int index = 0; index < mandelbrot.raster.view.pixelCount(); index++)
+            counts.add(mandelbrot.counts.get(index));
+        return counts.size();
+    }
+
+    @Test
+    public void testVerifyComparesWithTheNextPrecision() {
+        try (PrecisionMandelbrot mandelbrot = new PrecisionMandelbrot(new BigDecimal("0"), new BigDecimal("0.75"),
+                BigDecimal.ONE, 200, 255, Palette.classic(), 2, PrecisionKernel.Precision.FLOAT)) {
+            assertEquals(PrecisionKernel.Precision.FLOAT, mandelbrot.precision);
+            mandelbrot.render();
+            PrecisionMandelbrot.Verification verification = mandelbrot.verify(2000, 1);
+            assertEquals(PrecisionKernel.Precision.DOUBLE, verification.against);
+            assertEquals(2000, verification.samples);
+            assertTrue(verification.toString(), verification.mismatchRate() < 0.01);
+        }
+    }
+}
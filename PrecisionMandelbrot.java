@@ -0,0 +1,213 @@
+package concurrency;
+
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Renders a view with the cheapest PrecisionKernel tier that can resolve it: double down to pixel sizes around 1e-13
+ * of the coordinates, double-double below that to about 1e-29, and float only when asked for. The centre
+ * is taken as BigDecimal, like DeepZoomMandelbrot's, so the corner of a deep view isn't rounded to a double before
+ * the kernel sees it. verify() spot-checks random pixels against the next tier up.
+ */
+public class PrecisionMandelbrot implements AutoCloseable
+{
+    // rows per job
+    public static int BAND_HEIGHT = 16;
+
+    public final PrecisionKernel.Precision precision;
+    // for float and double this is exactly the view rendered; for double-double its corner is only the high part
+    public final MandelbrotRaster raster;
+    public final IterationBuffer counts;
+    public final Palette palette;
+    public JFrame frame;
+    public BufferedImage image;
+
+    // the corner, as hi + lo
+    private final double xStartHi, xStartLo, yStartHi, yStartLo;
+    private final ExecutorService threads;
+
+    public PrecisionMandelbrot(BigDecimal xCentre, BigDecimal yCentre, BigDecimal size, int imageSize,
+                               int iterationMax, Palette palette, int threadCount)
+    {
+        this(xCentre, yCentre, size, imageSize, iterationMax, palette, threadCount, null);
+    }
+
+    /**
+     * Render in the given precision rather than the one select() picks (null to let it pick)
+     */
+    public PrecisionMandelbrot(BigDecimal xCentre, BigDecimal yCentre, BigDecimal size, int imageSize,
+                               int iterationMax, Palette palette, int threadCount, PrecisionKernel.Precision precision)
+    {
+        BigDecimal half = size.divide(BigDecimal.valueOf(2), MathContext.DECIMAL128);
+        double[] x = PrecisionKernel.split(xCentre.subtract(half));
+        double[] y = PrecisionKernel.split(yCentre.subtract(half));
+        xStartHi = x[0];  xStartLo = x[1];  yStartHi = y[0];  yStartLo = y[1];
+        Viewport view = new Viewport(xStartHi, yStartHi, size.doubleValue() / imageSize, imageSize, imageSize,
+                                     iterationMax);
+        this.precision = precision != null ? precision : PrecisionKernel.select(view);
+        this.palette = palette;
+        raster = new MandelbrotRaster(view);
+        counts = new IterationBuffer(view);
+        image = raster.image;
+        threads = ThreadedMandelbrot.newWorkerPool(threadCount);
+        frame = raster.display("Mandelbrot (" + this.precision + ")");
+    }
+
+    public void render()
+    {
+        Viewport view = raster.view;
+        List<Runnable> jobs = new ArrayList<>();
+        for (int y = 0; y < view.height; y += BAND_HEIGHT)
+        {
+            int yStart = y;
+            int yEnd = Math.min(view.height, y + BAND_HEIGHT);
+            jobs.add(() -> plotRows(yStart, yEnd));
+        }
+        RenderSchedulers.runAll(threads, jobs);
+        if (frame != null)
+            frame.repaint();
+    }
+
+    private void plotRows(int yStart, int yEnd)
+    {
+        Viewport view = raster.view;
+        for (int j = yStart; j < yEnd; j++)
+        {
+            for (int i = 0; i < view.width; i++)
+            {
+                int count = count(i, j, precision);
+                int index = counts.index(i, j);
+                counts.set(index, count);
+                raster.pixels[index] = count >= view.iterationMax ? palette.insideRGB : palette.colour(count);
+            }
+        }
+    }
+
+    /**
+     * The count for pixel (i, j) in any precision
+     */
+    public int count(int i, int j, PrecisionKernel.Precision precision)
+    {
+        Viewport view = raster.view;
+        switch (precision)
+        {
+            case FLOAT:
+                return PrecisionKernel.mandelbrotFloat((float) view.x(i), (float) view.y(j), view.iterationMax);
+            case DOUBLE:
+                return MandelbrotKernel.mandelbrot(view.x(i), view.y(j), view.iterationMax);
+            default:
+                // corner + scale * i, with the sum done exactly
+                double dx = view.scale * i;
+                double sx = xStartHi + dx;
+                double vx = sx - xStartHi;
+                double ex = (xStartHi - (sx - vx)) + (dx - vx) + xStartLo;
+                double dy = view.scale * j;
+                double sy = yStartHi + dy;
+                double vy = sy - yStartHi;
+                double ey = (yStartHi - (sy - vy)) + (dy - vy) + yStartLo;
+                double xHi = sx + ex;
+                double yHi = sy + ey;
+                return PrecisionKernel.mandelbrotDoubleDouble(xHi, ex - (xHi - sx), yHi, ey - (yHi - sy),
+                                                              view.iterationMax);
+        }
+    }
+
+    /**
+     * Recompute samples random pixels of the last render in the next precision up and compare. There's nothing to
+     * check DOUBLE_DOUBLE against, so that gives a Verification of no samples.
+     */
+    public Verification verify(int samples, long seed)
+    {
+        PrecisionKernel.Precision higher = precision.higher();
+        if (higher == null)
+            return new Verification(precision, null, 0, 0, 0);
+        Viewport view = raster.view;
+        Random random = new Random(seed);
+        int mismatches = 0;
+        int worst = 0;
+        for (int s = 0; s < samples; s++)
+        {
+            int i = random.nextInt(view.width);
+            int j = random.nextInt(view.height);
+            int difference = Math.abs(counts.get(counts.index(i, j)) - count(i, j, higher));
+            if (difference != 0)
+                mismatches++;
+            worst = Math.max(worst, difference);
+        }
+        return new Verification(precision, higher, samples, mismatches, worst);
+    }
+
+    public static class Verification
+    {
+        public final PrecisionKernel.Precision precision;
+        public final PrecisionKernel.Precision against;
+        public final int samples;
+        public final int mismatches;
+        // largest difference in iteration count
+        public final int worstDifference;
+
+        Verification(PrecisionKernel.Precision precision, PrecisionKernel.Precision against, int samples,
+                     int mismatches, int worstDifference)
+        {
+            this.precision = precision;  this.against = against;  this.samples = samples;
+            this.mismatches = mismatches;  this.worstDifference = worstDifference;
+        }
+
+        public double mismatchRate()
+        {
+            return samples == 0 ? 0 : (double) mismatches / samples;
+        }
+
+        @Override
+        public String toString()
+        {
+            if (against == null)
+                return precision + ": nothing higher to check against";
+            return String.format("%s against %s: %d of %d samples differ (%.2f%%), by up to %d iterations",
+                                 precision, against, mismatches, samples, 100 * mismatchRate(), worstDifference);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        threads.shutdown();
+    }
+
+    /**
+     * Arguments (all optional): xCentre yCentre size imageSize iterationMax precision verifySamples, where precision
+     * is auto, float, double or double_double. Renders in that precision (or the one picked for the view), then
+     * checks verifySamples pixels against the next precision up.
+     */
+    public static void main(String[] args)  {
+        // c = i, as in DeepZoomMandelbrot, well past where doubles give out
+        BigDecimal xCentre = new BigDecimal(args.length > 0 ? args[0] : "0");
+        BigDecimal yCentre = new BigDecimal(args.length > 1 ? args[1] : "1");
+        BigDecimal size = new BigDecimal(args.length > 2 ? args[2] : "1e-20");
+        int imageSize = args.length > 3 ? Integer.parseInt(args[3]) : 800;
+        int iterationMax = args.length > 4 ? Integer.parseInt(args[4]) : 2000;
+        String choice = args.length > 5 ? args[5] : "auto";
+        int samples = args.length > 6 ? Integer.parseInt(args[6]) : 2000;
+        PrecisionKernel.Precision precision = choice.equals("auto") ? null
+                : PrecisionKernel.Precision.valueOf(choice.toUpperCase(Locale.ROOT));
+
+        try (PrecisionMandelbrot mandelbrot = new PrecisionMandelbrot(xCentre, yCentre, size, imageSize, iterationMax,
+                Palette.classic(), Runtime.getRuntime().availableProcessors(), precision))
+        {
+            System.out.println("view " + mandelbrot.raster.view + " in " + mandelbrot.precision + ", picked "
+                               + PrecisionKernel.select(mandelbrot.raster.view));
+            long start = System.currentTimeMillis();
+            mandelbrot.render();
+            long end = System.currentTimeMillis();
+            System.out.println(end - start + " ms");
+            System.out.println(mandelbrot.verify(samples, 1));
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package concurrency;
+
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders in passes of decreasing step: the first pass computes every INITIAL_STEP-th pixel and draws each one as
+ * a step by step block, so there's a rough picture almost at once; every following pass halves the step and only
+ * computes the pixels the earlier passes didn't, until the last pass (step 1) has filled in the full resolution.
+ * Bands of rows are rendered in parallel and repaints go through a RepaintThrottle instead of one per pixel.
+ */
+public class ProgressiveMandelbrot
+{
+    // Determine the position and zoom level of the image of the Mandelbrot set
+    private static final double X_CENTRE   = 0;
+    private static final double Y_CENTRE   = 0.75;
+
+    // this effectively sets the zoom level of the whole image
+    private static final double MANDELBROT_SIZE = 1;
+
+    public static final double X_START = X_CENTRE - MANDELBROT_SIZE/2;
+    public static final double Y_START = Y_CENTRE - MANDELBROT_SIZE/2;
+
+    // maximum number of iterations
+    public static final int ITERATION_MAX = 255;
+
+    // size of the image (the window size)
+    public static final int IMAGE_SIZE   = 1600;
+    public static final double SCALE = MANDELBROT_SIZE/IMAGE_SIZE;
+
+    // the first pass draws one pixel in every INITIAL_STEP x INITIAL_STEP block; must be a power of two
+    public static int INITIAL_STEP = 8;
+    // rows per job within a pass
+    public static int BAND_HEIGHT = 32;
+    public static int FRAMES_PER_SECOND = 60;
+
+    public final MandelbrotRaster raster;
+    public final int threadCount;
+    public JFrame frame;
+    public BufferedImage image;
+
+    private RepaintThrottle throttle;
+
+    // time from the start of run() to the end of each pass
+    private final List<Long> passMillis = new ArrayList<>();
+
+    public ProgressiveMandelbrot()
+    {
+        this(new Viewport(X_START, Y_START, SCALE, IMAGE_SIZE, IMAGE_SIZE, ITERATION_MAX),
+             Runtime.getRuntime().availableProcessors());
+    }
+
+    public ProgressiveMandelbrot(Viewport view, int threadCount)
+    {
+        this.threadCount = threadCount;
+        raster = new MandelbrotRaster(view);
+        image = raster.image;
+        frame = raster.display("Mandelbrot");
+        if (frame != null)
+            throttle = new RepaintThrottle(frame.getContentPane(), FRAMES_PER_SECOND);
+    }
+
+    public void run()
+    {
+        passMillis.clear();
+        long start = System.currentTimeMillis();
+        ExecutorService threads = Executors.newFixedThreadPool(threadCount);
+        if (throttle != null)
+            throttle.start();
+        try
+        {
+            for (int step = INITIAL_STEP; step >= 1; step /= 2)
+            {
+                renderPass(threads, step);
+                passMillis.add(System.currentTimeMillis() - start);
+            }
+        }
+        finally
+        {
+            threads.shutdown();
+            if (throttle != null)
+                throttle.stop();
+        }
+    }
+
+    private void renderPass(ExecutorService threads, int step)
+    {
+        Viewport view = raster.view;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int band = 0; band < view.height; band += BAND_HEIGHT)
+        {
+            int bandStart = band;
+            futures.add(threads.submit(() -> renderBand(step, bandStart, Math.min(bandStart + BAND_HEIGHT, view.height))));
+        }
+        for (Future<?> future : futures)
+        {
+            try
+            {
+                future.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while rendering", e);
+            }
+            catch (ExecutionException e)
+            {
+                throw new IllegalStateException("render job failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Compute the pixels on this pass's grid in rows [yStart, yEnd) and draw each as a step x step block.
+     * Pixels on the previous pass's grid (every 2*step) were already computed and drawn, so they are skipped.
+     */
+    void renderBand(int step, int yStart, int yEnd)
+    {
+        Viewport view = raster.view;
+        int previousStep = 2 * step;
+        boolean firstPass = step == INITIAL_STEP;
+        // first row in the band that lies on this pass's grid
+        int first = (yStart + step - 1) / step * step;
+        for (int j = first; j < yEnd; j += step)
+        {
+            double y0 = view.y(j);
+            boolean onPreviousRow = j % previousStep == 0;
+            // on a row the previous pass covered, only the odd multiples of step are new
+            int iStart = !firstPass && onPreviousRow ? step : 0;
+            int iStep = !firstPass && onPreviousRow ? previousStep : step;
+            for (int i = iStart; i < view.width; i += iStep)
+            {
+                int count = MandelbrotKernel.mandelbrot(view.x(i), y0, view.iterationMax);
+                fillBlock(i, j, step, MandelbrotRaster.grayRGB(view.iterationMax - count));
+            }
+        }
+        if (throttle != null)
+            throttle.markDirty(0, yStart, view.width, yEnd - yStart);
+    }
+
+    private void fillBlock(int i, int j, int step, int rgb)
+    {
+        Viewport view = raster.view;
+        int xEnd = Math.min(i + step, view.width);
+        int yEnd = Math.min(j + step, view.height);
+        for (int y = j; y < yEnd; y++)
+        {
+            int row = y * view.width;
+            for (int x = i; x < xEnd; x++)
+                raster.pixels[row + x] = rgb;
+        }
+    }
+
+    public List<Long> passMillis()
+    {
+        return passMillis;
+    }
+
+    public static void main(String[] args)  {
+        ProgressiveMandelbrot mandelbrot = new ProgressiveMandelbrot();
+        mandelbrot.run();
+        System.out.println("ms after each pass: " + mandelbrot.passMillis());
+    }
+}
@@ -0,0 +1,37 @@
+package concurrency;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ProgressiveMandelbrotTest {
+
+    @Test
+    public void testFinalPassIsFullResolution() {
+        // not a multiple of the initial step, so the last blocks in each pass are clipped
+        Viewport view = Viewport.defaultView(203);
+        MandelbrotRaster expected = new MandelbrotRaster(view);
+        expected.render();
+
+        ProgressiveMandelbrot progressive = new ProgressiveMandelbrot(view, 3);
+        progressive.run();
+        assertArrayEquals(expected.pixels, progressive.raster.pixels);
+        // 8, 4, 2, 1
+        assertEquals(4, progressive.passMillis().size());
+    }
+
+    @Test
+    public void testFirstPassIsCoarse() {
+        Viewport view = Viewport.defaultView(64);
+        ProgressiveMandelbrot progressive = new ProgressiveMandelbrot(view, 1);
+        progressive.renderBand(ProgressiveMandelbrot.INITIAL_STEP, 0, view.height);
+        int step = ProgressiveMandelbrot.INITIAL_STEP;
+        for (int j = 0; j < view.height; j++) {
+            for (int i = 0; i < view.width; i++) {
+                int sample = progressive.raster.pixels[(j / step * step) * view.width + i / step * step];
+                assertEquals(sample, progressive.raster.pixels[j * view.width + i]);
+            }
+        }
+    }
+}
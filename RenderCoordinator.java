@@ -0,0 +1,327 @@
+package concurrency;
+
+import javax.imageio.ImageIO;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Spreads a render over RenderWorker processes, on this machine or others. The view is cut into tiles like
+ * ThreadedMandelbrot's blocks and put on a queue; every worker that connects gets a thread here that keeps up to
+ * TILES_IN_FLIGHT of them outstanding on it, refilling as the counts come back (see TileProtocol), so fast workers
+ * simply end up taking more tiles. If a worker's connection drops or it goes quiet for WORKER_TIMEOUT_MILLIS, the
+ * tiles it still had go back on the front of the queue for the others. A tile is only ever stored once, even if it
+ * was handed out twice. Workers can join at any point during the render.
+ */
+public class RenderCoordinator implements AutoCloseable
+{
+    public static final int DEFAULT_PORT = 7171;
+
+    public static int TILE_SIZE = 64;
+    // tiles outstanding per worker; enough to keep its threads busy while results are on the wire
+    public static int TILES_IN_FLIGHT = 8;
+    public static int WORKER_TIMEOUT_MILLIS = 60_000;
+
+    public final MandelbrotRaster raster;
+    public final IterationBuffer counts;
+
+    private final ServerSocket server;
+    private final List<TileProtocol.Tile> tiles = new ArrayList<>();
+    private final LinkedBlockingDeque<TileProtocol.Tile> pending = new LinkedBlockingDeque<>();
+    // 1 once a tile's counts are in
+    private final AtomicIntegerArray done;
+    private final CountDownLatch remaining;
+    private final Map<String, WorkerStats> workers = new ConcurrentHashMap<>();
+    private final List<Thread> handlers = new ArrayList<>();
+    private final AtomicInteger connections = new AtomicInteger();
+
+    /**
+     * Listen on port (0 picks a free one, see port()); nothing is handed out until render()
+     */
+    public RenderCoordinator(Viewport view, int port) throws IOException
+    {
+        raster = new MandelbrotRaster(view);
+        counts = new IterationBuffer(view);
+        for (int y = 0; y < view.height; y += TILE_SIZE)
+            for (int x = 0; x < view.width; x += TILE_SIZE)
+                tiles.add(new TileProtocol.Tile(tiles.size(), view, x, y, Math.min(TILE_SIZE, view.width - x),
+                                                Math.min(TILE_SIZE, view.height - y)));
+        done = new AtomicIntegerArray(tiles.size());
+        remaining = new CountDownLatch(tiles.size());
+        server = new ServerSocket();
+        server.bind(new InetSocketAddress(port));
+    }
+
+    public int port()
+    {
+        return server.getLocalPort();
+    }
+
+    public int tileCount()
+    {
+        return tiles.size();
+    }
+
+    /**
+     * Hand out every tile and wait until all their counts are in
+     */
+    public void render() throws InterruptedException
+    {
+        pending.addAll(tiles);
+        Thread acceptor = new Thread(this::acceptWorkers, "coordinator-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        remaining.await();
+        close();
+        List<Thread> started;
+        synchronized (handlers)
+        {
+            started = new ArrayList<>(handlers);
+        }
+        // they all notice the render is done within a poll and say BYE
+        for (Thread handler : started)
+            handler.join(WORKER_TIMEOUT_MILLIS);
+    }
+
+    private void acceptWorkers()
+    {
+        try
+        {
+            while (!server.isClosed())
+            {
+                Socket socket = server.accept();
+                int connection = connections.incrementAndGet();
+                Thread handler = new Thread(() -> serve(socket, connection), "coordinator-worker-" + connection);
+                handler.setDaemon(true);
+                synchronized (handlers)
+                {
+                    handlers.add(handler);
+                }
+                handler.start();
+            }
+        }
+        catch (SocketException e)
+        {
+            // closed, the render is over
+        }
+        catch (IOException e)
+        {
+            System.err.println("coordinator stopped accepting workers: " + e);
+        }
+    }
+
+    private void serve(Socket socket, int connection)
+    {
+        Map<Integer, TileProtocol.Tile> inFlight = new HashMap<>();
+        WorkerStats stats = null;
+        boolean finished = false;
+        try (socket)
+        {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(WORKER_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            // numbered, in case two workers call themselves the same
+            String name = TileProtocol.readHello(in) + " #" + connection;
+            stats = new WorkerStats(name);
+            workers.put(name, stats);
+
+            while (remaining.getCount() > 0)
+            {
+                // top the worker up
+                while (inFlight.size() < TILES_IN_FLIGHT)
+                {
+                    TileProtocol.Tile tile = pending.poll();
+                    if (tile == null)
+                        break;
+                    if (done.get(tile.id) != 0)
+                        continue;
+                    TileProtocol.writeTile(out, tile);
+                    inFlight.put(tile.id, tile);
+                    stats.started();
+                }
+                out.flush();
+                if (inFlight.isEmpty())
+                {
+                    // nothing for us right now, but a lost worker's tiles may come back on the queue
+                    TileProtocol.Tile tile = pending.poll(50, TimeUnit.MILLISECONDS);
+                    if (tile != null)
+                        pending.addFirst(tile);
+                    continue;
+                }
+
+                byte type = in.readByte();
+                if (type != TileProtocol.RESULT)
+                    throw new IOException("unexpected message " + type);
+                TileProtocol.Tile tile = inFlight.remove(in.readInt());
+                if (tile == null)
+                    throw new IOException("result for a tile that wasn't sent to this worker");
+                int[] tileCounts = TileProtocol.readCounts(in, tile);
+                store(tile, tileCounts);
+                stats.finished(tile);
+            }
+            out.writeByte(TileProtocol.BYE);
+            out.flush();
+            finished = true;
+        }
+        catch (IOException e)
+        {
+            System.err.println((stats == null ? "worker" : stats.name) + " lost (" + e + "), handing "
+                               + inFlight.size() + " tiles to the others");
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            // after a BYE whatever is still in flight is a duplicate of a stored tile, only a failure loses work
+            if (!finished)
+            {
+                for (TileProtocol.Tile tile : inFlight.values())
+                {
+                    if (done.get(tile.id) != 0)
+                        continue;
+                    pending.addFirst(tile);
+                    if (stats != null)
+                        stats.lost.increment();
+                }
+            }
+        }
+    }
+
+    private void store(TileProtocol.Tile tile, int[] tileCounts)
+    {
+        // the first copy of a tile wins, a second one would be identical anyway
+        if (!done.compareAndSet(tile.id, 0, 1))
+            return;
+        Viewport view = raster.view;
+        for (int j = 0; j < tile.height; j++)
+        {
+            for (int i = 0; i < tile.width; i++)
+            {
+                int count = tileCounts[j * tile.width + i];
+                int index = counts.index(tile.x + i, tile.y + j);
+                counts.set(index, count);
+                raster.pixels[index] = MandelbrotRaster.grayRGB(view.iterationMax - count);
+            }
+        }
+        remaining.countDown();
+    }
+
+    /**
+     * What each worker did, by name
+     */
+    public Map<String, WorkerStats> workerStats()
+    {
+        return new TreeMap<>(workers);
+    }
+
+    public void printWorkerReport()
+    {
+        System.out.println(tiles.size() + " tiles of " + TILE_SIZE + "px, " + workers.size() + " workers");
+        workerStats().forEach((name, stats) -> System.out.printf("  %-40s %5d tiles %8.2f Mpixels/s %3d lost%n",
+                name, stats.tiles.sum(), stats.pixelsPerSecond() / 1e6, stats.lost.sum()));
+    }
+
+    @Override
+    public void close()
+    {
+        try
+        {
+            server.close();
+        }
+        catch (IOException e)
+        {
+            // nothing to do, we're done with it
+        }
+    }
+
+    public static class WorkerStats
+    {
+        public final String name;
+        public final LongAdder tiles = new LongAdder();
+        public final LongAdder pixels = new LongAdder();
+        // tiles this worker had when it went away
+        public final LongAdder lost = new LongAdder();
+        private volatile long firstSent;
+        private volatile long lastResult;
+
+        WorkerStats(String name)
+        {
+            this.name = name;
+        }
+
+        void started()
+        {
+            if (firstSent == 0)
+                firstSent = System.nanoTime();
+        }
+
+        void finished(TileProtocol.Tile tile)
+        {
+            tiles.increment();
+            pixels.add(tile.pixels());
+            lastResult = System.nanoTime();
+        }
+
+        public double pixelsPerSecond()
+        {
+            double seconds = (lastResult - firstSent) / 1e9;
+            return seconds <= 0 ? 0 : pixels.sum() / seconds;
+        }
+    }
+
+    /**
+     * Arguments (all optional): imageSize localWorkers threadsPerWorker port outputPng.
+     * Starts localWorkers RenderWorker processes on this machine (0 to wait for workers started by hand)
+     */
+    public static void main(String[] args) throws IOException, InterruptedException  {
+        int imageSize = args.length > 0 ? Integer.parseInt(args[0]) : 1600;
+        int localWorkers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int threadsPerWorker = args.length > 2 ? Integer.parseInt(args[2])
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, localWorkers));
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_PORT;
+        File output = new File(args.length > 4 ? args[4] : "distributed.png");
+
+        try (RenderCoordinator coordinator = new RenderCoordinator(Viewport.defaultView(imageSize), port))
+        {
+            List<Process> processes = new ArrayList<>();
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            for (int w = 0; w < localWorkers; w++)
+                processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                                 RenderWorker.class.getName(), "localhost",
+                                                 String.valueOf(coordinator.port()), String.valueOf(threadsPerWorker),
+                                                 "local-" + (w + 1))
+                                      .inheritIO().start());
+            System.out.println("listening on " + coordinator.port() + " for " + coordinator.tileCount() + " tiles");
+            long start = System.currentTimeMillis();
+            coordinator.render();
+            long end = System.currentTimeMillis();
+            System.out.println(end - start + " ms");
+            coordinator.printWorkerReport();
+            ImageIO.write(coordinator.raster.image, "png", output);
+            for (Process process : processes)
+                process.waitFor(10, TimeUnit.SECONDS);
+        }
+    }
+}
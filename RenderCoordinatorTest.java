@@ -0,0 +1,132 @@
+package concurrency;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class RenderCoordinatorTest {
+
+    private static int[] expectedPixels(Viewport view) {
+        MandelbrotRaster raster = new MandelbrotRaster(view);
+        raster.render();
+        return raster.pixels;
+    }
+
+    @Test
+    public void testWorkersShareTheRender() throws Exception {
+        Viewport view = Viewport.defaultView(200);
+        ExecutorService background = Executors.newCachedThreadPool();
+        try (RenderCoordinator coordinator = new RenderCoordinator(view, 0)) {
+            Future<?> render = background.submit(() -> {
+                coordinator.render();
+                return null;
+            });
+            for (int w = 0; w < 3; w++)
+                background.submit(new RenderWorker("localhost", coordinator.port(), 2, "worker-" + w));
+            render.get();
+            assertArrayEquals(expectedPixels(view), coordinator.raster.pixels);
+            long tiles = 0;
+            long lost = 0;
+            for (RenderCoordinator.WorkerStats stats : coordinator.workerStats().values()) {
+                tiles += stats.tiles.sum();
+                lost += stats.lost.sum();
+            }
+            assertEquals(coordinator.tileCount(), tiles);
+            // duplicates still in flight at the BYE aren't lost work
+            assertEquals(0, lost);
+        } finally {
+            background.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTilesOfADeadWorkerAreHandedOutAgain() throws Exception {
+        Viewport view = Viewport.defaultView(200);
+        ExecutorService background = Executors.newCachedThreadPool();
+        try (RenderCoordinator coordinator = new RenderCoordinator(view, 0)) {
+            Future<?> render = background.submit(() -> {
+                coordinator.render();
+                return null;
+            });
+            // takes a couple of tiles and dies without answering
+            try (Socket socket = new Socket("localhost", coordinator.port())) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                TileProtocol.writeHello(out, "doomed", 1);
+                for (int k = 0; k < 2; k++) {
+                    assertEquals(TileProtocol.TILE, in.readByte());
+                    TileProtocol.readTile(in);
+                }
+            }
+            background.submit(new RenderWorker("localhost", coordinator.port(), 2, "survivor"));
+            render.get();
+            assertArrayEquals(expectedPixels(view), coordinator.raster.pixels);
+            long lost = 0;
+            for (RenderCoordinator.WorkerStats stats : coordinator.workerStats().values())
+                lost += stats.lost.sum();
+            assertTrue(lost >= 2);
+        } finally {
+            background.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCountsRoundTripInEveryWidth() throws Exception {
+        for (int iterationMax : new int[]{255, 5000, 100000}) {
+            Viewport view = Viewport.centred(-0.5, 0, 3, 16, iterationMax);
+            TileProtocol.Tile tile = new TileProtocol.Tile(7, view, 4, 2, 10, 12);
+            int[] counts = RenderWorker.compute(tile);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            TileProtocol.writeResult(out, tile.id, counts, iterationMax);
+            assertEquals(1 + 4 + counts.length * TileProtocol.elementBytes(iterationMax), bytes.size());
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            assertEquals(TileProtocol.RESULT, in.readByte());
+            assertEquals(7, in.readInt());
+            assertArrayEquals(counts, TileProtocol.readCounts(in, tile));
+        }
+    }
+
+    @Test
+    public void testWorkerHangsUpWhenATileFails() throws Exception {
+        ExecutorService background = Executors.newSingleThreadExecutor();
+        try (ServerSocket coordinator = new ServerSocket(0)) {
+            background.submit(new RenderWorker("localhost", coordinator.getLocalPort(), 1, "unlucky"));
+            try (Socket socket = coordinator.accept()) {
+                // long enough for a healthy worker, far short of the coordinator's own timeout
+                socket.setSoTimeout(10_000);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                assertEquals("unlucky", TileProtocol.readHello(in));
+                // 65536 x 65536 pixels overflows to an empty counts array, so compute() throws
+                Viewport view = new Viewport(-2, -2, 1e-5, 1 << 16, 1 << 16, 10);
+                TileProtocol.writeTile(out, new TileProtocol.Tile(1, view, 0, 0, 1 << 16, 1 << 16));
+                out.flush();
+                try {
+                    in.readByte();
+                    fail("worker answered a tile it couldn't compute");
+                } catch (EOFException e) {
+                    // hung up, so a coordinator would hand the tile to someone else straight away
+                }
+            }
+        } finally {
+            background.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package concurrency;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-tile measurements for one render: where the tile was, how long it waited in the queue, how long it took,
+ * how many iterations and pixels it covered and which worker ran it. While Flight Recorder is recording, every tile
+ * is also committed as a TileRenderEvent. At the end of the render the tiles are summed up into iterations per second,
+ * per-worker busy time and load imbalance, and a heatmap of where the time went, written out as JSON.
+ *
+ * Iterations are the ones the kernel actually ran (MandelbrotKernel.iterationsRun), so interior points that the
+ * cardioid test or cycle detection cut short only count for what they did, not as iterationMax.
+ */
+public class RenderMetrics
+{
+    // the heatmap is this many cells along the longer side of the image
+    public static int HEATMAP_CELLS = 16;
+
+    public final Viewport view;
+    private final ConcurrentLinkedQueue<Tile> tiles = new ConcurrentLinkedQueue<>();
+    private volatile long renderStart;
+    private volatile long renderEnd;
+
+    public RenderMetrics(Viewport view)
+    {
+        this.view = view;
+    }
+
+    public static class Tile
+    {
+        public final int x; public final int y; public final int width; public final int height;
+        public final String worker;
+        public final long queueNanos; public final long renderNanos;
+        public final long iterations;
+
+        Tile(int x, int y, int width, int height, String worker, long queueNanos, long renderNanos, long iterations)
+        {
+            this.x = x;  this.y = y;  this.width = width;  this.height = height;  this.worker = worker;
+            this.queueNanos = queueNanos;  this.renderNanos = renderNanos;  this.iterations = iterations;
+        }
+
+        public int pixels()
+        {
+            return width * height;
+        }
+    }
+
+    public void renderStarted()
+    {
+        tiles.clear();
+        renderStart = System.nanoTime();
+    }
+
+    public void renderFinished()
+    {
+        renderEnd = System.nanoTime();
+    }
+
+    /**
+     * Run plot on the calling worker and record it as the tile at (x, y); plot returns the iterations the kernel ran and
+     * submitted is the System.nanoTime() when the tile was handed over, to work out how long it queued
+     */
+    public void measureTile(int x, int y, int width, int height, long submitted, LongSupplier plot)
+    {
+        TileRenderEvent event = new TileRenderEvent();
+        event.begin();
+        long started = System.nanoTime();
+        long iterations = plot.getAsLong();
+        long finished = System.nanoTime();
+        event.end();
+
+        Tile tile = new Tile(x, y, width, height, Thread.currentThread().getName(), started - submitted,
+                             finished - started, iterations);
+        tiles.add(tile);
+        if (event.shouldCommit())
+        {
+            event.x = x;  event.y = y;  event.width = width;  event.height = height;
+            event.pixels = tile.pixels();
+            event.iterations = iterations;
+            event.queueNanos = tile.queueNanos;
+            event.iterationMax = view.iterationMax;
+            event.commit();
+        }
+    }
+
+    public List<Tile> tiles()
+    {
+        return new ArrayList<>(tiles);
+    }
+
+    public double wallSeconds()
+    {
+        return (renderEnd - renderStart) / 1e9;
+    }
+
+    public long iterations()
+    {
+        long total = 0;
+        for (Tile tile : tiles)
+            total += tile.iterations;
+        return total;
+    }
+
+    public double iterationsPerSecond()
+    {
+        double seconds = wallSeconds();
+        return seconds <= 0 ? 0 : iterations() / seconds;
+    }
+
+    public Map<String, Double> workerBusyMillis()
+    {
+        Map<String, Double> busy = new TreeMap<>();
+        for (Tile tile : tiles)
+            busy.merge(tile.worker, tile.renderNanos / 1e6, Double::sum);
+        return busy;
+    }
+
+    /**
+     * Busiest worker's time over the mean, among the workers that ran anything; 1.0 is perfectly even
+     */
+    public double loadImbalance()
+    {
+        Map<String, Double> busy = workerBusyMillis();
+        double total = 0;
+        double max = 0;
+        for (double millis : busy.values())
+        {
+            total += millis;
+            max = Math.max(max, millis);
+        }
+        return total == 0 ? 1.0 : max / (total / busy.size());
+    }
+
+    /**
+     * Milliseconds of render time per heatmap cell, [row][column]; a tile's time is shared among the cells it
+     * covers in proportion to the area, so tiles of any shape (blocks, rows) add up the same way
+     */
+    public double[][] heatmap()
+    {
+        int cellSize = Math.max(1, (Math.max(view.width, view.height) + HEATMAP_CELLS - 1) / HEATMAP_CELLS);
+        int columns = (view.width + cellSize - 1) / cellSize;
+        int rows = (view.height + cellSize - 1) / cellSize;
+        double[][] millis = new double[rows][columns];
+        for (Tile tile : tiles)
+        {
+            double perPixel = tile.renderNanos / 1e6 / tile.pixels();
+            for (int row = tile.y / cellSize; row <= (tile.y + tile.height - 1) / cellSize; row++)
+            {
+                int overlapY = Math.min(tile.y + tile.height, (row + 1) * cellSize) - Math.max(tile.y, row * cellSize);
+                for (int column = tile.x / cellSize; column <= (tile.x + tile.width - 1) / cellSize; column++)
+                {
+                    int overlapX = Math.min(tile.x + tile.width, (column + 1) * cellSize)
+                                   - Math.max(tile.x, column * cellSize);
+                    millis[row][column] += perPixel * overlapX * overlapY;
+                }
+            }
+        }
+        return millis;
+    }
+
+    public String toJson()
+    {
+        List<Tile> all = tiles();
+        long pixels = 0;
+        long maxQueue = 0;
+        double totalQueue = 0;
+        for (Tile tile : all)
+        {
+            pixels += tile.pixels();
+            maxQueue = Math.max(maxQueue, tile.queueNanos);
+            totalQueue += tile.queueNanos;
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append(String.format(Locale.ROOT, "  \"view\": \"%s\",\n", view));
+        json.append(String.format(Locale.ROOT, "  \"wallMillis\": %.3f,\n", wallSeconds() * 1e3));
+        json.append(String.format(Locale.ROOT, "  \"tiles\": %d,\n", all.size()));
+        json.append(String.format(Locale.ROOT, "  \"pixels\": %d,\n", pixels));
+        json.append(String.format(Locale.ROOT, "  \"iterations\": %d,\n", iterations()));
+        json.append(String.format(Locale.ROOT, "  \"iterationsPerSecond\": %.0f,\n", iterationsPerSecond()));
+        json.append(String.format(Locale.ROOT, "  \"loadImbalance\": %.4f,\n", loadImbalance()));
+        json.append(String.format(Locale.ROOT, "  \"meanQueueMillis\": %.3f,\n",
+                                  all.isEmpty() ? 0 : totalQueue / all.size() / 1e6));
+        json.append(String.format(Locale.ROOT, "  \"maxQueueMillis\": %.3f,\n", maxQueue / 1e6));
+
+        json.append("  \"workerBusyMillis\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Double> worker : workerBusyMillis().entrySet())
+        {
+            json.append(String.format(Locale.ROOT, "%s    \"%s\": %.3f", separator, worker.getKey(), worker.getValue()));
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+
+        json.append("  \"heatmapMillis\": [");
+        separator = "\n";
+        for (double[] row : heatmap())
+        {
+            json.append(separator).append("    [");
+            for (int column = 0; column < row.length; column++)
+                json.append(column == 0 ? "" : ", ").append(String.format(Locale.ROOT, "%.3f", row[column]));
+            json.append("]");
+            separator = ",\n";
+        }
+        json.append("\n  ],\n");
+
+        json.append("  \"tileList\": [");
+        separator = "\n";
+        for (Tile tile : all)
+        {
+            json.append(String.format(Locale.ROOT,
+                    "%s    {\"x\": %d, \"y\": %d, \"width\": %d, \"height\": %d, \"worker\": \"%s\", "
+                    + "\"queueMillis\": %.3f, \"renderMillis\": %.3f, \"iterations\": %d}",
+                    separator, tile.x, tile.y, tile.width, tile.height, tile.worker,
+                    tile.queueNanos / 1e6, tile.renderNanos / 1e6, tile.iterations));
+            separator = ",\n";
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    public void writeJson(Path path) throws IOException
+    {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8))
+        {
+            writer.write(toJson());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class RenderMetricsTest {
+
+    @Test
+    public void testRecordsEveryBlock() {
+        Viewport view = Viewport.defaultView(130);
+        try (ThreadedMandelbrot threaded = new ThreadedMandelbrot(view, 40, 3)) {
+            threaded.run();
+            RenderMetrics metrics = threaded.metrics;
+            // 4 x 4 blocks, the last row and column clipped
+            assertEquals(16, metrics.tiles().size());
+            long pixels = 0;
+            long iterations = 0;
+            for (RenderMetrics.Tile tile : metrics.tiles()) {
+                pixels += tile.pixels();
+                assertTrue(tile.queueNanos >= 0);
+                assertTrue(tile.worker.startsWith("mandelbrot-worker-"));
+            }
+            assertEquals(view.pixelCount(), pixels);
+            long counts = 0;
+            for (int j = 0; j < view.height; j++) {
+                for (int i = 0; i < view.width; i++) {
+                    long countWithWork = MandelbrotKernel.mandelbrotWithWork(view.x(i), view.y(j), view.iterationMax);
+                    iterations += MandelbrotKernel.iterationsRun(countWithWork);
+                    counts += MandelbrotKernel.count(countWithWork);
+                }
+            }
+            assertEquals(iterations, metrics.iterations());
+            // the default view has interior points the kernel cuts short
+            assertTrue(iterations < counts);
+            assertTrue(metrics.loadImbalance() >= 1.0);
+        }
+    }
+
+    @Test
+    public void testHeatmapAddsUpToBusyTime() {
+        Viewport view = Viewport.defaultView(100);
+        try (RenderScheduler scheduler = RenderSchedulers.create("interleaved", 2, 0)) {
+            ScheduledMandelbrot mandelbrot = new ScheduledMandelbrot(view, scheduler);
+            mandelbrot.run();
+            RenderMetrics metrics = mandelbrot.metrics;
+            assertEquals(100, metrics.tiles().size());
+            double busy = 0;
+            for (Map.Entry<String, Double> worker : metrics.workerBusyMillis().entrySet())
+                busy += worker.getValue();
+            double mapped = 0;
+            for (double[] row : metrics.heatmap())
+                for (double millis : row)
+                    mapped += millis;
+            assertEquals(busy, mapped, busy * 1e-9);
+            String json = metrics.toJson();
+            assertTrue(json.contains("\"iterationsPerSecond\""));
+            assertTrue(json.contains("\"heatmapMillis\""));
+        }
+    }
+}
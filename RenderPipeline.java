@@ -0,0 +1,169 @@
+package concurrency;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The admit, render, write pipeline behind ZoomAnimation and BatchRenderer. Every item (a frame, a job) is cut into
+ * tiles that go onto one shared pool, so the next items are already being rendered while the last tiles of the
+ * current one finish, and whoever finishes an item's last tile puts it on a queue for the writer threads. No more
+ * than maxInFlight items are admitted at once and an item's permit only comes back once it has been written or has
+ * failed, so memory stays flat however many items there are and a slow disk holds back rendering.
+ *
+ * An item fails at most once, at its first failing tile or at its write, whatever was thrown; that reports it to
+ * Stages.failed and gives its permit back, and the rest of its tiles are skipped.
+ */
+final class RenderPipeline<T> implements AutoCloseable
+{
+    /**
+     * What happens to an item: renderTile on the render threads, write and failed on whichever thread got there
+     */
+    interface Stages<T>
+    {
+        // once it has a permit, just before its tiles are queued
+        default void admitted(T item) {}
+
+        void renderTile(T item, int x, int y, int width, int height);
+
+        void write(T item) throws IOException;
+
+        void failed(T item, Throwable failure);
+    }
+
+    private final class Entry
+    {
+        final T item;
+        // -1 once a tile has failed
+        final AtomicInteger tilesLeft = new AtomicInteger();
+
+        Entry(T item)
+        {
+            this.item = item;
+        }
+    }
+
+    private final Stages<T> stages;
+    private final int tileSize;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    // never fills up: there can't be more rendered items than items in flight
+    private final BlockingQueue<Entry> rendered;
+    private final ExecutorService threads;
+    private final ExecutorService writers;
+
+    RenderPipeline(int threadCount, int writerCount, int maxInFlight, int tileSize, Stages<T> stages)
+    {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("maxInFlight must be at least 1: " + maxInFlight);
+        this.stages = stages;
+        this.tileSize = tileSize;
+        this.maxInFlight = maxInFlight;
+        inFlight = new Semaphore(maxInFlight);
+        rendered = new ArrayBlockingQueue<>(maxInFlight);
+        threads = ThreadedMandelbrot.newWorkerPool(threadCount);
+        writers = ThreadedMandelbrot.newWorkerPool(writerCount);
+        for (int w = 0; w < writerCount; w++)
+            writers.execute(this::writeItems);
+    }
+
+    /**
+     * Queue the tiles of item, whose pixels are view, once there's a permit for it
+     */
+    void submit(T item, Viewport view) throws InterruptedException
+    {
+        // backpressure: wait here until an item has been written if too many are on the go
+        inFlight.acquire();
+        stages.admitted(item);
+        Entry entry = new Entry(item);
+        int xTiles = (view.width + tileSize - 1) / tileSize;
+        int yTiles = (view.height + tileSize - 1) / tileSize;
+        entry.tilesLeft.set(xTiles * yTiles);
+        for (int y = 0; y < view.height; y += tileSize)
+        {
+            for (int x = 0; x < view.width; x += tileSize)
+            {
+                int tileX = x;
+                int tileY = y;
+                int width = Math.min(tileSize, view.width - x);
+                int height = Math.min(tileSize, view.height - y);
+                threads.execute(() -> renderTile(entry, tileX, tileY, width, height));
+            }
+        }
+    }
+
+    /**
+     * Wait until every item submitted so far has been written or has failed
+     */
+    void awaitAll() throws InterruptedException
+    {
+        // all permits back means nothing is on the go
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+    }
+
+    private void renderTile(Entry entry, int x, int y, int width, int height)
+    {
+        if (entry.tilesLeft.get() < 0)
+            return;
+        try
+        {
+            stages.renderTile(entry.item, x, y, width, height);
+            // whoever finishes the last tile hands the item on
+            if (entry.tilesLeft.decrementAndGet() == 0)
+                rendered.add(entry);
+        }
+        catch (RuntimeException | Error e)
+        {
+            // the item will never be written; only its first failing tile reports it and gives the permit back
+            if (entry.tilesLeft.getAndSet(-1) > 0)
+            {
+                try
+                {
+                    stages.failed(entry.item, e);
+                }
+                finally
+                {
+                    inFlight.release();
+                }
+            }
+        }
+    }
+
+    private void writeItems()
+    {
+        try
+        {
+            while (true)
+            {
+                Entry entry = rendered.take();
+                try
+                {
+                    stages.write(entry.item);
+                }
+                catch (IOException | RuntimeException | Error e)
+                {
+                    stages.failed(entry.item, e);
+                }
+                finally
+                {
+                    inFlight.release();
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // shut down once everything is written
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        threads.shutdownNow();
+        writers.shutdownNow();
+    }
+}
@@ -0,0 +1,74 @@
+package concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RenderPipelineTest {
+
+    private static final int TILE = 10;
+
+    @Test(timeout = 30000)
+    public void testEveryPermitComesBackWhateverFails() throws Exception {
+        Viewport view = Viewport.defaultView(40);
+        Set<Integer> written = ConcurrentHashMap.newKeySet();
+        Map<Integer, Throwable> failures = new ConcurrentHashMap<>();
+        AtomicInteger failedCalls = new AtomicInteger();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger mostInFlight = new AtomicInteger();
+        RenderPipeline.Stages<Integer> stages = new RenderPipeline.Stages<>() {
+            @Override
+            public void admitted(Integer item) {
+                mostInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            }
+
+            @Override
+            public void renderTile(Integer item, int x, int y, int width, int height) {
+                if (item == 1 && x == TILE && y == TILE)
+                    throw new AssertionError("one tile");
+                if (item == 2)
+                    throw new IllegalStateException("every tile");
+            }
+
+            @Override
+            public void write(Integer item) throws IOException {
+                inFlight.decrementAndGet();
+                if (item == 3)
+                    throw new OutOfMemoryError("while writing");
+                if (item == 4)
+                    throw new IOException("disk full");
+                written.add(item);
+            }
+
+            @Override
+            public void failed(Integer item, Throwable failure) {
+                if (item < 3)
+                    inFlight.decrementAndGet();
+                failedCalls.incrementAndGet();
+                failures.put(item, failure);
+            }
+        };
+
+        // two permits for ten items: any leaked permit stalls the submits or awaitAll()
+        try (RenderPipeline<Integer> pipeline = new RenderPipeline<>(3, 1, 2, TILE, stages)) {
+            for (int item = 0; item < 10; item++)
+                pipeline.submit(item, view);
+            pipeline.awaitAll();
+        }
+        assertEquals(Set.of(0, 5, 6, 7, 8, 9), written);
+        assertEquals(Set.of(1, 2, 3, 4), failures.keySet());
+        // once per failed item, however many of its tiles threw
+        assertEquals(4, failedCalls.get());
+        assertTrue(failures.get(1) instanceof AssertionError);
+        assertTrue(failures.get(3) instanceof OutOfMemoryError);
+        assertTrue(failures.get(4) instanceof IOException);
+        assertTrue(mostInFlight.get() <= 2);
+    }
+}
@@ -0,0 +1,28 @@
+package concurrency;
+
+/**
+ * How the parts of an image are shared out between threads. A renderer hands over what to do with one rectangle of
+ * the image and the scheduler decides how the image is cut up and which thread plots what, so the same renderer can
+ * be timed under each strategy. See RenderSchedulers for the implementations and create() to pick one by name.
+ */
+public interface RenderScheduler extends AutoCloseable
+{
+    /**
+     * Plots one rectangle of the image; called from the scheduler's threads, never twice for the same pixel
+     */
+    interface Region
+    {
+        void plot(int x, int y, int width, int height);
+    }
+
+    /**
+     * Plot every pixel of a width by height image through region, returning once all of it is done.
+     * A region that throws fails the render with an IllegalStateException.
+     */
+    void render(int width, int height, Region region);
+
+    String name();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,346 @@
+package concurrency;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The RenderScheduler strategies:
+ *  pool        square tiles on a fixed pool, one platform thread per core by default
+ *  virtual     a new virtual thread for every tile (a platform thread each before Java 21, see VirtualPerTile)
+ *  interleaved thread t of n plots rows t, t + n, t + 2n, ... decided up front, no coordination at all
+ *  dynamic     threads claim the next CHUNK_ROWS rows from a shared AtomicInteger until none are left
+ *  rows        runs of whole rows on a fixed pool, so each job writes one contiguous stretch of the buffers
+ *
+ * The pool based ones can also run on a pool the caller owns, which close() then leaves running.
+ */
+public final class RenderSchedulers
+{
+    public static final List<String> NAMES = Arrays.asList("pool", "virtual", "interleaved", "dynamic", "rows");
+
+    // rows a thread takes at a time under the dynamic strategy
+    public static int CHUNK_ROWS = 4;
+
+    private RenderSchedulers()
+    {
+    }
+
+    /**
+     * The scheduler called name; threadCount is ignored by virtual, tileSize by interleaved and dynamic, and for
+     * rows it's the number of rows in a run
+     */
+    public static RenderScheduler create(String name, int threadCount, int tileSize)
+    {
+        switch (name.toLowerCase(Locale.ROOT))
+        {
+            case "pool":
+                return new PlatformPool(threadCount, tileSize);
+            case "virtual":
+                return new VirtualPerTile(tileSize);
+            case "interleaved":
+                return new InterleavedRows(threadCount);
+            case "dynamic":
+                return new DynamicRows(threadCount, CHUNK_ROWS);
+            case "rows":
+                return new RowRuns(threadCount, tileSize);
+            default:
+                throw new IllegalArgumentException("unknown scheduler " + name + ", expected one of " + NAMES);
+        }
+    }
+
+    public static int cores()
+    {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    // parks until every job is done, rethrowing the first failure
+    static void runAll(ExecutorService threads, List<Runnable> jobs)
+    {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(jobs.size());
+        for (Runnable job : jobs)
+            futures.add(CompletableFuture.runAsync(job, threads));
+        try
+        {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        }
+        catch (CompletionException e)
+        {
+            throw new IllegalStateException("render job failed", e.getCause());
+        }
+    }
+
+    static List<Runnable> tiles(int width, int height, int tileSize, RenderScheduler.Region region)
+    {
+        List<Runnable> jobs = new ArrayList<>();
+        for (int y = 0; y < height; y += tileSize)
+        {
+            for (int x = 0; x < width; x += tileSize)
+            {
+                int tileX = x;
+                int tileY = y;
+                jobs.add(() -> region.plot(tileX, tileY, Math.min(tileSize, width - tileX),
+                                           Math.min(tileSize, height - tileY)));
+            }
+        }
+        return jobs;
+    }
+
+    public static class PlatformPool implements RenderScheduler
+    {
+        private final int tileSize;
+        private final ExecutorService threads;
+        // only shut down a pool we made ourselves
+        private final boolean ownsThreads;
+        private final String threadsName;
+
+        public PlatformPool(int threadCount, int tileSize)
+        {
+            this(ThreadedMandelbrot.newWorkerPool(threadCount), true, threadCount + " threads", tileSize);
+        }
+
+        /**
+         * Tiles on a pool owned by the caller, e.g. one shared by several renderers; close() leaves it running
+         */
+        public PlatformPool(ExecutorService threads, int tileSize)
+        {
+            this(threads, false, "shared pool", tileSize);
+        }
+
+        private PlatformPool(ExecutorService threads, boolean ownsThreads, String threadsName, int tileSize)
+        {
+            this.threads = threads;  this.ownsThreads = ownsThreads;  this.threadsName = threadsName;
+            this.tileSize = tileSize;
+        }
+
+        @Override
+        public void render(int width, int height, Region region)
+        {
+            runAll(threads, tiles(width, height, tileSize, region));
+        }
+
+        @Override
+        public String name()
+        {
+            return "pool(" + threadsName + ", " + tileSize + "px tiles)";
+        }
+
+        @Override
+        public void close()
+        {
+            if (ownsThreads)
+                threads.shutdown();
+        }
+    }
+
+    /**
+     * Static runs of whole rows, one job each on a fixed pool: every job writes one contiguous range of the
+     * buffers and shares at most a cache line at each end with its neighbours
+     */
+    public static class RowRuns implements RenderScheduler
+    {
+        private final int rowsPerJob;
+        private final ExecutorService threads;
+        private final boolean ownsThreads;
+        private final String threadsName;
+
+        public RowRuns(int threadCount, int rowsPerJob)
+        {
+            this(ThreadedMandelbrot.newWorkerPool(threadCount), true, threadCount + " threads", rowsPerJob);
+        }
+
+        /**
+         * Runs on a pool owned by the caller; close() leaves it running
+         */
+        public RowRuns(ExecutorService threads, int rowsPerJob)
+        {
+            this(threads, false, "shared pool", rowsPerJob);
+        }
+
+        private RowRuns(ExecutorService threads, boolean ownsThreads, String threadsName, int rowsPerJob)
+        {
+            if (rowsPerJob < 1)
+                throw new IllegalArgumentException("rowsPerJob must be at least 1: " + rowsPerJob);
+            this.threads = threads;  this.ownsThreads = ownsThreads;  this.threadsName = threadsName;
+            this.rowsPerJob = rowsPerJob;
+        }
+
+        @Override
+        public void render(int width, int height, Region region)
+        {
+            List<Runnable> jobs = new ArrayList<>();
+            for (int y = 0; y < height; y += rowsPerJob)
+            {
+                int yStart = y;
+                jobs.add(() -> region.plot(0, yStart, width, Math.min(rowsPerJob, height - yStart)));
+            }
+            runAll(threads, jobs);
+        }
+
+        @Override
+        public String name()
+        {
+            return "rows(" + threadsName + ", " + rowsPerJob + " rows a job)";
+        }
+
+        @Override
+        public void close()
+        {
+            if (ownsThreads)
+                threads.shutdown();
+        }
+    }
+
+    /**
+     * A thread per tile, so there's no pool size to tune and small tiles cost next to nothing to start.
+     * Virtual threads only exist from Java 21 (preview in 19 and 20), so the executor is looked up reflectively;
+     * on older runtimes it falls back to a new platform thread per tile, which works but pays for every thread.
+     */
+    public static class VirtualPerTile implements RenderScheduler
+    {
+        private final int tileSize;
+        private final boolean virtual;
+        private final ExecutorService threads;
+
+        public VirtualPerTile(int tileSize)
+        {
+            this.tileSize = tileSize;
+            ExecutorService executor = virtualThreadPerTaskExecutor();
+            virtual = executor != null;
+            threads = virtual ? executor : Executors.newCachedThreadPool(job -> {
+                Thread thread = new Thread(job, "mandelbrot-tile");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        private static ExecutorService virtualThreadPerTaskExecutor()
+        {
+            try
+            {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            }
+            catch (ReflectiveOperationException e)
+            {
+                // not there, or a preview feature that wasn't enabled
+                return null;
+            }
+        }
+
+        public boolean isVirtual()
+        {
+            return virtual;
+        }
+
+        @Override
+        public void render(int width, int height, Region region)
+        {
+            runAll(threads, tiles(width, height, tileSize, region));
+        }
+
+        @Override
+        public String name()
+        {
+            return (virtual ? "virtual" : "virtual(platform fallback)") + "(" + tileSize + "px tiles)";
+        }
+
+        @Override
+        public void close()
+        {
+            threads.shutdown();
+        }
+    }
+
+    /**
+     * Static interleaving: neighbouring rows cost about the same, so dealing them out like cards balances the load
+     * without any shared state, as long as every thread actually gets scheduled
+     */
+    public static class InterleavedRows implements RenderScheduler
+    {
+        private final int threadCount;
+        private final ExecutorService threads;
+
+        public InterleavedRows(int threadCount)
+        {
+            this.threadCount = threadCount;
+            threads = ThreadedMandelbrot.newWorkerPool(threadCount);
+        }
+
+        @Override
+        public void render(int width, int height, Region region)
+        {
+            List<Runnable> jobs = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++)
+            {
+                int first = t;
+                jobs.add(() -> {
+                    for (int y = first; y < height; y += threadCount)
+                        region.plot(0, y, width, 1);
+                });
+            }
+            runAll(threads, jobs);
+        }
+
+        @Override
+        public String name()
+        {
+            return "interleaved(" + threadCount + " threads)";
+        }
+
+        @Override
+        public void close()
+        {
+            threads.shutdown();
+        }
+    }
+
+    /**
+     * Dynamic chunking: one job per thread, each claiming the next chunk of rows from a shared counter until the
+     * image runs out, so a thread that got cheap rows just claims more. The only contention is one getAndAdd per chunk.
+     */
+    public static class DynamicRows implements RenderScheduler
+    {
+        private final int threadCount;
+        private final int chunkRows;
+        private final ExecutorService threads;
+
+        public DynamicRows(int threadCount, int chunkRows)
+        {
+            this.threadCount = threadCount;
+            this.chunkRows = chunkRows;
+            threads = ThreadedMandelbrot.newWorkerPool(threadCount);
+        }
+
+        @Override
+        public void render(int width, int height, Region region)
+        {
+            AtomicInteger nextRow = new AtomicInteger();
+            List<Runnable> jobs = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++)
+            {
+                jobs.add(() -> {
+                    for (int y = nextRow.getAndAdd(chunkRows); y < height; y = nextRow.getAndAdd(chunkRows))
+                        region.plot(0, y, width, Math.min(chunkRows, height - y));
+                });
+            }
+            runAll(threads, jobs);
+        }
+
+        @Override
+        public String name()
+        {
+            return "dynamic(" + threadCount + " threads, " + chunkRows + " rows a claim)";
+        }
+
+        @Override
+        public void close()
+        {
+            threads.shutdown();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package concurrency;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+public class RenderSchedulersTest {
+
+    @Test
+    public void testEverySchedulerCoversEachPixelOnce() {
+        int width = 101;
+        int height = 67;
+        for (String name : RenderSchedulers.NAMES) {
+            try (RenderScheduler scheduler = RenderSchedulers.create(name, 3, 16)) {
+                AtomicIntegerArray visits = new AtomicIntegerArray(width * height);
+                scheduler.render(width, height, (x, y, w, h) -> {
+                    for (int j = y; j < y + h; j++)
+                        for (int i = x; i < x + w; i++)
+                            visits.incrementAndGet(j * width + i);
+                });
+                for (int index = 0; index < visits.length(); index++)
+                    assertEquals(name + " pixel " + index, 1, visits.get(index));
+            }
+        }
+    }
+
+    @Test
+    public void testEverySchedulerMatchesRaster() {
+        Viewport view = Viewport.defaultView(90);
+        MandelbrotRaster expected = new MandelbrotRaster(view);
+        expected.render();
+        for (String name : RenderSchedulers.NAMES) {
+            try (RenderScheduler scheduler = RenderSchedulers.create(name, 4, 20)) {
+                ScheduledMandelbrot mandelbrot = new ScheduledMandelbrot(view, scheduler);
+                mandelbrot.run();
+                // twice on the same scheduler, it has to survive a render
+                mandelbrot.run();
+                assertArrayEquals(name, expected.pixels, mandelbrot.raster.pixels);
+            }
+        }
+    }
+
+    @Test
+    public void testFailingRegionFailsRender() {
+        try (RenderScheduler scheduler = RenderSchedulers.create("dynamic", 2, 16)) {
+            scheduler.render(10, 10, (x, y, w, h) -> {
+                throw new ArithmeticException("boom");
+            });
+            fail("render should have failed");
+        } catch (IllegalStateException expected) {
+            assertEquals(ArithmeticException.class, expected.getCause().getClass());
+        }
+    }
+
+    @Test
+    public void testNamesIgnoreCaseInAnyLocale() {
+        Locale locale = Locale.getDefault();
+        // in Turkish "I".toLowerCase() is a dotless i, so "VIRTUAL" wouldn't match "virtual"
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            for (String name : RenderSchedulers.NAMES) {
+                try (RenderScheduler scheduler = RenderSchedulers.create(name.toUpperCase(Locale.ROOT), 2, 16)) {
+                    assertTrue(scheduler.name(), scheduler.name().startsWith(name));
+                }
+            }
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownScheduler() {
+        RenderSchedulers.create("round-robin", 2, 16);
+    }
+}
@@ -0,0 +1,131 @@
+package concurrency;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A render node: connects to a RenderCoordinator, computes the tiles it's sent on its own pool and sends the
+ * iteration counts back, until the coordinator says BYE or goes away. Run one per machine (or several on one
+ * machine to try it out), e.g. java concurrency.RenderWorker coordinator-host 7171 16
+ */
+public class RenderWorker implements Runnable
+{
+    private final String host;
+    private final int port;
+    private final int threadCount;
+    private final String name;
+
+    public RenderWorker(String host, int port, int threadCount, String name)
+    {
+        this.host = host;
+        this.port = port;
+        this.threadCount = threadCount;
+        this.name = name;
+    }
+
+    @Override
+    public void run()
+    {
+        ExecutorService threads = ThreadedMandelbrot.newWorkerPool(threadCount);
+        try (Socket socket = new Socket(host, port))
+        {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            TileProtocol.writeHello(out, name, threadCount);
+            while (true)
+            {
+                byte type = in.readByte();
+                if (type == TileProtocol.BYE)
+                    break;
+                if (type != TileProtocol.TILE)
+                    throw new IOException("unexpected message " + type);
+                TileProtocol.Tile tile = TileProtocol.readTile(in);
+                threads.submit(() -> {
+                    int[] counts;
+                    try
+                    {
+                        counts = compute(tile);
+                    }
+                    catch (RuntimeException | Error e)
+                    {
+                        // nobody reads the Future; hanging up makes the coordinator hand our tiles out again now
+                        // rather than after its read timeout
+                        System.err.println(name + ": tile " + tile.id + " failed, disconnecting: " + e);
+                        closeQuietly(socket);
+                        return;
+                    }
+                    try
+                    {
+                        // results from different threads mustn't interleave on the stream
+                        synchronized (out)
+                        {
+                            TileProtocol.writeResult(out, tile.id, counts, tile.view.iterationMax);
+                            out.flush();
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        // the coordinator is gone; the read loop finds out too and stops
+                    }
+                });
+            }
+        }
+        catch (EOFException e)
+        {
+            // coordinator closed the connection
+        }
+        catch (IOException e)
+        {
+            System.err.println(name + ": " + e);
+        }
+        finally
+        {
+            threads.shutdownNow();
+        }
+    }
+
+    private static void closeQuietly(Socket socket)
+    {
+        try
+        {
+            socket.close();
+        }
+        catch (IOException e)
+        {
+            // closing anyway
+        }
+    }
+
+    static int[] compute(TileProtocol.Tile tile)
+    {
+        Viewport view = tile.view;
+        int[] counts = new int[tile.pixels()];
+        for (int j = 0; j < tile.height; j++)
+        {
+            double y0 = view.y(tile.y + j);
+            for (int i = 0; i < tile.width; i++)
+                counts[j * tile.width + i] = MandelbrotKernel.mandelbrot(view.x(tile.x + i), y0, view.iterationMax);
+        }
+        return counts;
+    }
+
+    /**
+     * Arguments (all optional): coordinatorHost port threads name
+     */
+    public static void main(String[] args) throws IOException  {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : RenderCoordinator.DEFAULT_PORT;
+        int threadCount = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        String name = args.length > 3 ? args[3]
+                : InetAddress.getLocalHost().getHostName() + "/" + ProcessHandle.current().pid();
+        new RenderWorker(host, port, threadCount, name).run();
+    }
+}
@@ -0,0 +1,72 @@
+package concurrency;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Coalesces repaint requests from the render threads and hands them to Swing at most framesPerSecond times a second.
+ * Workers call markDirty() as often as they like (it only grows a rectangle under a lock); a Swing timer repaints
+ * the union of everything marked since the last frame. This replaces calling frame.repaint() per pixel.
+ */
+public class RepaintThrottle
+{
+    private final Component target;
+    private final Timer timer;
+
+    // union of the regions marked since the last repaint, null when nothing is pending; guarded by this
+    private Rectangle dirty;
+    private int repaints;
+
+    public RepaintThrottle(Component target, int framesPerSecond)
+    {
+        this.target = target;
+        timer = new Timer(1000 / framesPerSecond, e -> flush());
+        timer.setCoalesce(true);
+    }
+
+    public void start()
+    {
+        timer.start();
+    }
+
+    /**
+     * Stop the timer and repaint whatever is still pending, so the last tiles aren't left out
+     */
+    public void stop()
+    {
+        timer.stop();
+        flush();
+    }
+
+    public synchronized void markDirty(int x, int y, int width, int height)
+    {
+        if (dirty == null)
+            dirty = new Rectangle(x, y, width, height);
+        else
+        {
+            // grows the rectangle to take in both corners, without allocating
+            dirty.add(x, y);
+            dirty.add(x + width, y + height);
+        }
+    }
+
+    public void flush()
+    {
+        Rectangle region;
+        synchronized (this)
+        {
+            region = dirty;
+            dirty = null;
+            if (region != null)
+                repaints++;
+        }
+        if (region != null)
+            target.repaint(region.x, region.y, region.width, region.height);
+    }
+
+    // how many repaints were actually issued
+    public synchronized int repaints()
+    {
+        return repaints;
+    }
+}
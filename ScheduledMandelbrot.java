@@ -0,0 +1,87 @@
+package concurrency;
+
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Renders through whichever RenderScheduler it's given, so the work-sharing strategies can be compared on the same
+ * rendering code (MandelbrotRaster.plotBlock, either kernel). Regions are marked for repainting as they finish.
+ */
+public class ScheduledMandelbrot
+{
+    public final MandelbrotRaster raster;
+    public final RenderScheduler scheduler;
+    public JFrame frame;
+    public BufferedImage image;
+    // per-region timings of the last run; queue time is counted from the start of the render
+    public final RenderMetrics metrics;
+
+    private RepaintThrottle throttle;
+
+    public ScheduledMandelbrot(Viewport view, RenderScheduler scheduler)
+    {
+        this.scheduler = scheduler;
+        raster = new MandelbrotRaster(view);
+        metrics = new RenderMetrics(view);
+        image = raster.image;
+        frame = raster.display("Mandelbrot - " + scheduler.name());
+        if (frame != null)
+            throttle = new RepaintThrottle(frame.getContentPane(), 60);
+    }
+
+    public void run()
+    {
+        if (throttle != null)
+            throttle.start();
+        metrics.renderStarted();
+        long start = System.nanoTime();
+        try
+        {
+            scheduler.render(raster.view.width, raster.view.height, (x, y, width, height) ->
+                    metrics.measureTile(x, y, width, height, start, () -> plot(x, y, width, height)));
+        }
+        finally
+        {
+            metrics.renderFinished();
+            if (throttle != null)
+                throttle.stop();
+        }
+    }
+
+    private long plot(int x, int y, int width, int height)
+    {
+        long iterations = raster.plotBlock(x, y, width, height);
+        if (throttle != null)
+            throttle.markDirty(x, y, width, height);
+        return iterations;
+    }
+
+    /**
+     * Arguments (all optional): scheduler threads tileSize imageSize kernel metricsFile,
+     * e.g. "dynamic 8 64 1600 vector metrics.json"; threads defaults to the core count
+     */
+    public static void main(String[] args) throws IOException  {
+        String name = args.length > 0 ? args[0] : "pool";
+        int threadCount = args.length > 1 ? Integer.parseInt(args[1]) : RenderSchedulers.cores();
+        int tileSize = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int imageSize = args.length > 3 ? Integer.parseInt(args[3]) : 800;
+
+        try (RenderScheduler scheduler = RenderSchedulers.create(name, threadCount, tileSize))
+        {
+            ScheduledMandelbrot mandelbrot = new ScheduledMandelbrot(Viewport.defaultView(imageSize), scheduler);
+            if (args.length > 4 && args[4].equalsIgnoreCase("vector"))
+                mandelbrot.raster.setKernel(MandelbrotRaster.Kernel.VECTOR);
+            long start = System.currentTimeMillis();
+            mandelbrot.run();
+            long end = System.currentTimeMillis();
+            System.out.println(scheduler.name() + ", kernel " + mandelbrot.raster.getKernel() + ": "
+                               + (end - start) + " ms");
+            System.out.printf("%.0f iterations/s, load imbalance %.3f%n", mandelbrot.metrics.iterationsPerSecond(),
+                              mandelbrot.metrics.loadImbalance());
+            if (args.length > 5)
+                mandelbrot.metrics.writeJson(Paths.get(args[5]));
+        }
+    }
+}
@@ -1,14 +1,20 @@
 package concurrency;
 
 import javax.swing.*;
-import java.awt.*;
-import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class ThreadedMandelbrot
+/**
+ * Renders blocks in parallel through a RenderScheduler that lives as long as the renderer, so repeated run() calls
+ * don't pay for new threads. By default that's square blocks on a fixed pool (RenderSchedulers.PlatformPool), but
+ * any strategy can be passed in. Each block is marked for repainting as soon as it's plotted, so the window fills in
+ * as blocks finish, and run() returns once the scheduler has plotted the last one.
+ */
+public class ThreadedMandelbrot implements AutoCloseable
 {
     // Determine the position and zoom level of the image of the Mandelbrot set
     private static final double X_CENTRE   = 0;
@@ -29,59 +35,77 @@ public class ThreadedMandelbrot
     
     public static int BLOCK_SIZE = IMAGE_SIZE / 10;
     
+    public final MandelbrotRaster raster;
+    public final RenderScheduler scheduler;
     public JFrame frame;
     public BufferedImage image;
-    public Graphics2D graphics;
-    
-    // return number of iterations to check if c = x + iy is in Mandelbrot set
-    public static int mandelbrot(double x0, double y0, int maxIterations) {
-        double zx = x0;
-        double zy = y0;
-        for (int t = 0; t < maxIterations; t++) {
-            if (zx * zx + zy * zy > 4.0) {
-                return t;
-            }
-            double tmp = zx * zx - zy * zy + x0;
-            zy = 2.0 * zx * zy + y0;
-            zx = tmp;
-        }
-        return maxIterations;
-    }
     
+    // only close a scheduler we made ourselves
+    private final boolean ownsScheduler;
+    private RepaintThrottle throttle;
+    // per-block timings of the last run
+    public final RenderMetrics metrics;
     
     public ThreadedMandelbrot() {
-        // Set up the graphics to display the image
-        frame = new JFrame("Mandelbrot");
-        image  = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
-        graphics  = image.createGraphics();
-        graphics.setColor(Color.WHITE);
-        graphics.fillRect(0, 0, IMAGE_SIZE, IMAGE_SIZE);
-        ImageIcon icon = new ImageIcon(image);
-        JLabel draw = new JLabel(icon);
-        
-        frame.setContentPane(draw);
-        frame.setResizable(false);
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.pack();
-        frame.setVisible(true);
-        
-        graphics.scale(1/SCALE, 1/SCALE);
-        graphics.translate(-X_START, -Y_START);
+        this(new Viewport(X_START, Y_START, SCALE, IMAGE_SIZE, IMAGE_SIZE, ITERATION_MAX), BLOCK_SIZE, 10);
+    }
+    
+    public ThreadedMandelbrot(Viewport view, int blockSize, int threadCount) {
+        this(view, new RenderSchedulers.PlatformPool(threadCount, blockSize), true);
+    }
+    
+    /**
+     * Render on a pool owned by the caller, e.g. one shared by several renderers; close() leaves it running
+     */
+    public ThreadedMandelbrot(Viewport view, int blockSize, ExecutorService threads) {
+        this(view, new RenderSchedulers.PlatformPool(threads, blockSize), true);
+    }
+    
+    /**
+     * Render through a scheduler owned by the caller; close() leaves it open
+     */
+    public ThreadedMandelbrot(Viewport view, RenderScheduler scheduler) {
+        this(view, scheduler, false);
+    }
+    
+    private ThreadedMandelbrot(Viewport view, RenderScheduler scheduler, boolean ownsScheduler) {
+        this.scheduler = scheduler;
+        this.ownsScheduler = ownsScheduler;
+        // pixels are written straight into the image, the window (if there is a display) just shows it
+        raster = new MandelbrotRaster(view);
+        metrics = new RenderMetrics(view);
+        image = raster.image;
+        frame = raster.display("Mandelbrot");
+        if (frame != null)
+            throttle = new RepaintThrottle(frame.getContentPane(), 60);
+    }
+    
+    // daemon threads, so a renderer nobody closed doesn't keep the JVM alive
+    static ExecutorService newWorkerPool(int threadCount)
+    {
+        AtomicInteger workers = new AtomicInteger();
+        return Executors.newFixedThreadPool(threadCount, job -> {
+            // numbered, so the metrics can tell the workers apart
+            Thread thread = new Thread(job, "mandelbrot-worker-" + workers.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     public void plotBlock(double xStart, double yStart, int blockSize,
                           double scale, int iterationMax)
     {
-        for (int i = 0; i < blockSize; i++)
+        Viewport view = raster.view;
+        int width = Math.min(blockSize, view.width - (int)xStart);
+        int height = Math.min(blockSize, view.height - (int)yStart);
+        for (int j = 0; j < height; j++)
         {
-            for (int j = 0; j < blockSize; j++)
+            for (int i = 0; i < width; i++)
             {
-                double x0 = X_START + scale * (xStart + i);
-                double y0 = Y_START + scale * (yStart + j);
-                int gray = iterationMax - mandelbrot(x0, y0, iterationMax);
-                Color color = new Color(gray, gray, gray);
-                graphics.setColor(color);
-                graphics.fill(new Rectangle2D.Double(x0, y0, scale, scale));
+                double x0 = view.xStart + scale * (xStart + i);
+                double y0 = view.yStart + scale * (yStart + j);
+                int gray = iterationMax - MandelbrotKernel.mandelbrot(x0, y0, iterationMax);
+                raster.setPixel((int)xStart + i, (int)yStart + j, MandelbrotRaster.grayRGB(gray));
                 // frame.repaint();
             }
         }
@@ -89,74 +113,60 @@ public class ThreadedMandelbrot
     
     public void run()
     {
-        // threading
-        ExecutorService threads = Executors.newFixedThreadPool(10);
-        for (int i = 0; i < IMAGE_SIZE; i+=BLOCK_SIZE)
+        Viewport view = raster.view;
+        if (throttle != null)
+            throttle.start();
+        metrics.renderStarted();
+        // queue time is counted from the start of the render
+        long start = System.nanoTime();
+        try
         {
-            for (int j = 0; j < IMAGE_SIZE; j+=BLOCK_SIZE)
-            {
-                threads.submit(new PlotBlockJob(i, j, BLOCK_SIZE, SCALE, ITERATION_MAX));
-            }
+            scheduler.render(view.width, view.height, (x, y, width, height) ->
+                    metrics.measureTile(x, y, width, height, start, () -> plot(x, y, width, height)));
         }
-        threads.shutdown();
-        // await termination, then repaint
-        while (true)
+        finally
         {
-            try
-            {
-                if (threads.awaitTermination(1000, TimeUnit.MILLISECONDS))
-                    break;
-            }
-            catch (InterruptedException e)
-            {
-                e.printStackTrace();
-            }
+            metrics.renderFinished();
+            if (throttle != null)
+                throttle.stop();
         }
-        
-        frame.repaint();
     }
     
-    public static void main(String[] args)  {
-        long start = System.currentTimeMillis();
-        new ThreadedMandelbrot().run();
-        long end = System.currentTimeMillis();
-        System.out.println(end - start);
+    // runs on the worker that plots the block, which marks it for repainting straight after; returns the iterations
+    private long plot(int x, int y, int width, int height)
+    {
+        // blocks don't overlap, so each pixel has exactly one writer and there's nothing to lock
+        long iterations = raster.plotBlock(x, y, width, height);
+        if (throttle != null)
+            throttle.markDirty(x, y, width, height);
+        return iterations;
     }
     
-    class PlotBlockJob implements Runnable
+    @Override
+    public void close()
     {
-        double xStart; double yStart; int blockSize;
-        double scale; int iterationMax;
-        
-        public PlotBlockJob(double xStart, double yStart, int blockSize,
-                            double scale, int iterationMax)
-        {
-            this.xStart = xStart;  this.yStart = yStart;  this.blockSize = blockSize;
-            this.scale = scale;  this.iterationMax = iterationMax;
-        }
-        @Override
-        public void run()
+        if (ownsScheduler)
+            scheduler.close();
+    }
+    
+    /**
+     * Arguments (all optional): scalar or vector, then a file to write the per-block metrics to as JSON
+     */
+    public static void main(String[] args) throws IOException  {
+        long start = System.currentTimeMillis();
+        try (ThreadedMandelbrot mandelbrot = new ThreadedMandelbrot())
         {
-            for (int i = 0; i < blockSize; i++)
-            {
-                for (int j = 0; j < blockSize; j++)
-                {
-                    double x0 = X_START + scale * (xStart + i);
-                    double y0 = Y_START + scale * (yStart + j);
-                    int gray = iterationMax - mandelbrot(x0, y0, iterationMax);
-                    Color color = new Color(gray, gray, gray);
-                    
-                    // IMPORTANT must sync, otherwise the image is screwed
-                    // this is SLOWER than BasicMandelbrot
-                    synchronized(graphics)
-                    {
-                        graphics.setColor(color);
-                        graphics.fill(new Rectangle2D.Double(x0, y0, scale, scale));
-                    }
-                    
-                    // frame.repaint();
-                }
-            }
+            // pass "vector" to use the SIMD kernel (needs --add-modules jdk.incubator.vector)
+            if (args.length > 0 && args[0].equalsIgnoreCase("vector"))
+                mandelbrot.raster.setKernel(MandelbrotRaster.Kernel.VECTOR);
+            System.out.println("kernel: " + mandelbrot.raster.getKernel());
+            mandelbrot.run();
+            long end = System.currentTimeMillis();
+            System.out.println(end - start);
+            System.out.printf("%.0f iterations/s, load imbalance %.3f%n", mandelbrot.metrics.iterationsPerSecond(),
+                              mandelbrot.metrics.loadImbalance());
+            if (args.length > 1)
+                mandelbrot.metrics.writeJson(Paths.get(args[1]));
         }
     }
 }
@@ -1,8 +1,11 @@
 package concurrency;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Test;
 
@@ -14,13 +17,68 @@ public class ThreadedMandelbrotTest {
         basicMandelbrot.run();
         //ThreadedMandelbrot threadedMandelbrot = new ThreadedMandelbrot();
         //threadedMandelbrot.run();
-        var lessBlockage = new LessBlockageThreading();
-        lessBlockage.run();
-        assertTrue(compareImages(basicMandelbrot.image, lessBlockage.image));
+        // the default constructors draw different sizes, so give both the same view
+        try (var lessBlockage = new LessBlockageThreading(basicMandelbrot.raster.view,
+                                                          LessBlockageThreading.BLOCK_SIZE, 10)) {
+            lessBlockage.run();
+            assertTrue(compareImages(basicMandelbrot.image, lessBlockage.image));
+        }
 
         //assertTrue(compareImages(basicMandelbrot.image, threadedMandelbrot.image));
     }
 
+    @Test
+    public void testRendersRepeatedlyOnOnePool() {
+        Viewport view = Viewport.defaultView(120);
+        MandelbrotRaster expected = new MandelbrotRaster(view);
+        expected.render();
+        ExecutorService threads = Executors.newFixedThreadPool(3);
+        try {
+            for (int round = 0; round < 3; round++) {
+                ThreadedMandelbrot threaded = new ThreadedMandelbrot(view, 25, threads);
+                threaded.run();
+                assertArrayEquals(expected.pixels, threaded.raster.pixels);
+                LessBlockageThreading lessBlockage = new LessBlockageThreading(view, 25, threads);
+                lessBlockage.run();
+                assertArrayEquals(expected.pixels, lessBlockage.raster.pixels);
+            }
+            // the renderers didn't own the pool, so it's still there for the next one
+            assertTrue(!threads.isShutdown());
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    @Test
+    public void testOwnPoolIsReusedUntilClosed() {
+        Viewport view = Viewport.defaultView(120);
+        MandelbrotRaster expected = new MandelbrotRaster(view);
+        expected.render();
+        try (ThreadedMandelbrot threaded = new ThreadedMandelbrot(view, 25, 4)) {
+            threaded.run();
+            threaded.run();
+            assertArrayEquals(expected.pixels, threaded.raster.pixels);
+        }
+    }
+
+    @Test
+    public void testAnySchedulerGivesTheSameImage() {
+        Viewport view = Viewport.defaultView(90);
+        MandelbrotRaster expected = new MandelbrotRaster(view);
+        expected.render();
+        for (String name : RenderSchedulers.NAMES) {
+            try (RenderScheduler scheduler = RenderSchedulers.create(name, 3, 20)) {
+                ThreadedMandelbrot threaded = new ThreadedMandelbrot(view, scheduler);
+                threaded.run();
+                assertArrayEquals(name, expected.pixels, threaded.raster.pixels);
+                // square tiles and single rows, not just the runs of rows it normally gets
+                LessBlockageThreading lessBlockage = new LessBlockageThreading(view, scheduler);
+                lessBlockage.run();
+                assertArrayEquals(name, expected.pixels, lessBlockage.raster.pixels);
+            }
+        }
+    }
+
     private boolean compareImages(BufferedImage image1, BufferedImage image2) {
         if (image1.getWidth() != image2.getWidth() || image1.getHeight() != image2.getHeight()) {
             return false;
@@ -0,0 +1,239 @@
+package concurrency;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of iteration-count tiles, shared by all the render threads.
+ * A miss puts an incomplete future into the map before computing, so a second thread asking for the same tile
+ * waits for that future instead of computing the tile again (single-flight). The lock only guards the map and the
+ * byte count, never the computation. When the completed tiles add up to more than the budget, the least recently
+ * used ones are evicted; tiles still being computed don't count and are never evicted.
+ */
+public class TileCache
+{
+    // rough per-tile overhead of the array header, key, future and map entry
+    private static final long ENTRY_OVERHEAD = 160;
+
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    // access order, so iteration starts from the least recently used; guarded by lock
+    private final LinkedHashMap<TileKey, CompletableFuture<int[]>> tiles = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    // hits on a tile that another thread was still computing
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public TileCache(long maxBytes)
+    {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The tile for key, computing it with loader if no one has it or is already computing it.
+     * If the loader throws, the entry is dropped so a later call can try again, and the exception is rethrown
+     * here and to everyone waiting on it.
+     */
+    public int[] get(TileKey key, Supplier<int[]> loader)
+    {
+        CompletableFuture<int[]> future;
+        boolean load = false;
+        lock.lock();
+        try
+        {
+            future = tiles.get(key);
+            if (future == null)
+            {
+                future = new CompletableFuture<>();
+                tiles.put(key, future);
+                load = true;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if (!load)
+        {
+            hits.increment();
+            if (!future.isDone())
+                coalesced.increment();
+            return join(future);
+        }
+
+        misses.increment();
+        int[] tile;
+        try
+        {
+            tile = loader.get();
+        }
+        catch (RuntimeException | Error e)
+        {
+            lock.lock();
+            try
+            {
+                tiles.remove(key, future);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+        future.complete(tile);
+        added(key, future, tile);
+        return tile;
+    }
+
+    /**
+     * The tile for key if it's already computed, otherwise null; counts as a hit only when it returns a tile
+     */
+    public int[] peek(TileKey key)
+    {
+        CompletableFuture<int[]> future;
+        lock.lock();
+        try
+        {
+            future = tiles.get(key);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        if (future == null || !future.isDone() || future.isCompletedExceptionally())
+            return null;
+        hits.increment();
+        return future.join();
+    }
+
+    private static int[] join(CompletableFuture<int[]> future)
+    {
+        try
+        {
+            return future.join();
+        }
+        catch (CompletionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    private void added(TileKey key, CompletableFuture<int[]> future, int[] tile)
+    {
+        lock.lock();
+        try
+        {
+            // it may already have been cleared while we were computing it
+            if (tiles.get(key) != future)
+                return;
+            bytes += sizeOf(tile);
+            Iterator<Map.Entry<TileKey, CompletableFuture<int[]>>> eldest = tiles.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext())
+            {
+                CompletableFuture<int[]> candidate = eldest.next().getValue();
+                if (!candidate.isDone() || candidate.isCompletedExceptionally())
+                    continue;
+                bytes -= sizeOf(candidate.join());
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private static long sizeOf(int[] tile)
+    {
+        return 4L * tile.length + ENTRY_OVERHEAD;
+    }
+
+    public void clear()
+    {
+        lock.lock();
+        try
+        {
+            tiles.clear();
+            bytes = 0;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public int size()
+    {
+        lock.lock();
+        try
+        {
+            return tiles.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public long bytes()
+    {
+        lock.lock();
+        try
+        {
+            return bytes;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public long hits()
+    {
+        return hits.sum();
+    }
+
+    public long misses()
+    {
+        return misses.sum();
+    }
+
+    public long coalesced()
+    {
+        return coalesced.sum();
+    }
+
+    public long evictions()
+    {
+        return evictions.sum();
+    }
+
+    public double hitRate()
+    {
+        long total = hits() + misses();
+        return total == 0 ? 0 : (double) hits() / total;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("TileCache[tiles=%d, %.1f of %.1f MB, hits=%d, misses=%d, coalesced=%d, evictions=%d]",
+                size(), bytes() / 1048576.0, maxBytes / 1048576.0, hits(), misses(), coalesced(), evictions());
+    }
+}
@@ -0,0 +1,110 @@
+package concurrency;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TileCacheTest {
+
+    private static TileKey key(int tileX) {
+        return new TileKey(0, 0, 0.01, tileX, 0, 8, 255);
+    }
+
+    @Test
+    public void testLoadsOnceForConcurrentRequests() throws Exception {
+        TileCache cache = new TileCache(1 << 20);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<int[]>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(threads.submit(() -> cache.get(key(0), () -> {
+                    loads.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return new int[64];
+                })));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            int[] first = results.get(0).get();
+            for (Future<int[]> result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            threads.shutdown();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.misses());
+        assertEquals(7, cache.hits());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        // room for two 64-int tiles but not three
+        TileCache cache = new TileCache(2 * (4 * 64 + 160) + 100);
+        cache.get(key(0), () -> new int[64]);
+        cache.get(key(1), () -> new int[64]);
+        // touch 0 so 1 is the least recently used
+        cache.get(key(0), () -> new int[64]);
+        cache.get(key(2), () -> new int[64]);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(key(0), () -> { loads.incrementAndGet(); return new int[64]; });
+        assertEquals(0, loads.get());
+        cache.get(key(1), () -> { loads.incrementAndGet(); return new int[64]; });
+        assertEquals(1, loads.get());
+        assertTrue(cache.bytes() <= 2 * (4 * 64 + 160) + 100);
+    }
+
+    @Test
+    public void testFailedLoadCanBeRetried() {
+        TileCache cache = new TileCache(1 << 20);
+        try {
+            cache.get(key(0), () -> { throw new IllegalStateException("boom"); });
+            fail("loader exception should propagate");
+        } catch (IllegalStateException expected) {
+            // the next call should load again
+        }
+        assertEquals(64, cache.get(key(0), () -> new int[64]).length);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testRenderedFromCacheMatchesDirectRender() {
+        Viewport view = Viewport.defaultView(150);
+        MandelbrotRaster expected = new MandelbrotRaster(view);
+        expected.render();
+        try (CachedMandelbrot cached = new CachedMandelbrot(view.xStart, view.yStart, 3)) {
+            assertArrayEquals(expected.pixels, cached.render(view).pixels);
+            long misses = cached.cache.misses();
+
+            // pan right and back, the second visit should be free
+            Viewport panned = new Viewport(view.xStart + 100 * view.scale, view.yStart, view.scale,
+                    view.width, view.height, view.iterationMax);
+            cached.render(panned);
+            long missesAfterPan = cached.cache.misses();
+            assertTrue(missesAfterPan > misses);
+            assertArrayEquals(expected.pixels, cached.render(view).pixels);
+            assertEquals(missesAfterPan, cached.cache.misses());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package concurrency;
+
+import java.util.Objects;
+
+/**
+ * Identifies one square tile of iteration counts: the grid it belongs to (origin in the complex plane and scale),
+ * its position in that grid, its size and the iteration limit. Pixel (i, j) of tile (tileX, tileY) is the point
+ * (originX + scale * (tileX * tileSize + i), originY + scale * (tileY * tileSize + j)).
+ */
+public final class TileKey
+{
+    public final double originX;
+    public final double originY;
+    public final double scale;
+    public final int tileX;
+    public final int tileY;
+    public final int tileSize;
+    public final int iterationMax;
+
+    public TileKey(double originX, double originY, double scale, int tileX, int tileY, int tileSize, int iterationMax)
+    {
+        this.originX = originX;  this.originY = originY;  this.scale = scale;
+        this.tileX = tileX;  this.tileY = tileY;  this.tileSize = tileSize;  this.iterationMax = iterationMax;
+    }
+
+    // first pixel of the tile, counted from the grid origin
+    public int pixelX()
+    {
+        return tileX * tileSize;
+    }
+
+    public int pixelY()
+    {
+        return tileY * tileSize;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+        if (!(o instanceof TileKey))
+            return false;
+        TileKey other = (TileKey) o;
+        return Double.compare(originX, other.originX) == 0 && Double.compare(originY, other.originY) == 0
+                && Double.compare(scale, other.scale) == 0 && tileX == other.tileX && tileY == other.tileY
+                && tileSize == other.tileSize && iterationMax == other.iterationMax;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(originX, originY, scale, tileX, tileY, tileSize, iterationMax);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TileKey[origin=(" + originX + ", " + originY + "), scale=" + scale + ", tile=(" + tileX + ", " + tileY
+                + "), size=" + tileSize + ", iterations=" + iterationMax + "]";
+    }
+}
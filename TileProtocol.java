@@ -0,0 +1,155 @@
+package concurrency;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The wire format between RenderCoordinator and RenderWorker, big-endian over one TCP connection per worker.
+ *
+ *  worker -> coordinator  HELLO   magic, version, worker name (UTF), thread count
+ *  coordinator -> worker  TILE    tile id, xStart, yStart, scale (the view), tile x, y, width, height, iterationMax
+ *  worker -> coordinator  RESULT  tile id, then width * height iteration counts, row-major, each 1, 2 or 4 bytes
+ *                                 wide depending on iterationMax (see elementBytes)
+ *  coordinator -> worker  BYE     nothing more to do, disconnect
+ *
+ * A worker may have several tiles outstanding and can answer them in any order.
+ */
+public final class TileProtocol
+{
+    public static final int MAGIC = 0x4d425752; // "MBWR"
+    public static final int VERSION = 1;
+
+    public static final byte TILE = 1;
+    public static final byte RESULT = 2;
+    public static final byte BYE = 3;
+
+    private TileProtocol()
+    {
+    }
+
+    /**
+     * One tile of a view; the counts travel in the same narrow element width IterationBuffer uses
+     */
+    public static final class Tile
+    {
+        public final int id;
+        public final Viewport view;
+        public final int x; public final int y; public final int width; public final int height;
+
+        public Tile(int id, Viewport view, int x, int y, int width, int height)
+        {
+            this.id = id;  this.view = view;
+            this.x = x;  this.y = y;  this.width = width;  this.height = height;
+        }
+
+        public int pixels()
+        {
+            return width * height;
+        }
+    }
+
+    public static int elementBytes(int iterationMax)
+    {
+        return iterationMax <= 0xff ? 1 : iterationMax <= 0xffff ? 2 : 4;
+    }
+
+    public static void writeHello(DataOutputStream out, String name, int threads) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(name);
+        out.writeInt(threads);
+        out.flush();
+    }
+
+    /**
+     * Reads the rest of a HELLO and returns the worker's name; throws if it isn't one of ours
+     */
+    public static String readHello(DataInputStream in) throws IOException
+    {
+        int magic = in.readInt();
+        int version = in.readInt();
+        if (magic != MAGIC || version != VERSION)
+            throw new IOException("not a render worker or a different protocol version: "
+                                  + Integer.toHexString(magic) + " v" + version);
+        String name = in.readUTF();
+        in.readInt(); // thread count, informational
+        return name;
+    }
+
+    public static void writeTile(DataOutputStream out, Tile tile) throws IOException
+    {
+        Viewport view = tile.view;
+        out.writeByte(TILE);
+        out.writeInt(tile.id);
+        out.writeDouble(view.xStart);
+        out.writeDouble(view.yStart);
+        out.writeDouble(view.scale);
+        out.writeInt(tile.x);
+        out.writeInt(tile.y);
+        out.writeInt(tile.width);
+        out.writeInt(tile.height);
+        out.writeInt(view.iterationMax);
+    }
+
+    /**
+     * Reads the rest of a TILE message, after its type byte. The view it carries is only good for mapping pixels
+     * inside the tile (its width and height are just big enough to hold it).
+     */
+    public static Tile readTile(DataInputStream in) throws IOException
+    {
+        int id = in.readInt();
+        double xStart = in.readDouble();
+        double yStart = in.readDouble();
+        double scale = in.readDouble();
+        int x = in.readInt();
+        int y = in.readInt();
+        int width = in.readInt();
+        int height = in.readInt();
+        int iterationMax = in.readInt();
+        Viewport view = new Viewport(xStart, yStart, scale, x + width, y + height, iterationMax);
+        return new Tile(id, view, x, y, width, height);
+    }
+
+    public static void writeResult(DataOutputStream out, int id, int[] counts, int iterationMax) throws IOException
+    {
+        int elementBytes = elementBytes(iterationMax);
+        ByteBuffer buffer = ByteBuffer.allocate(counts.length * elementBytes);
+        for (int count : counts)
+        {
+            if (elementBytes == 1)
+                buffer.put((byte) count);
+            else if (elementBytes == 2)
+                buffer.putShort((short) count);
+            else
+                buffer.putInt(count);
+        }
+        out.writeByte(RESULT);
+        out.writeInt(id);
+        out.write(buffer.array());
+    }
+
+    /**
+     * Reads the counts of a RESULT for tile, after its type byte and id
+     */
+    public static int[] readCounts(DataInputStream in, Tile tile) throws IOException
+    {
+        int elementBytes = elementBytes(tile.view.iterationMax);
+        byte[] bytes = new byte[tile.pixels() * elementBytes];
+        in.readFully(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int[] counts = new int[tile.pixels()];
+        for (int k = 0; k < counts.length; k++)
+        {
+            if (elementBytes == 1)
+                counts[k] = buffer.get() & 0xff;
+            else if (elementBytes == 2)
+                counts[k] = buffer.getShort() & 0xffff;
+            else
+                counts[k] = buffer.getInt();
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,50 @@
+package concurrency;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one rendered tile; the event's duration is the time spent plotting it and its thread is
+ * the worker. Record with e.g. java -XX:StartFlightRecording=filename=render.jfr ... and look for
+ * "Mandelbrot / Tile Render" in JDK Mission Control, or run jfr print --events concurrency.TileRender render.jfr.
+ * Costs next to nothing when no recording is running.
+ */
+@Name("concurrency.TileRender")
+@Label("Tile Render")
+@Category("Mandelbrot")
+@Description("One tile of a Mandelbrot render")
+@StackTrace(false)
+public class TileRenderEvent extends Event
+{
+    @Label("X")
+    public int x;
+
+    @Label("Y")
+    public int y;
+
+    @Label("Width")
+    public int width;
+
+    @Label("Height")
+    public int height;
+
+    @Label("Pixels")
+    public int pixels;
+
+    @Label("Iterations")
+    @Description("Iterations the kernel actually ran for the tile's pixels")
+    public long iterations;
+
+    @Label("Queue Wait")
+    @Description("Time between the tile being handed to the scheduler and a worker starting on it")
+    @Timespan(Timespan.NANOSECONDS)
+    public long queueNanos;
+
+    @Label("Iteration Limit")
+    public int iterationMax;
+}
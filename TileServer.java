@@ -0,0 +1,486 @@
+package concurrency;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves the set as map-style PNG tiles over HTTP: GET /tiles/z/x/y.png, where zoom z has 2^z by 2^z tiles of
+ * TILE_SIZE pixels over the square WORLD_SIZE wide at (WORLD_X, WORLD_Y), and ?iterations=n sets the limit.
+ * GET /stats returns the request counts, latency percentiles and cache figures as JSON.
+ *
+ * Iteration counts come out of a TileCache. A tile that isn't cached is rendered on a fixed pool with a bounded
+ * queue; requests for a tile that is already being rendered wait on the same future rather than queueing another
+ * render, and when the queue is full the request gets a 503 with Retry-After straight away instead of piling up.
+ * Requests are handled asynchronously on a small pool of HTTP threads, which also colour, encode and send the tiles.
+ * That pool has a bounded queue too. When it's full a new request gets a 503 from the server's dispatcher thread,
+ * and a finished render whose tile can't be handed back to the pool gets its 503 from a thread that does nothing
+ * else, so a render thread never encodes a tile or waits on a slow client.
+ */
+public class TileServer implements AutoCloseable
+{
+    public static final int DEFAULT_PORT = 8080;
+
+    // zoom 0 is one tile holding the whole set
+    public static final double WORLD_X = -2.5;
+    public static final double WORLD_Y = -2.0;
+    public static final double WORLD_SIZE = 4.0;
+
+    public static int TILE_SIZE = 256;
+    // past this the pixels are closer together than doubles can tell apart
+    public static int MAX_ZOOM = 36;
+    public static int DEFAULT_ITERATIONS = 255;
+    public static int MAX_ITERATIONS = 100_000;
+    public static long CACHE_BYTES = 128L << 20;
+    public static int HTTP_THREADS = 4;
+    public static int HTTP_QUEUE = 256;
+
+    public final TileCache cache;
+    public final Palette palette;
+
+    private final HttpServer server;
+    // package-private so tests can fill it up
+    final ThreadPoolExecutor renderers;
+    final ThreadPoolExecutor handlers;
+    // answers the renders that finish while the HTTP pool is full
+    private final ExecutorService busy = Executors.newSingleThreadExecutor(daemonThreads("tile-busy-"));
+    // set while the dispatcher thread answers a request the HTTP pool had no room for
+    private final ThreadLocal<Boolean> shedding = ThreadLocal.withInitial(() -> false);
+    // tiles being rendered right now, so a second request joins the first
+    private final ConcurrentHashMap<TileKey, CompletableFuture<int[]>> rendering = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Listen on port (0 picks a free one, see port()) with renderThreads rendering and at most renderQueue tiles
+     * waiting for them
+     */
+    public TileServer(int port, int renderThreads, int renderQueue) throws IOException
+    {
+        this(port, renderThreads, renderQueue, new TileCache(CACHE_BYTES), Palette.classic());
+    }
+
+    public TileServer(int port, int renderThreads, int renderQueue, TileCache cache, Palette palette)
+            throws IOException
+    {
+        this.cache = cache;
+        this.palette = palette;
+        renderers = newPool("tile-render-", renderThreads, renderQueue, new ThreadPoolExecutor.AbortPolicy());
+        handlers = newPool("tile-http-", HTTP_THREADS, HTTP_QUEUE, new ThreadPoolExecutor.AbortPolicy());
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/tiles/", this::handleTile);
+        server.createContext("/stats", this::handleStats);
+        server.setExecutor(this::dispatch);
+        server.start();
+    }
+
+    private static ThreadPoolExecutor newPool(String name, int threads, int queue,
+                                              RejectedExecutionHandler whenFull)
+    {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queue),
+                daemonThreads(name), whenFull);
+    }
+
+    private static ThreadFactory daemonThreads(String name)
+    {
+        AtomicInteger count = new AtomicInteger();
+        return job -> {
+            Thread thread = new Thread(job, name + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Called by the server's dispatcher thread for every request. When the HTTP pool has no room the request is
+     * handled right here with shedding set, so a tile request only costs a short 503 and /stats still answers.
+     */
+    private void dispatch(Runnable exchange)
+    {
+        try
+        {
+            handlers.execute(exchange);
+        }
+        catch (RejectedExecutionException e)
+        {
+            shedding.set(true);
+            try
+            {
+                exchange.run();
+            }
+            finally
+            {
+                shedding.set(false);
+            }
+        }
+    }
+
+    public int port()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * The cache key for tile (x, y) at zoom z. Each key is anchored at its own tile's corner, so the pixel
+     * coordinates stay small at any zoom.
+     */
+    public static TileKey key(int z, int x, int y, int iterations)
+    {
+        double span = WORLD_SIZE / (1L << z);
+        return new TileKey(WORLD_X + span * x, WORLD_Y + span * y, span / TILE_SIZE, 0, 0, TILE_SIZE, iterations);
+    }
+
+    /**
+     * The counts for key: from the cache, from a render already under way, or from a new render on the pool. The
+     * future fails with RejectedExecutionException if the render queue is full.
+     */
+    CompletableFuture<int[]> counts(TileKey key)
+    {
+        int[] cached = cache.peek(key);
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
+        CompletableFuture<int[]> render = new CompletableFuture<>();
+        CompletableFuture<int[]> existing = rendering.putIfAbsent(key, render);
+        if (existing != null)
+        {
+            coalesced.increment();
+            return existing;
+        }
+        try
+        {
+            renderers.execute(() -> {
+                try
+                {
+                    render.complete(cache.get(key, () -> CachedMandelbrot.computeTile(key)));
+                }
+                catch (RuntimeException | Error e)
+                {
+                    render.completeExceptionally(e);
+                }
+                finally
+                {
+                    rendering.remove(key, render);
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            rendering.remove(key, render);
+            render.completeExceptionally(e);
+        }
+        return render;
+    }
+
+    private void handleTile(HttpExchange exchange)
+    {
+        long start = System.nanoTime();
+        if (!"GET".equals(exchange.getRequestMethod()))
+        {
+            respondText(exchange, 405, "GET only", start);
+            return;
+        }
+        if (shedding.get())
+        {
+            respondBusy(exchange, start);
+            return;
+        }
+        // /tiles/z/x/y.png
+        String[] parts = exchange.getRequestURI().getPath().split("/");
+        int z, x, y, iterations;
+        try
+        {
+            if (parts.length != 5 || !parts[4].endsWith(".png"))
+                throw new NumberFormatException();
+            z = Integer.parseInt(parts[2]);
+            x = Integer.parseInt(parts[3]);
+            y = Integer.parseInt(parts[4].substring(0, parts[4].length() - 4));
+            iterations = iterations(exchange.getRequestURI().getQuery());
+        }
+        catch (NumberFormatException e)
+        {
+            respondText(exchange, 400, "expected /tiles/z/x/y.png[?iterations=1.." + MAX_ITERATIONS + "]", start);
+            return;
+        }
+        if (z < 0 || z > MAX_ZOOM || x < 0 || y < 0 || x >= (1L << z) || y >= (1L << z))
+        {
+            respondText(exchange, 404, "no such tile", start);
+            return;
+        }
+
+        TileKey key = key(z, x, y, iterations);
+        // runs on whichever thread completes the render, so it only hands the response over
+        counts(key).whenComplete((counts, failure) -> {
+            try
+            {
+                handlers.execute(() -> {
+                    if (failure == null)
+                        respond(exchange, 200, "image/png", encode(counts, iterations), start);
+                    else if (failure instanceof RejectedExecutionException)
+                        respondBusy(exchange, start);
+                    else
+                        respondText(exchange, 500, "render failed: " + failure, start);
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                busy.execute(() -> respondBusy(exchange, start));
+            }
+        });
+    }
+
+    private static int iterations(String query)
+    {
+        if (query == null)
+            return DEFAULT_ITERATIONS;
+        for (String parameter : query.split("&"))
+        {
+            if (parameter.startsWith("iterations="))
+            {
+                int iterations = Integer.parseInt(parameter.substring("iterations=".length()));
+                if (iterations < 1 || iterations > MAX_ITERATIONS)
+                    throw new NumberFormatException();
+                return iterations;
+            }
+        }
+        return DEFAULT_ITERATIONS;
+    }
+
+    byte[] encode(int[] counts, int iterations)
+    {
+        int[] pixels = new int[counts.length];
+        for (int k = 0; k < counts.length; k++)
+            pixels[k] = counts[k] >= iterations ? palette.insideRGB : palette.colour(counts[k]);
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, TILE_SIZE, TILE_SIZE, pixels, 0, TILE_SIZE);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        try
+        {
+            ImageIO.write(image, "png", png);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return png.toByteArray();
+    }
+
+    private void handleStats(HttpExchange exchange)
+    {
+        byte[] json = statsJson().getBytes(StandardCharsets.UTF_8);
+        try (exchange)
+        {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, json.length);
+            exchange.getResponseBody().write(json);
+        }
+        catch (IOException e)
+        {
+            // the client went away
+        }
+    }
+
+    private void respondBusy(HttpExchange exchange, long start)
+    {
+        rejected.increment();
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        respondText(exchange, 503, "busy, try again", start);
+    }
+
+    private void respondText(HttpExchange exchange, int status, String message, long start)
+    {
+        respond(exchange, status, "text/plain; charset=utf-8", (message + "\n").getBytes(StandardCharsets.UTF_8),
+                start);
+    }
+
+    private void respond(HttpExchange exchange, int status, String contentType, byte[] body, long start)
+    {
+        // counted before it goes out, so a client that reads /stats after its response sees it there
+        statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+        try (exchange)
+        {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            if (status == 200)
+                // a tile never changes
+                exchange.getResponseHeaders().set("Cache-Control", "public, max-age=86400, immutable");
+            exchange.sendResponseHeaders(status, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+        }
+        catch (IOException e)
+        {
+            // the client went away
+        }
+        finally
+        {
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    public long requests()
+    {
+        long requests = 0;
+        for (LongAdder count : statuses.values())
+            requests += count.sum();
+        return requests;
+    }
+
+    public long responses(int status)
+    {
+        LongAdder count = statuses.get(status);
+        return count == null ? 0 : count.sum();
+    }
+
+    // requests that joined a render already under way
+    public long coalesced()
+    {
+        return coalesced.sum();
+    }
+
+    public long rejected()
+    {
+        return rejected.sum();
+    }
+
+    public double latencyMillis(double fraction)
+    {
+        return latency.percentileMillis(fraction);
+    }
+
+    public String statsJson()
+    {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"requests\": ").append(requests()).append(",\n  \"statuses\": {");
+        String separator = "";
+        for (Map.Entry<Integer, LongAdder> status : new TreeMap<>(statuses).entrySet())
+        {
+            json.append(separator).append('"').append(status.getKey()).append("\": ").append(status.getValue().sum());
+            separator = ", ";
+        }
+        json.append(String.format(Locale.ROOT, "},\n  \"latencyMillis\": {\"p50\": %.3f, \"p90\": %.3f, "
+                                  + "\"p99\": %.3f, \"p999\": %.3f},\n", latencyMillis(0.5), latencyMillis(0.9),
+                                  latencyMillis(0.99), latencyMillis(0.999)));
+        json.append(String.format(Locale.ROOT, "  \"cache\": {\"tiles\": %d, \"bytes\": %d, \"hits\": %d, "
+                                  + "\"misses\": %d, \"evictions\": %d, \"hitRate\": %.4f},\n", cache.size(),
+                                  cache.bytes(), cache.hits(), cache.misses(), cache.evictions(), cache.hitRate()));
+        json.append("  \"coalesced\": ").append(coalesced()).append(",\n");
+        json.append("  \"rejected\": ").append(rejected()).append(",\n");
+        json.append("  \"rendering\": ").append(renderers.getActiveCount()).append(",\n");
+        json.append("  \"queued\": ").append(renderers.getQueue().size()).append("\n}\n");
+        return json.toString();
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        renderers.shutdownNow();
+        handlers.shutdownNow();
+        busy.shutdownNow();
+    }
+
+    /**
+     * Arguments (all optional): serve port renderThreads renderQueue, to run until killed, or
+     * load clients requestsPerClient zoom renderThreads renderQueue, to start a server on a free port and hit it
+     * from clients threads at once with random tiles of one zoom level (a small level repeats tiles, a big one
+     * mostly misses the cache), then print the throughput and the server's stats
+     */
+    public static void main(String[] args) throws Exception  {
+        System.setProperty("java.awt.headless", "true");
+        String mode = args.length > 0 ? args[0] : "load";
+        int cores = Runtime.getRuntime().availableProcessors();
+        if (mode.equals("serve"))
+        {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+            int threads = args.length > 2 ? Integer.parseInt(args[2]) : cores;
+            int queue = args.length > 3 ? Integer.parseInt(args[3]) : 4 * threads;
+            TileServer server = new TileServer(port, threads, queue);
+            System.out.println("serving http://localhost:" + server.port() + "/tiles/0/0/0.png and /stats");
+            Thread.currentThread().join();
+            return;
+        }
+        if (!mode.equals("load"))
+            throw new IllegalArgumentException("mode must be serve or load: " + mode);
+
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int requestsPerClient = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int zoom = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : cores;
+        int queue = args.length > 5 ? Integer.parseInt(args[5]) : 4 * threads;
+        try (TileServer server = new TileServer(0, threads, queue))
+        {
+            HttpClient client = HttpClient.newHttpClient();
+            LatencyHistogram seen = new LatencyHistogram();
+            List<Thread> loops = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int c = 0; c < clients; c++)
+            {
+                Random random = new Random(c);
+                loops.add(new Thread(() -> {
+                    for (int r = 0; r < requestsPerClient; r++)
+                    {
+                        int side = 1 << zoom;
+                        URI uri = URI.create("http://localhost:" + server.port() + "/tiles/" + zoom + "/"
+                                             + random.nextInt(side) + "/" + random.nextInt(side) + ".png");
+                        long sent = System.nanoTime();
+                        try
+                        {
+                            client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.discarding());
+                        }
+                        catch (IOException e)
+                        {
+                            System.err.println(e);
+                        }
+                        catch (InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        seen.record(System.nanoTime() - sent);
+                    }
+                }, "load-client-" + c));
+            }
+            for (Thread loop : loops)
+                loop.start();
+            for (Thread loop : loops)
+                loop.join();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf(Locale.ROOT, "%d requests from %d clients in %.2f s, %.0f requests/s, "
+                              + "client p50 %.2f ms p99 %.2f ms%n", seen.count(), clients, seconds,
+                              seen.count() / seconds, seen.percentileMillis(0.5), seen.percentileMillis(0.99));
+            System.out.print(server.statsJson());
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class TileServerTest {
+
+    private static HttpURLConnection get(TileServer server, String path) throws IOException {
+        URL url = new URL("http://localhost:" + server.port() + path);
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    private static Runnable stuckUntil(CountDownLatch release) {
+        return () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    // every thread busy with a job and no room left in the queue
+    private static void fill(ThreadPoolExecutor pool, Runnable job) throws InterruptedException {
+        while (true) {
+            try {
+                pool.execute(job);
+            } catch (RejectedExecutionException e) {
+                if (pool.getActiveCount() == pool.getMaximumPoolSize() && pool.getQueue().remainingCapacity() == 0)
+                    return;
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    @Test
+    public void testTileMatchesTheKernel() throws Exception {
+        try (TileServer server = new TileServer(0, 2, 8)) {
+            HttpURLConnection connection = get(server, "/tiles/2/1/1.png?iterations=500");
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("image/png", connection.getContentType());
+            BufferedImage image;
+            try (InputStream in = connection.getInputStream()) {
+                image = ImageIO.read(in);
+            }
+            int size = TileServer.TILE_SIZE;
+            assertEquals(size, image.getWidth());
+            int[] counts = CachedMandelbrot.computeTile(TileServer.key(2, 1, 1, 500));
+            for (int j = 0; j < size; j++) {
+                for (int i = 0; i < size; i++) {
+                    int count = counts[j * size + i];
+                    int expected = count >= 500 ? server.palette.insideRGB : server.palette.colour(count);
+                    assertEquals(expected, image.getRGB(i, j) & 0xffffff);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsRenderATileOnce() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(16);
+        try (TileServer server = new TileServer(0, 4, 16)) {
+            List<Future<Integer>> statuses = new ArrayList<>();
+            for (int c = 0; c < 32; c++)
+                statuses.add(clients.submit(() -> get(server, "/tiles/3/2/3.png?iterations=20000").getResponseCode()));
+            for (Future<Integer> status : statuses)
+                assertEquals(200, (int) status.get());
+            assertEquals(1, server.cache.misses());
+            assertEquals(31, server.cache.hits() + server.coalesced());
+            assertEquals(32, server.responses(200));
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFullRenderQueueAnswers503() throws Exception {
+        try (TileServer server = new TileServer(0, 1, 1)) {
+            CountDownLatch release = new CountDownLatch(1);
+            Runnable stuck = () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+            // one running, one waiting: nothing more fits
+            server.renderers.execute(stuck);
+            server.renderers.execute(stuck);
+            HttpURLConnection busy = get(server, "/tiles/1/0/0.png");
+            assertEquals(503, busy.getResponseCode());
+            assertEquals("1", busy.getHeaderField("Retry-After"));
+            assertEquals(1, server.rejected());
+
+            release.countDown();
+            // the stuck jobs have to leave the queue before there's room again
+            while (!server.renderers.getQueue().isEmpty())
+                Thread.sleep(1);
+            assertEquals(200, get(server, "/tiles/1/0/0.png").getResponseCode());
+        }
+    }
+
+    @Test
+    public void testFullHttpPoolAnswers503() throws Exception {
+        ExecutorService clients = Executors.newSingleThreadExecutor();
+        CountDownLatch rendersGo = new CountDownLatch(1);
+        CountDownLatch handlersGo = new CountDownLatch(1);
+        try (TileServer server = new TileServer(0, 1, 4)) {
+            server.renderers.execute(stuckUntil(rendersGo));
+            Future<HttpURLConnection> waiting = clients.submit(() -> {
+                HttpURLConnection connection = get(server, "/tiles/1/0/0.png");
+                connection.getResponseCode();
+                return connection;
+            });
+            // that request's render is queued and its HTTP thread has moved on
+            while (server.renderers.getQueue().isEmpty() || server.handlers.getActiveCount() > 0)
+                Thread.sleep(1);
+            fill(server.handlers, stuckUntil(handlersGo));
+
+            // a new request is turned away at once
+            HttpURLConnection turnedAway = get(server, "/tiles/1/1/1.png");
+            assertEquals(503, turnedAway.getResponseCode());
+            assertEquals("1", turnedAway.getHeaderField("Retry-After"));
+
+            // and so is the waiting one once its render is done, without the render thread encoding the tile
+            rendersGo.countDown();
+            HttpURLConnection rendered = waiting.get();
+            assertEquals(503, rendered.getResponseCode());
+            assertEquals("1", rendered.getHeaderField("Retry-After"));
+            assertEquals(2, server.rejected());
+            assertEquals(1, server.cache.size());
+        } finally {
+            handlersGo.countDown();
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBadRequests() throws Exception {
+        try (TileServer server = new TileServer(0, 1, 4)) {
+            assertEquals(404, get(server, "/tiles/1/2/0.png").getResponseCode());
+            assertEquals(404, get(server, "/tiles/-1/0/0.png").getResponseCode());
+            assertEquals(400, get(server, "/tiles/1/0/zero.png").getResponseCode());
+            assertEquals(400, get(server, "/tiles/1/0/0.png?iterations=0").getResponseCode());
+            assertEquals(400, get(server, "/tiles/1/0").getResponseCode());
+            HttpURLConnection stats = get(server, "/stats");
+            assertEquals(200, stats.getResponseCode());
+            try (InputStream in = stats.getInputStream()) {
+                String json = new String(in.readAllBytes(), "UTF-8");
+                assertTrue(json, json.contains("\"404\": 2"));
+                assertTrue(json, json.contains("\"400\": 3"));
+            }
+        }
+    }
+
+    @Test
+    public void testLatencyPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 100; millis++)
+            histogram.record(millis * 1_000_000L);
+        assertEquals(100, histogram.count());
+        // a bucket's top is at most an eighth above what went in
+        assertTrue(histogram.percentileMillis(0.5) >= 50 && histogram.percentileMillis(0.5) <= 50 * 1.125);
+        assertTrue(histogram.percentileMillis(0.99) >= 99 && histogram.percentileMillis(0.99) <= 99 * 1.125);
+        for (long micros = 0; micros < 1_000_000; micros += 37)
+            assertTrue(LatencyHistogram.upperMicros(LatencyHistogram.bucket(micros)) >= micros);
+    }
+}
@@ -0,0 +1,97 @@
+package concurrency;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Escape-time kernel that iterates a whole lane-width of neighbouring pixels in a row at once with the Vector API.
+ * Lanes that have escaped are masked off and the loop stops when none are left. Each lane does the same floating
+ * point operations in the same order as MandelbrotKernel, so the counts are identical.
+ * Needs --add-modules jdk.incubator.vector at compile and run time; don't touch this class unless
+ * MandelbrotRaster.vectorKernelAvailable() says so.
+ */
+public final class VectorKernel
+{
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    // below this many lanes the masking overhead eats the gain, use the scalar kernel instead
+    public static final int MIN_LANES = 4;
+
+    private VectorKernel() {}
+
+    public static boolean wideEnough()
+    {
+        return SPECIES.length() >= MIN_LANES;
+    }
+
+    public static int lanes()
+    {
+        return SPECIES.length();
+    }
+
+    /**
+     * Iteration counts for pixels iStart (inclusive) to iEnd (exclusive) of row j, into counts[0 .. iEnd - iStart).
+     * Returns the iterations the pixels actually ran, as MandelbrotKernel.iterationsRun() counts them: none for
+     * the lanes answered by the cardioid and bulb test, the count for every other lane.
+     * @param xs scratch space of at least lanes() doubles
+     * @param laneCounts scratch space of at least lanes() doubles
+     */
+    public static long mandelbrotRow(Viewport view, int j, int iStart, int iEnd, int[] counts,
+                                     double[] xs, double[] laneCounts)
+    {
+        int maxIterations = view.iterationMax;
+        double y0 = view.y(j);
+        DoubleVector cy = DoubleVector.broadcast(SPECIES, y0);
+        int lanes = SPECIES.length();
+        long iterationsRun = 0;
+        for (int i = iStart; i < iEnd; i += lanes)
+        {
+            int n = Math.min(lanes, iEnd - i);
+            // x per lane computed exactly as the scalar renderers do; the tail is padded with a point that escapes at once
+            for (int lane = 0; lane < lanes; lane++)
+            {
+                xs[lane] = lane < n ? view.x(i + lane) : 4.0;
+                laneCounts[lane] = 0;
+            }
+            DoubleVector cx = DoubleVector.fromArray(SPECIES, xs, 0);
+            VectorMask<Double> active = SPECIES.indexInRange(0, n);
+
+            // same shortcut as the scalar kernel: lanes in the cardioid or bulb are done before we start
+            long interior = 0;
+            for (int lane = 0; lane < n; lane++)
+            {
+                if (MandelbrotKernel.inCardioidOrBulb(xs[lane], y0))
+                {
+                    interior |= 1L << lane;
+                    laneCounts[lane] = maxIterations;
+                }
+            }
+            active = active.andNot(VectorMask.fromLong(SPECIES, interior));
+            DoubleVector count = DoubleVector.fromArray(SPECIES, laneCounts, 0);
+
+            DoubleVector zx = cx;
+            DoubleVector zy = cy;
+            for (int t = 0; t < maxIterations && active.anyTrue(); t++)
+            {
+                DoubleVector zx2 = zx.mul(zx);
+                DoubleVector zy2 = zy.mul(zy);
+                active = active.andNot(zx2.add(zy2).compare(VectorOperators.GT, 4.0));
+                // a lane's count is the number of iterations it survived, i.e. the t at which it escaped
+                count = count.add(1.0, active);
+                zy = zx.mul(2.0).mul(zy).add(cy);
+                zx = zx2.sub(zy2).add(cx);
+            }
+
+            count.intoArray(laneCounts, 0);
+            for (int lane = 0; lane < n; lane++)
+            {
+                counts[i - iStart + lane] = (int) laneCounts[lane];
+                if ((interior & 1L << lane) == 0)
+                    iterationsRun += counts[i - iStart + lane];
+            }
+        }
+        return iterationsRun;
+    }
+}
@@ -0,0 +1,63 @@
+package concurrency;
+
+/**
+ * The part of the complex plane being rendered, together with the pixel size of the image and the iteration limit.
+ * Pixel (i, j) maps to c = x(i) + i*y(j), computed the same way as in BasicMandelbrot so results are pixel-exact.
+ */
+public final class Viewport
+{
+    public final double xStart;
+    public final double yStart;
+    public final double scale;
+    public final int width;
+    public final int height;
+    public final int iterationMax;
+
+    public Viewport(double xStart, double yStart, double scale, int width, int height, int iterationMax)
+    {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("image size must be positive: " + width + "x" + height);
+        if (iterationMax <= 0)
+            throw new IllegalArgumentException("iterationMax must be positive: " + iterationMax);
+        this.xStart = xStart;  this.yStart = yStart;  this.scale = scale;
+        this.width = width;  this.height = height;  this.iterationMax = iterationMax;
+    }
+
+    /**
+     * A square view of side mandelbrotSize centred on (xCentre, yCentre), the way the renderers define their constants
+     */
+    public static Viewport centred(double xCentre, double yCentre, double mandelbrotSize,
+                                   int imageSize, int iterationMax)
+    {
+        return new Viewport(xCentre - mandelbrotSize/2, yCentre - mandelbrotSize/2,
+                            mandelbrotSize/imageSize, imageSize, imageSize, iterationMax);
+    }
+
+    // the default view used by BasicMandelbrot and friends
+    public static Viewport defaultView(int imageSize)
+    {
+        return centred(0, 0.75, 1, imageSize, 255);
+    }
+
+    public double x(int i)
+    {
+        return xStart + scale * i;
+    }
+
+    public double y(int j)
+    {
+        return yStart + scale * j;
+    }
+
+    public int pixelCount()
+    {
+        return width * height;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Viewport[x=" + xStart + ", y=" + yStart + ", scale=" + scale + ", "
+                + width + "x" + height + ", iterations=" + iterationMax + "]";
+    }
+}
@@ -0,0 +1,164 @@
+package concurrency;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Batch zoom animation: renders frameCount frames going from one view to another and writes them as PNGs, through a
+ * RenderPipeline: the tiles of every frame share one pool, finished frames go to the writer threads, and no more
+ * than maxFramesInFlight frames exist at once, so memory stays flat however many frames there are.
+ */
+public class ZoomAnimation
+{
+    public static int TILE_SIZE = 64;
+
+    private final Viewport start;
+    private final Viewport end;
+    private final int frameCount;
+    private final File outputDir;
+    private final int threadCount;
+    private final int writerCount;
+    private final int maxFramesInFlight;
+
+    private final LongAdder renderNanos = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+
+    public ZoomAnimation(Viewport start, Viewport end, int frameCount, File outputDir,
+                         int threadCount, int writerCount, int maxFramesInFlight)
+    {
+        if (start.width != end.width || start.height != end.height)
+            throw new IllegalArgumentException("start and end views must be the same size in pixels");
+        if (frameCount < 1)
+            throw new IllegalArgumentException("frameCount must be at least 1: " + frameCount);
+        this.start = start;  this.end = end;  this.frameCount = frameCount;  this.outputDir = outputDir;
+        this.threadCount = threadCount;  this.writerCount = writerCount;  this.maxFramesInFlight = maxFramesInFlight;
+    }
+
+    /**
+     * The view for a frame: the size shrinks geometrically (a constant zoom factor per frame) and the centre moves
+     * in step with the size, so the zoom is about one fixed point, P = (E * startSize - S * endSize) / (startSize -
+     * endSize) for start and end centres S and E, which stays put on screen while everything else closes in on it.
+     * The end centre itself drifts from (E - S) / startSize of a view width off-centre to the middle. Views of the
+     * same size just pan from S to E.
+     */
+    public Viewport frameView(int frame)
+    {
+        double t = frameCount == 1 ? 1 : (double) frame / (frameCount - 1);
+        double startSize = start.scale * start.width;
+        double endSize = end.scale * end.width;
+        double size = startSize * Math.pow(endSize / startSize, t);
+        double move = startSize == endSize ? t : (startSize - size) / (startSize - endSize);
+        double startCentreX = start.xStart + start.scale * start.width / 2;
+        double startCentreY = start.yStart + start.scale * start.height / 2;
+        double centreX = startCentreX + (end.xStart + end.scale * end.width / 2 - startCentreX) * move;
+        double centreY = startCentreY + (end.yStart + end.scale * end.height / 2 - startCentreY) * move;
+        double scale = size / start.width;
+        int iterationMax = (int) Math.round(start.iterationMax + (end.iterationMax - start.iterationMax) * t);
+        return new Viewport(centreX - scale * start.width / 2, centreY - scale * start.height / 2, scale,
+                            start.width, start.height, iterationMax);
+    }
+
+    public File frameFile(int frame)
+    {
+        return new File(outputDir, String.format("frame_%05d.png", frame));
+    }
+
+    /**
+     * Render and write every frame, returning frames per second over the whole run
+     */
+    public double run() throws InterruptedException
+    {
+        if (!outputDir.isDirectory() && !outputDir.mkdirs())
+            throw new UncheckedIOException(new IOException("can't create " + outputDir));
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long startNanos = System.nanoTime();
+        try (RenderPipeline<Frame> pipeline = new RenderPipeline<>(threadCount, writerCount, maxFramesInFlight,
+                                                                    TILE_SIZE, stages(failure)))
+        {
+            for (int frame = 0; frame < frameCount && failure.get() == null; frame++)
+            {
+                Viewport view = frameView(frame);
+                pipeline.submit(new Frame(frame, new MandelbrotRaster(view)), view);
+            }
+            pipeline.awaitAll();
+        }
+        if (failure.get() != null)
+            throw new IllegalStateException("animation failed", failure.get());
+        return frameCount / ((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    private RenderPipeline.Stages<Frame> stages(AtomicReference<Throwable> failure)
+    {
+        return new RenderPipeline.Stages<>()
+        {
+            @Override
+            public void renderTile(Frame frame, int x, int y, int width, int height)
+            {
+                long start = System.nanoTime();
+                frame.raster.plotBlock(x, y, width, height);
+                renderNanos.add(System.nanoTime() - start);
+            }
+
+            @Override
+            public void write(Frame frame) throws IOException
+            {
+                long start = System.nanoTime();
+                ImageIO.write(frame.raster.image, "png", frameFile(frame.index));
+                encodeNanos.add(System.nanoTime() - start);
+            }
+
+            @Override
+            public void failed(Frame frame, Throwable e)
+            {
+                // the first failure stops new frames being started
+                failure.compareAndSet(null, e);
+            }
+        };
+    }
+
+    public double renderSeconds()
+    {
+        return renderNanos.sum() / 1e9;
+    }
+
+    public double encodeSeconds()
+    {
+        return encodeNanos.sum() / 1e9;
+    }
+
+    static class Frame
+    {
+        final int index;
+        final MandelbrotRaster raster;
+
+        Frame(int index, MandelbrotRaster raster)
+        {
+            this.index = index;
+            this.raster = raster;
+        }
+    }
+
+    /**
+     * Arguments (all optional): frameCount outputDir imageSize endSize
+     */
+    public static void main(String[] args) throws InterruptedException  {
+        int frameCount = args.length > 0 ? Integer.parseInt(args[0]) : 120;
+        File outputDir = new File(args.length > 1 ? args[1] : "zoom");
+        int imageSize = args.length > 2 ? Integer.parseInt(args[2]) : 400;
+        double endSize = args.length > 3 ? Double.parseDouble(args[3]) : 1e-4;
+
+        Viewport start = Viewport.defaultView(imageSize);
+        Viewport end = Viewport.centred(-0.743643887037151, 0.131825904205330, endSize, imageSize, 255);
+        int cores = Runtime.getRuntime().availableProcessors();
+        ZoomAnimation animation = new ZoomAnimation(start, end, frameCount, outputDir, cores,
+                                                    Math.max(1, cores / 4), 2 * cores);
+        double fps = animation.run();
+        System.out.printf("%d frames, %.2f frames/s (render %.1f s, encode %.1f s of thread time)%n",
+                          frameCount, fps, animation.renderSeconds(), animation.encodeSeconds());
+    }
+}
@@ -0,0 +1,39 @@
+package concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class ZoomAnimationTest {
+
+    @Test
+    public void testWritesEveryFrame() throws Exception {
+        File dir = Files.createTempDirectory("zoom").toFile();
+        Viewport start = Viewport.defaultView(70);
+        Viewport end = Viewport.centred(-0.7436, 0.1318, 0.01, 70, 255);
+        // only two frames in flight for nine frames, so the pipeline has to recycle
+        ZoomAnimation animation = new ZoomAnimation(start, end, 9, dir, 3, 2, 2);
+        assertTrue(animation.run() > 0);
+
+        for (int frame = 0; frame < 9; frame++) {
+            assertTrue(animation.frameFile(frame).isFile());
+        }
+        MandelbrotRaster expected = new MandelbrotRaster(animation.frameView(8));
+        expected.render();
+        BufferedImage last = ImageIO.read(animation.frameFile(8));
+        for (int j = 0; j < 70; j++) {
+            for (int i = 0; i < 70; i++) {
+                assertEquals(expected.image.getRGB(i, j), last.getRGB(i, j));
+            }
+        }
+        assertEquals(end.xStart, animation.frameView(8).xStart, 1e-12);
+        assertEquals(end.scale, animation.frameView(8).scale, 1e-15);
+    }
+}
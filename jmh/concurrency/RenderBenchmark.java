@@ -0,0 +1,81 @@
+package concurrency;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs RenderBenchmarks from key=value arguments with comma separated values, always with the GC profiler so
+ * allocation and GC rates come out next to the timings, e.g.
+ *   renderers=kernel,basic,threaded sizes=400,800 iterations=255,4096 blocks=20,80 threads=1,4,10 rounds=5
+ * The scheduled renderer also takes schedulers=pool,virtual,interleaved,dynamic,rows (see RenderSchedulers), and
+ * csv=file writes the results there as CSV. Anything not given keeps the default in RenderBenchmarks.
+ *
+ *   mvn -B -Pjmh package && java -cp target/benchmarks.jar concurrency.RenderBenchmark threads=1,4
+ */
+public class RenderBenchmark
+{
+    public static final List<String> ALL_RENDERERS = List.of(
+            "kernel", "basic", "blocked", "threaded", "lessBlockage", "forkJoin", "marianiSilver", "scheduled");
+
+    // option name here, @Param name in RenderBenchmarks
+    private static final Map<String, String> PARAMETERS = Map.of(
+            "sizes", "imageSize", "iterations", "iterationMax", "blocks", "blockSize", "threads", "threads",
+            "kernels", "kernel", "schedulers", "scheduler");
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args)
+        {
+            int eq = arg.indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException("expected key=value, got " + arg);
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        ChainedOptionsBuilder builder = new OptionsBuilder().addProfiler(GCProfiler.class);
+        for (String renderer : list(options.getOrDefault("renderers", String.join(",", ALL_RENDERERS))))
+            builder.include(RenderBenchmarks.class.getSimpleName() + "\\." + rendererMethod(renderer) + "$");
+        PARAMETERS.forEach((option, parameter) -> {
+            if (options.containsKey(option))
+                builder.param(parameter, list(options.get(option)).toArray(new String[0]));
+        });
+        if (options.containsKey("warmup"))
+            builder.warmupIterations(Integer.parseInt(options.get("warmup")));
+        if (options.containsKey("rounds"))
+            builder.measurementIterations(Integer.parseInt(options.get("rounds")));
+        if (options.containsKey("forks"))
+            builder.forks(Integer.parseInt(options.get("forks")));
+        if (options.containsKey("csv"))
+            builder.resultFormat(ResultFormatType.CSV).result(options.get("csv"));
+        new Runner(builder.build()).run();
+    }
+
+    // renderer names are matched ignoring case, so the old lower case ones still work
+    private static String rendererMethod(String renderer)
+    {
+        for (String name : ALL_RENDERERS)
+            if (name.equalsIgnoreCase(renderer))
+                return name;
+        throw new IllegalArgumentException("unknown renderer " + renderer + ", expected one of " + ALL_RENDERERS);
+    }
+
+    private static List<String> list(String csv)
+    {
+        List<String> values = new ArrayList<>();
+        for (String value : csv.split(","))
+            if (!value.isBlank())
+                values.add(value.trim().toLowerCase(Locale.ROOT));
+        return values;
+    }
+}
@@ -0,0 +1,303 @@
+package concurrency;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the kernel on its own and for every renderer, headless. Each renderer has its own state with
+ * only the parameters it actually uses, so e.g. BasicMandelbrot isn't run once per block size. The renderer (and its
+ * pool) is built once per trial, outside the measurement, and every invocation renders the whole image again.
+ *
+ * Run with -prof gc for allocation and GC rates, and -p to override any parameter, e.g.
+ *   java -jar target/benchmarks.jar RenderBenchmarks.threaded -p imageSize=800 -p threads=1,2,4,8 -prof gc
+ * RenderBenchmark's main does the same from the old key=value arguments.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector", "-Djava.awt.headless=true"})
+public class RenderBenchmarks
+{
+    static MandelbrotRaster.Kernel kernelFor(String name)
+    {
+        return MandelbrotRaster.Kernel.valueOf(name.toUpperCase(Locale.ROOT));
+    }
+
+    static Viewport view(int imageSize, int iterationMax)
+    {
+        return Viewport.centred(0, 0.75, 1, imageSize, iterationMax);
+    }
+
+    @State(Scope.Benchmark)
+    public static class KernelState
+    {
+        @Param({"400", "800"})
+        public int imageSize;
+        @Param({"255", "4096"})
+        public int iterationMax;
+        @Param({"scalar", "vector"})
+        public String kernel;
+
+        Viewport view;
+        int[] counts;
+        double[] xs;
+        double[] laneCounts;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            if (kernelFor(kernel) == MandelbrotRaster.Kernel.VECTOR && !MandelbrotRaster.vectorKernelAvailable())
+                throw new IllegalStateException("vector kernel not available, needs --add-modules jdk.incubator.vector");
+            view = view(imageSize, iterationMax);
+            counts = new int[view.width];
+            xs = new double[VectorKernel.lanes()];
+            laneCounts = new double[VectorKernel.lanes()];
+        }
+    }
+
+    /**
+     * Just the escape-time kernel over every pixel of the view, nothing written anywhere
+     */
+    @Benchmark
+    public void kernel(KernelState state, Blackhole blackhole)
+    {
+        Viewport view = state.view;
+        if (kernelFor(state.kernel) == MandelbrotRaster.Kernel.VECTOR)
+        {
+            for (int j = 0; j < view.height; j++)
+            {
+                VectorKernel.mandelbrotRow(view, j, 0, view.width, state.counts, state.xs, state.laneCounts);
+                blackhole.consume(state.counts);
+            }
+        }
+        else
+        {
+            for (int j = 0; j < view.height; j++)
+                for (int i = 0; i < view.width; i++)
+                    blackhole.consume(MandelbrotKernel.mandelbrot(view.x(i), view.y(j), view.iterationMax));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class BasicState
+    {
+        @Param({"400", "800"})
+        public int imageSize;
+        @Param({"255", "4096"})
+        public int iterationMax;
+
+        BasicMandelbrot mandelbrot;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            mandelbrot = new BasicMandelbrot(view(imageSize, iterationMax));
+        }
+    }
+
+    @Benchmark
+    public int[] basic(BasicState state)
+    {
+        state.mandelbrot.run();
+        return state.mandelbrot.raster.pixels;
+    }
+
+    @State(Scope.Benchmark)
+    public static class BlockedState
+    {
+        @Param({"400", "800"})
+        public int imageSize;
+        @Param({"255", "4096"})
+        public int iterationMax;
+        @Param({"20", "80"})
+        public int blockSize;
+
+        BlockedMandelbrot mandelbrot;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            mandelbrot = new BlockedMandelbrot(view(imageSize, iterationMax), blockSize);
+        }
+    }
+
+    @Benchmark
+    public int[] blocked(BlockedState state)
+    {
+        state.mandelbrot.run();
+        return state.mandelbrot.raster.pixels;
+    }
+
+    @State(Scope.Benchmark)
+    public static class ThreadedState
+    {
+        @Param({"400", "800"})
+        public int imageSize;
+        @Param({"255", "4096"})
+        public int iterationMax;
+        @Param({"20", "80"})
+        public int blockSize;
+        @Param({"1", "4"})
+        public int threads;
+        @Param({"scalar", "vector"})
+        public String kernel;
+
+        ThreadedMandelbrot mandelbrot;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            mandelbrot = new ThreadedMandelbrot(view(imageSize, iterationMax), blockSize, threads);
+            mandelbrot.raster.setKernel(kernelFor(kernel));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown()
+        {
+            mandelbrot.close();
+        }
+    }
+
+    @Benchmark
+    public int[] threaded(ThreadedState state)
+    {
+        state.mandelbrot.run();
+        return state.mandelbrot.raster.pixels;
+    }
+
+    @State(Scope.Benchmark)
+    public static class LessBlockageState
+    {
+        @Param({"400", "800"})
+        public int imageSize;
+        @Param({"255", "4096"})
+        public int iterationMax;
+        @Param({"20", "80"})
+        public int blockSize;
+        @Param({"1", "4"})
+        public int threads;
+
+        LessBlockageThreading mandelbrot;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            mandelbrot = new LessBlockageThreading(view(imageSize, iterationMax), blockSize, threads);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown()
+        {
+            mandelbrot.close();
+        }
+    }
+
+    @Benchmark
+    public int[] lessBlockage(LessBlockageState state)
+    {
+        state.mandelbrot.run();
+        return state.mandelbrot.raster.pixels;
+    }
+
+    @State(Scope.Benchmark)
+    public static class ForkJoinState
+    {
+        @Param({"400", "800"})
+        public int imageSize;
+        @Param({"255", "4096"})
+        public int iterationMax;
+        @Param({"1", "4"})
+        public int threads;
+
+        ForkJoinPool pool;
+        ForkJoinMandelbrot forkJoin;
+        MarianiSilverMandelbrot marianiSilver;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            pool = new ForkJoinPool(threads);
+            forkJoin = new ForkJoinMandelbrot(view(imageSize, iterationMax), pool);
+            marianiSilver = new MarianiSilverMandelbrot(view(imageSize, iterationMax), pool);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown()
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int[] forkJoin(ForkJoinState state)
+    {
+        state.forkJoin.run();
+        return state.forkJoin.raster.pixels;
+    }
+
+    @Benchmark
+    public int[] marianiSilver(ForkJoinState state)
+    {
+        state.marianiSilver.run();
+        return state.marianiSilver.raster.pixels;
+    }
+
+    @State(Scope.Benchmark)
+    public static class ScheduledState
+    {
+        @Param({"400", "800"})
+        public int imageSize;
+        @Param({"255", "4096"})
+        public int iterationMax;
+        // the tile size for the tiled strategies
+        @Param({"20", "80"})
+        public int blockSize;
+        @Param({"1", "4"})
+        public int threads;
+        @Param({"pool", "virtual", "interleaved", "dynamic", "rows"})
+        public String scheduler;
+        @Param({"scalar"})
+        public String kernel;
+
+        RenderScheduler renderScheduler;
+        ScheduledMandelbrot mandelbrot;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            renderScheduler = RenderSchedulers.create(scheduler, threads, blockSize);
+            mandelbrot = new ScheduledMandelbrot(view(imageSize, iterationMax), renderScheduler);
+            mandelbrot.raster.setKernel(kernelFor(kernel));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown()
+        {
+            renderScheduler.close();
+        }
+    }
+
+    @Benchmark
+    public int[] scheduled(ScheduledState state)
+    {
+        state.mandelbrot.run();
+        return state.mandelbrot.raster.pixels;
+    }
+}